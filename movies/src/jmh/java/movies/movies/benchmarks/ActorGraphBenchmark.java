@@ -0,0 +1,71 @@
+package movies.movies.benchmarks;
+
+import movies.movies.Search.ActorGraph;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//The actor graph on its own, with the casts of CatalogGenerator: a million movies give about 5.5 million links
+//Each call takes the next of a fixed list of random actors, so the numbers average over many of them
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class ActorGraphBenchmark {
+
+    private static final int PAIRS = 256;
+
+    @Param({"1000000"})
+    public int movies;
+
+    private ActorGraph graph;
+    private final long[] from = new long[PAIRS];
+    private final long[] to = new long[PAIRS];
+    private int next;
+
+    //Built through the same calls the services make for every new movie, compactions included
+    @Setup
+    public void setUp() {
+        graph = new ActorGraph();
+        Random random = new Random(CatalogGenerator.DEFAULT_SEED);
+        int actors = CatalogGenerator.actorCount(movies);
+        for (int i = 0; i < movies; i++) {
+            List<Long> cast = new ArrayList<>();
+            for (int actor : CatalogGenerator.pick(random, 3 + random.nextInt(6), actors)) {
+                cast.add(actor + 1L);
+            }
+            graph.movieCast(i + 1L, cast);
+        }
+        for (int i = 0; i < PAIRS; i++) {
+            from[i] = 1 + random.nextInt(actors);
+            to[i] = 1 + random.nextInt(actors);
+        }
+    }
+
+    @Benchmark
+    public Object costars() {
+        return graph.costars(from[next++ % PAIRS], PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Object path() {
+        int pair = next++ % PAIRS;
+        return graph.path(from[pair], to[pair], ActorGraph.MAX_DEGREES);
+    }
+}
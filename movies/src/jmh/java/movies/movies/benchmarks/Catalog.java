@@ -0,0 +1,85 @@
+package movies.movies.benchmarks;
+
+import movies.movies.MoviesApplication;
+import movies.movies.Search.FilterIndex;
+import movies.movies.Search.SearchIndex;
+import movies.movies.Service.CatalogStats;
+import movies.movies.Service.ImportService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/*
+ * The application, without the web server, on a SQLite database seeded with a generated catalog.
+ * Each catalog size gets its own database file under target/benchmarks, seeded through the bulk
+ * import the first time and reused by later runs, so only the first run of a size pays for the seeding.
+ * Benchmarks that write add rows to it; delete target/benchmarks to start from the generated data again.
+ * The prod profile (WAL mode, a writer pool and a reader pool) gets a file of its own, as WAL mode stays with the file.
+ */
+@State(Scope.Benchmark)
+public class Catalog {
+
+    //Movies in the catalog, 100000 and 1000000 are the larger sizes to compare
+    @Param({"10000"})
+    public int movies;
+
+    //Spring profile of the application, -p profile=default,prod compares the two datasource setups
+    @Param({"default"})
+    public String profile;
+
+    public ConfigurableApplicationContext context;
+
+    @Setup(Level.Trial)
+    public void start() throws Exception {
+        Path directory = Path.of("target", "benchmarks");
+        Files.createDirectories(directory);
+        String name = "default".equals(profile) ? "movies-" + movies : "movies-" + movies + "-" + profile;
+        Path database = directory.resolve(name + ".db");
+        //Written once the seeding is done, so an interrupted seeding starts over
+        Path seededMarker = directory.resolve(name + ".seeded");
+        boolean seeded = Files.exists(seededMarker);
+        if (!seeded) {
+            Files.deleteIfExists(database);
+        }
+
+        //Passed as arguments so they win over application.properties
+        context = new SpringApplicationBuilder(MoviesApplication.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=jdbc:sqlite:" + database,
+                        "--spring.profiles.active=" + profile,
+                        "--spring.jpa.show-sql=false",
+                        "--logging.level.root=WARN");
+
+        if (!seeded) {
+            Path catalog = directory.resolve("catalog-" + movies + ".ndjson");
+            CatalogGenerator.write(movies, CatalogGenerator.DEFAULT_SEED, catalog);
+            try (InputStream body = Files.newInputStream(catalog)) {
+                context.getBean(ImportService.class).importCatalog(body);
+            }
+            //The indexes and the stats were built on the empty database when the context started
+            context.getBean(SearchIndex.class).rebuild();
+            context.getBean(FilterIndex.class).rebuild();
+            context.getBean(CatalogStats.class).rebuild();
+            Files.createFile(seededMarker);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() {
+        context.close();
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+}
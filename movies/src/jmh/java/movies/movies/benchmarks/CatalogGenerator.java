@@ -0,0 +1,119 @@
+package movies.movies.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/*
+ * Writes a catalog of the given size as NDJSON for POST /api/import.
+ * The same size and seed always give the same file, so benchmark runs on different commits
+ * read the same data. One actor per four movies, 1 to 3 genres and 3 to 8 actors per movie,
+ * titles made of common words so title searches have many matches.
+ *
+ * Also usable on its own: java ... CatalogGenerator 100000 catalog.ndjson [seed]
+ */
+public class CatalogGenerator {
+
+    public static final long DEFAULT_SEED = 42;
+
+    static final List<String> GENRES = List.of("Action", "Adventure", "Animation", "Comedy", "Crime", "Documentary",
+            "Drama", "Family", "Fantasy", "History", "Horror", "Music", "Mystery", "Romance", "Science Fiction",
+            "Thriller", "War", "Western", "Sport", "Biography");
+
+    //Title words, the first ones are picked more often, like real titles
+    static final List<String> WORDS = List.of("night", "love", "dark", "man", "last", "city", "world", "house", "dead",
+            "river", "story", "life", "king", "road", "girl", "blood", "home", "time", "game", "black", "star", "war",
+            "day", "secret", "summer", "little", "lost", "fire", "heart", "moon", "shadow", "silent", "storm", "winter",
+            "empire", "ghost", "island", "dream", "wild", "golden", "broken", "mountain", "ocean", "iron", "glass",
+            "paper", "stone", "hidden", "final", "crimson");
+
+    static final List<String> FIRST_NAMES = List.of("James", "Mary", "Robert", "Patricia", "John", "Jennifer", "Michael",
+            "Linda", "David", "Elizabeth", "William", "Barbara", "Richard", "Susan", "Joseph", "Jessica", "Thomas",
+            "Sarah", "Charles", "Karen", "Akira", "Ingrid", "Pedro", "Sofia", "Kenji", "Amara", "Lars", "Chloe");
+
+    static final List<String> LAST_NAMES = List.of("Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia", "Miller",
+            "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Wilson", "Anderson", "Taylor", "Moore", "Jackson",
+            "Martin", "Lee", "Thompson", "White", "Harris", "Clark", "Lewis", "Walker", "Young", "Allen", "King");
+
+    public static void main(String[] args) throws IOException {
+        int movies = Integer.parseInt(args[0]);
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : DEFAULT_SEED;
+        write(movies, seed, Path.of(args[1]));
+    }
+
+    public static void write(int movies, long seed, Path file) throws IOException {
+        try (Writer writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8), 1 << 16)) {
+            write(movies, seed, writer);
+        }
+    }
+
+    public static void write(int movies, long seed, Writer out) throws IOException {
+        Random random = new Random(seed);
+        for (String genre : GENRES) {
+            out.write("{\"type\":\"genre\",\"name\":\"" + genre + "\"}\n");
+        }
+        int actors = actorCount(movies);
+        for (int i = 0; i < actors; i++) {
+            LocalDate birthDate = LocalDate.of(1930, 1, 1).plusDays(random.nextInt(365 * 75));
+            out.write("{\"type\":\"actor\",\"name\":\"" + actorName(i) + "\",\"birthDate\":\"" + birthDate + "\"}\n");
+        }
+        for (int i = 0; i < movies; i++) {
+            StringBuilder movie = new StringBuilder(256)
+                    .append("{\"type\":\"movie\",\"title\":\"").append(title(random, i))
+                    .append("\",\"releaseYear\":").append(1920 + random.nextInt(106))
+                    .append(",\"duration\":").append(70 + random.nextInt(110))
+                    .append(",\"genres\":[");
+            appendNames(movie, pick(random, 1 + random.nextInt(3), GENRES.size()), GENRES::get);
+            movie.append("],\"actors\":[");
+            appendNames(movie, pick(random, 3 + random.nextInt(6), actors), CatalogGenerator::actorName);
+            out.write(movie.append("]}\n").toString());
+        }
+    }
+
+    static int actorCount(int movies) {
+        return Math.max(100, movies / 4);
+    }
+
+    //Unique names: a first and last name, and a number once the combinations run out
+    static String actorName(int index) {
+        int combinations = FIRST_NAMES.size() * LAST_NAMES.size();
+        String name = FIRST_NAMES.get(index % FIRST_NAMES.size()) + " " + LAST_NAMES.get(index / FIRST_NAMES.size() % LAST_NAMES.size());
+        return index < combinations ? name : name + " " + (index / combinations);
+    }
+
+    //Two or three words and the movie number, which keeps the titles unique
+    static String title(Random random, int index) {
+        StringBuilder title = new StringBuilder();
+        int words = 2 + random.nextInt(2);
+        for (int i = 0; i < words; i++) {
+            String word = WORDS.get((int) (WORDS.size() * Math.pow(random.nextDouble(), 2)));
+            title.append(Character.toUpperCase(word.charAt(0))).append(word, 1, word.length()).append(' ');
+        }
+        return title.append(index + 1).toString();
+    }
+
+    static Set<Integer> pick(Random random, int count, int bound) {
+        Set<Integer> picked = new LinkedHashSet<>();
+        while (picked.size() < Math.min(count, bound)) {
+            picked.add(random.nextInt(bound));
+        }
+        return picked;
+    }
+
+    private static void appendNames(StringBuilder json, Set<Integer> indexes, IntFunction<String> nameOf) {
+        boolean first = true;
+        for (int index : indexes) {
+            json.append(first ? "" : ",").append("{\"name\":\"").append(nameOf.apply(index)).append("\"}");
+            first = false;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package movies.movies.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import movies.movies.Repository.MovieRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * One page of the movie listing read from the database and written as JSON, the way the listing did it with entities
+ * (findAll, then the genres and actors loaded lazily while Jackson walks them) and the way it does now with the
+ * projections (the page of ids, then one query each for the rows, genres and actors). Both run in a read-only
+ * transaction like the service. Run with -prof gc to compare the allocations per page as well as the time.
+ * The pages walk through the whole catalog. Once they've all been read the entities' genres and actors come from
+ * the second-level cache, which the listing didn't have when it used entities; to compare the queries alone add
+ * -jvmArgsAppend -Dspring.jpa.properties.hibernate.cache.use_second_level_cache=false
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MoviePageBenchmark {
+
+    @Param({"20", "100"})
+    public int size;
+
+    private MovieRepository movieRepository;
+    private ObjectMapper objectMapper;
+    private TransactionTemplate readOnly;
+    private int pages;
+    private int next;
+
+    @Setup
+    public void setUp(Catalog catalog) {
+        movieRepository = catalog.bean(MovieRepository.class);
+        objectMapper = catalog.bean(ObjectMapper.class);
+        readOnly = new TransactionTemplate(catalog.bean(PlatformTransactionManager.class));
+        readOnly.setReadOnly(true);
+        pages = catalog.movies / size;
+    }
+
+    @Benchmark
+    public byte[] entities() {
+        Pageable pageable = nextPage();
+        return readOnly.execute(status -> json(movieRepository.findAll(pageable).getContent()));
+    }
+
+    @Benchmark
+    public byte[] projections() {
+        Pageable pageable = nextPage();
+        return readOnly.execute(status -> json(movieRepository.findAllSummaries(pageable).getContent()));
+    }
+
+    private Pageable nextPage() {
+        return PageRequest.of(next++ % pages, size, Sort.by("id"));
+    }
+
+    private byte[] json(Object content) {
+        try {
+            return objectMapper.writeValueAsBytes(content);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
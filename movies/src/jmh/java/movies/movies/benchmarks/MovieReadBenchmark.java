@@ -0,0 +1,90 @@
+package movies.movies.benchmarks;
+
+import movies.movies.Controller.SearchController;
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Service.MovieService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//The read paths clients call the most: the movie listing, the combined filters, the title search and the general search
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MovieReadBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Services {
+        MovieService movieService;
+        SearchController searchController;
+
+        @Setup
+        public void setUp(Catalog catalog) {
+            movieService = catalog.bean(MovieService.class);
+            searchController = catalog.bean(SearchController.class);
+        }
+    }
+
+    //The first page and one deep into the listing, 20 movies each
+    @State(Scope.Benchmark)
+    public static class Paging {
+        @Param({"0", "200"})
+        public int page;
+    }
+
+    //A word in many titles and two words that are in fewer of them together
+    @State(Scope.Benchmark)
+    public static class Query {
+        @Param({"night", "silent river"})
+        public String query;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Keystrokes {
+        @Param({"s", "si", "sil", "silent r"})
+        public String prefix;
+    }
+
+    @Benchmark
+    public Object getAllMovies(Services services, Paging paging) {
+        return services.movieService.getAllMovies(PageRequest.of(paging.page, 20, Sort.by("id")));
+    }
+
+    //Drama or Comedy, from the 1990s, between 90 and 120 minutes: answered by the filter index, only the page is read
+    @Benchmark
+    public Object filterMovies(Services services) {
+        MovieFilter filter = MovieFilter.of(List.of(7L, 4L), "any", null, null, null, 1990, 1999, 90, 120);
+        return services.movieService.getMovies(filter, PageRequest.of(0, 20, Sort.by("id")));
+    }
+
+    @Benchmark
+    public Object findByTitle(Services services, Query query) {
+        return services.movieService.findByTitle(query.query, false, PageRequest.of(0, 20));
+    }
+
+    @Benchmark
+    public Object searchAllEntities(Services services, Query query) {
+        return services.searchController.searchAllEntities(query.query, 0, 20, false, false);
+    }
+
+    //One keystroke after another: a single letter is served from the cached ranking, longer prefixes rank their run
+    @Benchmark
+    public Object autocomplete(Services services, Keystrokes keystrokes) {
+        return services.searchController.autocomplete(keystrokes.prefix, 10);
+    }
+}
@@ -0,0 +1,77 @@
+package movies.movies.benchmarks;
+
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import movies.movies.Repository.ActorRepository;
+import movies.movies.Repository.GenreRepository;
+import movies.movies.Service.MovieService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+//MovieService.createMovie with casts of different sizes, every call inserts a new movie and its links
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MovieWriteBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int cast;
+
+    private MovieService movieService;
+    private List<Long> actorIds;
+    private List<Long> genreIds;
+    //Titles stay unique across runs on the same database file
+    private final String run = UUID.randomUUID().toString().substring(0, 8);
+    private long created;
+
+    @Setup
+    public void setUp(Catalog catalog) {
+        movieService = catalog.bean(MovieService.class);
+        actorIds = catalog.bean(ActorRepository.class).findIds(PageRequest.of(0, cast, Sort.by("id"))).getContent();
+        genreIds = catalog.bean(GenreRepository.class).findIds(PageRequest.of(0, 2, Sort.by("id"))).getContent();
+    }
+
+    @Benchmark
+    public Movie createMovie() {
+        Movie movie = new Movie();
+        movie.setTitle("Benchmark " + run + " " + created++);
+        movie.setReleaseYear(2000);
+        movie.setDuration(120);
+        Set<Genre> genres = new HashSet<>();
+        for (Long id : genreIds) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            genres.add(genre);
+        }
+        Set<Actor> actors = new HashSet<>();
+        for (Long id : actorIds) {
+            Actor actor = new Actor();
+            actor.setId(id);
+            actors.add(actor);
+        }
+        movie.setGenres(genres);
+        movie.setActors(actors);
+        return movieService.createMovie(movie);
+    }
+}
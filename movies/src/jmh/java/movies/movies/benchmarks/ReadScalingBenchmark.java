@@ -0,0 +1,127 @@
+package movies.movies.benchmarks;
+
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import movies.movies.Repository.ActorRepository;
+import movies.movies.Repository.GenreRepository;
+import movies.movies.Service.MovieService;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.TransactionException;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Readers and one writer on the same database at once, to compare the single pool of the default profile with
+ * the WAL mode writer and reader pools of prod: mvn -Pbenchmarks -DskipTests verify
+ * -Djmh.args="ReadScalingBenchmark -p profile=default,prod -tg 8,1" (reader threads, writer threads).
+ * The readers list random pages of the movies, which the writer's commits keep out of the query cache, so every
+ * read goes to the database. Reads and writes that fail, with SQLITE_BUSY without WAL, are counted instead of
+ * failing the run, as the failures are part of what's compared.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ReadScalingBenchmark {
+
+    @State(Scope.Group)
+    public static class Services {
+        MovieService movieService;
+        List<Long> actorIds;
+        List<Long> genreIds;
+        int pages;
+        //Titles stay unique across runs on the same database file
+        final String run = UUID.randomUUID().toString().substring(0, 8);
+
+        @Setup
+        public void setUp(Catalog catalog) {
+            movieService = catalog.bean(MovieService.class);
+            actorIds = catalog.bean(ActorRepository.class).findIds(PageRequest.of(0, 5, Sort.by("id"))).getContent();
+            genreIds = catalog.bean(GenreRepository.class).findIds(PageRequest.of(0, 2, Sort.by("id"))).getContent();
+            pages = catalog.movies / 20;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Failures {
+        public long failedReads;
+        public long failedWrites;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            failedReads = 0;
+            failedWrites = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Writer {
+        long created;
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(4)
+    public Object read(Services services, Failures failures) {
+        try {
+            return services.movieService.getAllMovies(PageRequest.of(ThreadLocalRandom.current().nextInt(services.pages), 20, Sort.by("id")));
+        } catch (DataAccessException | TransactionException e) {
+            failures.failedReads++;
+            return e;
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public Object write(Services services, Writer writer, Failures failures) {
+        Movie movie = new Movie();
+        movie.setTitle("Scaling " + services.run + " " + Thread.currentThread().getId() + " " + writer.created++);
+        movie.setReleaseYear(2000);
+        movie.setDuration(120);
+        Set<Genre> genres = new HashSet<>();
+        for (Long id : services.genreIds) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            genres.add(genre);
+        }
+        Set<Actor> actors = new HashSet<>();
+        for (Long id : services.actorIds) {
+            Actor actor = new Actor();
+            actor.setId(id);
+            actors.add(actor);
+        }
+        movie.setGenres(genres);
+        movie.setActors(actors);
+        try {
+            return services.movieService.createMovie(movie);
+        } catch (DataAccessException | TransactionException e) {
+            failures.failedWrites++;
+            return e;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package movies.movies.benchmarks;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.GenreRef;
+import movies.movies.Dto.MovieSummary;
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+//Jackson serialization of one movie with its genres and cast, as the Movie entity graph
+//returned by the writes and as the MovieSummary projection returned by the reads; no database
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int cast;
+
+    private ObjectMapper objectMapper;
+    private Movie movie;
+    private MovieSummary summary;
+
+    @Setup
+    public void setUp() {
+        //Configured like the mapper Spring Boot creates for the controllers
+        objectMapper = Jackson2ObjectMapperBuilder.json()
+                .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+                .build();
+        movie = new Movie();
+        movie.setId(1L);
+        movie.setTitle("Silent River Night 1");
+        movie.setReleaseYear(1999);
+        movie.setDuration(121);
+        List<GenreRef> genres = new ArrayList<>();
+        for (long id = 1; id <= 3; id++) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            genre.setName("Genre " + id);
+            genre.getMovies().add(movie);
+            movie.getGenres().add(genre);
+            genres.add(new GenreRef(id, genre.getName()));
+        }
+        List<ActorRef> actors = new ArrayList<>();
+        for (long id = 1; id <= cast; id++) {
+            Actor actor = new Actor();
+            actor.setId(id);
+            actor.setName("Actor Number " + id);
+            actor.setBirthDate(LocalDate.of(1950, 1, 1).plusDays(id));
+            actor.getMovies().add(movie);
+            movie.getActors().add(actor);
+            actors.add(new ActorRef(id, actor.getName(), actor.getBirthDate()));
+        }
+        summary = new MovieSummary(movie.getId(), movie.getTitle(), movie.getReleaseYear(), movie.getDuration(), genres, actors);
+    }
+
+    @Benchmark
+    public byte[] movieEntity() throws Exception {
+        return objectMapper.writeValueAsBytes(movie);
+    }
+
+    @Benchmark
+    public byte[] movieSummary() throws Exception {
+        return objectMapper.writeValueAsBytes(summary);
+    }
+}
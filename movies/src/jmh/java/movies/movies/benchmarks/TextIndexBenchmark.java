@@ -0,0 +1,57 @@
+package movies.movies.benchmarks;
+
+import movies.movies.Search.TextIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//The title index on its own, at sizes the application's catalog benchmarks take too long to load
+//The titles are those of CatalogGenerator, the queries have typos in words of different frequencies
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TextIndexBenchmark {
+
+    @Param({"1000000"})
+    public int titles;
+
+    //Two rare words, a rare and a common word, one word, and a title with its number
+    @Param({"silnt crimsn", "hiden nigt", "shadw", "crimsn montain 4242"})
+    public String query;
+
+    private TextIndex index;
+
+    @Setup
+    public void setUp() {
+        index = new TextIndex();
+        Random random = new Random(CatalogGenerator.DEFAULT_SEED);
+        for (int i = 0; i < titles; i++) {
+            index.put(i + 1, CatalogGenerator.title(random, i));
+        }
+    }
+
+    @Benchmark
+    public Object fuzzySearch() {
+        return index.fuzzySearch(query, 20);
+    }
+
+    //The same queries without typo tolerance, mostly find nothing, for comparison
+    @Benchmark
+    public Object search() {
+        return index.search(query, 20);
+    }
+}
@@ -0,0 +1,51 @@
+package movies.movies.Config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import movies.movies.Service.CatalogCache;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.support.NoOpCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+
+import java.time.Duration;
+
+@Configuration
+@EnableCaching //Turns on @Cacheable for the by-ID lookups
+public class CacheConfig {
+
+    @Value("${movies.cache.maximum-size:10000}")
+    private long maximumSize;
+    @Value("${movies.cache.expire-after-write:10m}")
+    private Duration expireAfterWrite;
+    //Several nodes share the database: a node can't evict what another one changed, so nothing is cached
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    //Bounded caches with a TTL, stats are recorded so hits, misses and evictions can be reported
+    @Bean
+    public CaffeineCacheManager caffeineCacheManager() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager(CatalogCache.MOVIES, CatalogCache.ACTORS, CatalogCache.GENRES);
+        cacheManager.setCaffeine(Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats());
+        cacheManager.setAllowNullValues(false);
+        return cacheManager;
+    }
+
+    //Evictions made inside a transaction only happen after it commits,
+    //so a concurrent read can't put the old row back into the cache before the write is visible
+    @Bean
+    @Primary
+    public CacheManager cacheManager(CaffeineCacheManager caffeineCacheManager) {
+        if (multiNode) {
+            return new NoOpCacheManager();
+        }
+        return new TransactionAwareCacheManagerProxy(caffeineCacheManager);
+    }
+}
@@ -0,0 +1,111 @@
+package movies.movies.Config;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.sqlite.SQLiteConfig;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.util.Map;
+
+/*
+ * Datasource of the prod profile.
+ * SQLite allows one writer at a time, but in WAL mode readers don't block the writer and the writer
+ * doesn't block readers. So writes go through a pool of a single connection, which queues them in
+ * the pool instead of on the file lock, and reads use their own pool of read-only connections.
+ * Transactions marked @Transactional(readOnly = true) get a reader connection, everything else the writer.
+ * Hibernate hands the connection back after every transaction (see application-prod.properties),
+ * so with open-in-view each transaction of a request is routed on its own.
+ */
+@Configuration
+@Profile("prod & !postgres") //SQLite only
+public class DataSourceConfig {
+
+    //The pools are started here, before Spring Boot could attach its metrics, so they report to the registry themselves
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${spring.datasource.url}")
+    private String url;
+    //0 means one reader per core
+    @Value("${movies.datasource.reader-pool-size:0}")
+    private int readerPoolSize;
+    //How long a connection waits for the file lock before failing with SQLITE_BUSY
+    @Value("${movies.sqlite.busy-timeout:5s}")
+    private Duration busyTimeout;
+    //Bytes of the database file read through memory mapping, 0 turns it off
+    @Value("${movies.sqlite.mmap-size:268435456}")
+    private long mmapSize;
+    //Page cache per connection, negative values are in KiB as in PRAGMA cache_size
+    @Value("${movies.sqlite.cache-size:-65536}")
+    private int cacheSize;
+
+    @Bean(destroyMethod = "close")
+    public HikariDataSource writerDataSource() {
+        SQLiteConfig sqlite = sqliteConfig();
+        sqlite.setJournalMode(SQLiteConfig.JournalMode.WAL); //Stored in the file, so the readers open it in WAL mode too
+        sqlite.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL); //Safe in WAL mode, only the last commits can be lost on power failure
+        return pool("sqlite-writer", sqlite, 1, false);
+    }
+
+    //Depends on the writer so the file is already in WAL mode when the readers connect
+    @Bean(destroyMethod = "close")
+    public HikariDataSource readerDataSource(HikariDataSource writerDataSource) {
+        SQLiteConfig sqlite = sqliteConfig();
+        sqlite.setReadOnly(true); //Opens the file read-only, a write through a reader fails instead of taking the lock
+        int size = readerPoolSize > 0 ? readerPoolSize : Runtime.getRuntime().availableProcessors();
+        return pool("sqlite-reader", sqlite, size, true);
+    }
+
+    //The datasource JPA uses. Hibernate asks for the connection when the transaction begins, before Spring
+    //has marked the transaction read-only, so the lazy proxy holds off picking a pool until the first statement
+    @Bean
+    @Primary
+    public DataSource dataSource(HikariDataSource writerDataSource, HikariDataSource readerDataSource) {
+        ReadOnlyRoutingDataSource routing = new ReadOnlyRoutingDataSource();
+        routing.setTargetDataSources(Map.of(false, writerDataSource, true, readerDataSource));
+        routing.setDefaultTargetDataSource(writerDataSource);
+        routing.afterPropertiesSet();
+        return new LazyConnectionDataSourceProxy(routing);
+    }
+
+    //Picks the reader pool inside read-only transactions and the writer everywhere else
+    static class ReadOnlyRoutingDataSource extends AbstractRoutingDataSource {
+        @Override
+        protected Object determineCurrentLookupKey() {
+            return TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+        }
+    }
+
+    private SQLiteConfig sqliteConfig() {
+        SQLiteConfig sqlite = new SQLiteConfig();
+        sqlite.setBusyTimeout((int) busyTimeout.toMillis());
+        sqlite.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapSize));
+        sqlite.setCacheSize(cacheSize);
+        return sqlite;
+    }
+
+    private HikariDataSource pool(String name, SQLiteConfig sqlite, int size, boolean readOnly) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl(url);
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setDataSourceProperties(sqlite.toProperties());
+        config.setMaximumPoolSize(size);
+        config.setMinimumIdle(size);
+        config.setReadOnly(readOnly); //SQLite can't flip the flag of an open connection, so the pool must not reset it
+        config.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(meterRegistry));
+        return new HikariDataSource(config);
+    }
+}
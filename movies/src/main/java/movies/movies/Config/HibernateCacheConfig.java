@@ -0,0 +1,95 @@
+package movies.movies.Config;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import javax.cache.spi.CachingProvider;
+import java.net.URI;
+import java.time.Duration;
+import java.util.OptionalLong;
+import java.util.UUID;
+
+/*
+ * Regions of Hibernate's second-level cache, kept in Caffeine through its JCache provider.
+ * Genres and actors are cached as entities and the genres and actors of a movie as collections
+ * (ids only, the entities come from their own regions). The query cache holds the id pages and
+ * counts of the genre and release year listings.
+ * Hibernate keeps the regions current for the writes it makes, including the native link queries
+ * which name the join table they change. The bulk import writes with plain JDBC and evicts them itself.
+ * With movies.multi-node the cache is off, as a node's regions would keep what other nodes changed.
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+    //Region names, used in the @Cache annotations of the entities
+    public static final String GENRES = "genres";
+    public static final String ACTORS = "actors";
+    public static final String MOVIE_GENRES = "movie-genres";
+    public static final String MOVIE_ACTORS = "movie-actors";
+    //Hibernate's own regions for the query cache
+    private static final String QUERY_RESULTS = "default-query-results-region";
+    private static final String UPDATE_TIMESTAMPS = "default-update-timestamps-region";
+
+    @Value("${movies.l2-cache.genres.maximum-size:1000}")
+    private long genresMaximumSize;
+    @Value("${movies.l2-cache.actors.maximum-size:50000}")
+    private long actorsMaximumSize;
+    //For each of the two collection regions
+    @Value("${movies.l2-cache.movie-links.maximum-size:50000}")
+    private long movieLinksMaximumSize;
+    @Value("${movies.l2-cache.queries.maximum-size:5000}")
+    private long queriesMaximumSize;
+    @Value("${movies.l2-cache.expire-after-write:1h}")
+    private Duration expireAfterWrite;
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    //Closed by Spring after Hibernate has shut down
+    //Each application context gets its own manager, two contexts in one JVM (like tests) must not share the regions
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager() {
+        CachingProvider provider = Caching.getCachingProvider(CaffeineCachingProvider.class.getName());
+        URI uri = URI.create("movies:hibernate:" + UUID.randomUUID());
+        CacheManager cacheManager = provider.getCacheManager(uri, getClass().getClassLoader());
+        cacheManager.createCache(GENRES, region(genresMaximumSize, expireAfterWrite));
+        cacheManager.createCache(ACTORS, region(actorsMaximumSize, expireAfterWrite));
+        cacheManager.createCache(MOVIE_GENRES, region(movieLinksMaximumSize, expireAfterWrite));
+        cacheManager.createCache(MOVIE_ACTORS, region(movieLinksMaximumSize, expireAfterWrite));
+        cacheManager.createCache(QUERY_RESULTS, region(queriesMaximumSize, expireAfterWrite));
+        //One entry per table, it must not lose them or stale query results would be used
+        cacheManager.createCache(UPDATE_TIMESTAMPS, region(null, null));
+        return cacheManager;
+    }
+
+    //Hands the cache manager with the configured regions to Hibernate, or turns the cache off on several nodes
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheManagerCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            if (multiNode) {
+                properties.put(AvailableSettings.USE_SECOND_LEVEL_CACHE, false);
+                properties.put(AvailableSettings.USE_QUERY_CACHE, false);
+            }
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> region(Long maximumSize, Duration expireAfterWrite) {
+        CaffeineConfiguration<Object, Object> region = new CaffeineConfiguration<>();
+        if (maximumSize != null) {
+            region.setMaximumSize(OptionalLong.of(maximumSize));
+        }
+        if (expireAfterWrite != null) {
+            region.setExpireAfterWrite(OptionalLong.of(expireAfterWrite.toNanos()));
+        }
+        region.setStatisticsEnabled(true);
+        return region;
+    }
+}
@@ -0,0 +1,18 @@
+package movies.movies.Config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class JobConfig {
+
+    //Runs background jobs one at a time, they are large writes and SQLite has a single writer anyway
+    //Closing it on shutdown waits for the queued jobs to finish
+    @Bean(destroyMethod = "close")
+    public ExecutorService jobExecutor() {
+        return Executors.newSingleThreadExecutor(Thread.ofPlatform().name("job-", 0).factory());
+    }
+}
@@ -0,0 +1,29 @@
+package movies.movies.Config;
+
+import movies.movies.Metrics.QueryCounter;
+import org.hibernate.cfg.AvailableSettings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+public class MetricsConfig implements WebMvcConfigurer {
+
+    @Autowired
+    private QueryCounter queryCounter;
+
+    //Hibernate passes every statement it prepares through the counter
+    @Bean
+    public HibernatePropertiesCustomizer statementInspector() {
+        return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, queryCounter);
+    }
+
+    //Counts the statements of the API requests, the actuator endpoints don't run any
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(queryCounter).addPathPatterns("/api/**");
+    }
+}
@@ -0,0 +1,18 @@
+package movies.movies.Config;
+
+import org.hibernate.community.dialect.SQLiteDialect;
+import org.hibernate.type.SqlTypes;
+
+/*
+ * The SQLite dialect, except that schema validation accepts any integer column for any integer field.
+ * SQLite stores every integer the same way (up to 8 bytes), and the ids have to be declared "integer"
+ * to be the rowid, which is what the community dialect generates itself but then rejects for a Long.
+ */
+public class MoviesSQLiteDialect extends SQLiteDialect {
+
+    @Override
+    public boolean equivalentTypes(int typeCode1, int typeCode2) {
+        return super.equivalentTypes(typeCode1, typeCode2)
+                || SqlTypes.isIntegral(typeCode1) && SqlTypes.isIntegral(typeCode2);
+    }
+}
@@ -0,0 +1,17 @@
+package movies.movies.Config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+@Configuration
+public class SearchConfig {
+
+    //Runs the branches of the general search, one cheap virtual thread per branch
+    @Bean(destroyMethod = "close")
+    public ExecutorService searchExecutor() {
+        return Executors.newVirtualThreadPerTaskExecutor();
+    }
+}
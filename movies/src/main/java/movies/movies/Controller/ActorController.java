@@ -1,18 +1,33 @@
 package movies.movies.Controller;
+import movies.movies.Dto.ActorSummary;
+import movies.movies.Dto.Costar;
+import movies.movies.Dto.Cursor;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.Job;
+import movies.movies.Dto.PageResponse;
+import movies.movies.Dto.SliceResponse;
 import movies.movies.Entity.Actor;
+import movies.movies.Search.ActorGraph;
 import movies.movies.Service.ActorService;
+import movies.movies.Service.CatalogVersions;
+import movies.movies.Service.CatalogVersions.Table;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import java.util.HashMap;
+import java.net.URI;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/actors") //Base URL for all endpoints in this controller
@@ -20,6 +35,8 @@ public class ActorController {
 
     @Autowired
     private ActorService actorService;
+    @Autowired
+    private CatalogVersions catalogVersions;
 
     //Create a new actor
     @PostMapping
@@ -37,40 +54,110 @@ public class ActorController {
     // Get all actors with pagination
     @GetMapping
     public ResponseEntity<?> getAllActors(
+            @RequestParam(required = false) String after,
             @PageableDefault(sort = "name", direction = Sort.Direction.ASC) Pageable pageable,
             @RequestParam(required = false, defaultValue = "0") int page,
-            @RequestParam(required = false, defaultValue = "10") int size) {
+            @RequestParam(required = false, defaultValue = "10") int size,
+            WebRequest request) {
         // Check that page number is not negative
         validatePageAndSize(page, size);
+        //304 without reading anything if no actor or movie changed since the client's copy
+        if (catalogVersions.notModified(request, Table.ACTORS, Table.MOVIES)) {
+            return null;
+        }
+
+        //Cursor mode, sorted by name and without the totals
+        if (after != null) {
+            Slice<ActorSummary> actorSlice = actorService.getActorsAfter(Cursor.decode(after), pageable.getPageSize());
+            return ResponseEntity.ok(SliceResponse.of(actorSlice, actor -> new Cursor(actor.name(), actor.id())));
+        }
 
         // Get actors from service and prepare response
-        Page<Actor> actorPage = actorService.getAllActors(pageable);
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", actorPage.getContent());
-        response.put("totalElements", actorPage.getTotalElements());
-        response.put("totalPages", actorPage.getTotalPages());
-        response.put("elementsOnThisPage", actorPage.getNumberOfElements());
-
-        return ResponseEntity.ok(response);
+        Page<ActorSummary> actorPage = actorService.getAllActors(pageable);
+        return ResponseEntity.ok(PageResponse.of(actorPage));
+    }
+
+    //Link many movies to an actor at once, the body is a list of movie ids
+    @PostMapping("/{id}/movies")
+    public ResponseEntity<?> linkMovies(@PathVariable Long id, @RequestBody List<Long> movieIds) {
+        return ResponseEntity.ok(Map.of("linked", actorService.linkMovies(id, movieIds)));
+    }
+
+    //Unlink many movies from an actor at once, the body is a list of movie ids
+    @DeleteMapping("/{id}/movies")
+    public ResponseEntity<?> unlinkMovies(@PathVariable Long id, @RequestBody List<Long> movieIds) {
+        return ResponseEntity.ok(Map.of("unlinked", actorService.unlinkMovies(id, movieIds)));
+    }
+
+    //Actors who played in a movie with this one, the most shared movies first
+    @GetMapping("/{id}/costars")
+    public ResponseEntity<?> getCostars(@PathVariable Long id,
+                                        @PageableDefault Pageable pageable,
+                                        @RequestParam(required = false, defaultValue = "0") int page,
+                                        @RequestParam(required = false, defaultValue = "10") int size,
+                                        WebRequest request) {
+        validatePageAndSize(page, size);
+        if (catalogVersions.notModified(request, Table.ACTORS, Table.MOVIES)) {
+            return null;
+        }
+        Page<Costar> costars = actorService.getCostars(id, pageable);
+        return ResponseEntity.ok(PageResponse.of(costars));
+    }
+
+    //Degrees of separation: the shortest chain of movies and actors from this actor to the other one
+    @GetMapping("/{id}/path/{otherId}")
+    public ResponseEntity<?> getPath(@PathVariable Long id, @PathVariable Long otherId,
+                                     @RequestParam(defaultValue = "6") int maxDegrees,
+                                     WebRequest request) {
+        if (maxDegrees < 1 || maxDegrees > ActorGraph.MAX_DEGREES) {
+            throw new IllegalStateException("maxDegrees must be between 1 and " + ActorGraph.MAX_DEGREES);
+        }
+        if (catalogVersions.notModified(request, Table.ACTORS, Table.MOVIES)) {
+            return null;
+        }
+        return ResponseEntity.ok(actorService.getPath(id, otherId, maxDegrees));
+    }
+
+    //Count all actors, the cursor mode leaves the totals out
+    @GetMapping("/count")
+    public ResponseEntity<?> countActors(WebRequest request) {
+        if (catalogVersions.notModified(request, Table.ACTORS)) {
+            return null;
+        }
+        return ResponseEntity.ok(Map.of("totalElements", actorService.countActors()));
     }
 
     //Get actor by ID
     @GetMapping("/{id}")
-    public ResponseEntity<?> getActorById(@PathVariable Long id) {
+    //Answers 304 from the actor's version alone, the movies are only read for a 200
+    public ResponseEntity<?> getActorById(@PathVariable Long id, WebRequest request) {
+            Optional<EntityVersion> version = actorService.getActorVersion(id);
+            if (version.isPresent() && catalogVersions.notModified(request, version.get(), Table.MOVIES)) {
+                return null;
+            }
             return ResponseEntity.ok(actorService.getActorById(id));
     }
 
     //Update an existing actor
+    //With an If-Match header the update only goes through if the actor is still at that ETag's version
     @PatchMapping("/{id}")
     public ResponseEntity<?> updateActor(@PathVariable Long id,
-                                         @RequestBody Map<String, Object> updatedActor) {
-                return ResponseEntity.ok(actorService.updateActor(id, updatedActor));
+                                         @RequestBody Map<String, Object> updatedActor,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+                Actor actor = actorService.updateActor(id, updatedActor, CatalogVersions.expectedVersion(ifMatch)).orElseThrow();
+                return ResponseEntity.ok().eTag(catalogVersions.tag(actor.getVersion(), Table.MOVIES)).body(actor);
     }
 
     //Delete an actor by ID
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteActorById(@PathVariable Long id,
-                                             @RequestParam(defaultValue = "false") boolean force) {
+                                             @RequestParam(defaultValue = "false") boolean force,
+                                             @RequestParam(defaultValue = "false") boolean async) {
+        //With async=true the delete runs as a background job, its status is at /api/jobs/{jobId}
+        if (async) {
+            Job job = actorService.deleteActorInBackground(id, force);
+            return ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.id())).body(job);
+        }
         actorService.deleteActor(id, force);
         return ResponseEntity.noContent().build();
     }
@@ -79,21 +166,20 @@ public class ActorController {
     //Search for actors by name
     @GetMapping("/search")
     public ResponseEntity<?> getActorByName(@RequestParam String name,
+                                            @RequestParam(defaultValue = "false") boolean fuzzy,
                                             @PageableDefault(sort = "name", direction = Sort.Direction.ASC) Pageable pageable,
                                             @RequestParam(required = false, defaultValue = "0") int page,
-                                            @RequestParam(required = false, defaultValue = "10") int size) {
+                                            @RequestParam(required = false, defaultValue = "10") int size,
+                                            WebRequest request) {
        // Check page number and size limits
         validatePageAndSize(page, size);
+        if (catalogVersions.notModified(request, Table.ACTORS, Table.MOVIES)) {
+            return null;
+        }
         
         // Search actors by name and prepare response
-        Page<Actor> actorPage = actorService.findByName(name, pageable);
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", actorPage.getContent());
-        response.put("totalElements", actorPage.getTotalElements());
-        response.put("totalPages", actorPage.getTotalPages());
-        response.put("elementsOnThisPage", actorPage.getNumberOfElements());
+        Page<ActorSummary> actorPage = actorService.findByName(name, fuzzy, pageable);
 
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(PageResponse.of(actorPage));
     }
 }
\ No newline at end of file
@@ -0,0 +1,22 @@
+package movies.movies.Controller;
+
+import movies.movies.Service.CatalogCache;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/cache") //Base URL for all endpoints in this controller
+public class CacheController {
+
+    @Autowired
+    private CatalogCache catalogCache;
+
+    //Hit, miss and eviction counts of the by-ID caches
+    @GetMapping("/stats")
+    public ResponseEntity<?> getCacheStats() {
+        return ResponseEntity.ok(catalogCache.stats());
+    }
+}
@@ -0,0 +1,35 @@
+package movies.movies.Controller;
+
+import movies.movies.Service.ExportService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+@RestController
+@RequestMapping("/api/export") //Base URL for all endpoints in this controller
+public class ExportController {
+
+    @Autowired
+    private ExportService exportService;
+
+    //Endpoint to download every movie with its genres and actors, as NDJSON (default) or CSV
+    //The response is written while the movies are read, it's never built in memory
+    @GetMapping
+    public ResponseEntity<StreamingResponseBody> exportMovies(@RequestParam(defaultValue = ExportService.NDJSON) String format) {
+        if (!format.equals(ExportService.NDJSON) && !format.equals(ExportService.CSV)) {
+            throw new IllegalStateException("Export format must be ndjson or csv");
+        }
+        MediaType contentType = format.equals(ExportService.CSV)
+                ? new MediaType("text", "csv")
+                : new MediaType("application", "x-ndjson");
+        StreamingResponseBody body = output -> exportService.exportMovies(format, output);
+        return ResponseEntity.ok()
+                .contentType(contentType)
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("movies." + format).build().toString())
+                .body(body);
+    }
+}
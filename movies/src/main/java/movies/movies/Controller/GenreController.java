@@ -1,19 +1,32 @@
 package movies.movies.Controller;
 
+import movies.movies.Dto.GenreSummary;
+import movies.movies.Dto.Cursor;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.Job;
+import movies.movies.Dto.PageResponse;
+import movies.movies.Dto.SliceResponse;
 import movies.movies.Entity.Genre;
 import movies.movies.Service.GenreService;
+import movies.movies.Service.CatalogVersions;
+import movies.movies.Service.CatalogVersions.Table;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import java.util.HashMap;
+import java.net.URI;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 
 @RestController
@@ -22,6 +35,8 @@ public class GenreController {
 
     @Autowired
     private GenreService genreService;
+    @Autowired
+    private CatalogVersions catalogVersions;
 
     //Create a new genre
 
@@ -41,42 +56,83 @@ public class GenreController {
     // Get all genres with pagination
     @GetMapping
     public ResponseEntity<?> getAllGenres(
+            @RequestParam(required = false) String after,
             @PageableDefault(sort = "name", direction = Sort.Direction.ASC) Pageable pageable,
             @RequestParam(required = false, defaultValue = "0") int page,
-            @RequestParam(required = false, defaultValue = "10") int size) {
+            @RequestParam(required = false, defaultValue = "10") int size,
+            WebRequest request) {
         // Check that page number is not negative
             validatePageAndSize(page, size);
+        //304 without reading anything if no genre or movie changed since the client's copy
+        if (catalogVersions.notModified(request, Table.GENRES, Table.MOVIES)) {
+            return null;
+        }
+
 
+        //Cursor mode, sorted by name and without the totals
+        if (after != null) {
+            Slice<GenreSummary> genreSlice = genreService.getGenresAfter(Cursor.decode(after), pageable.getPageSize());
+            return ResponseEntity.ok(SliceResponse.of(genreSlice, genre -> new Cursor(genre.name(), genre.id())));
+        }
 
         // Get genres from service and prepare response
-        Page<Genre> genrePage = genreService.getAllGenres(pageable);
+        Page<GenreSummary> genrePage = genreService.getAllGenres(pageable);
+
+        return ResponseEntity.ok(PageResponse.of(genrePage));
+    }
 
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", genrePage.getContent());
-        response.put("totalElements", genrePage.getTotalElements());
-        response.put("totalPages", genrePage.getTotalPages());
-        response.put("elementsOnThisPage", genrePage.getNumberOfElements());
+    //Link many movies to a genre at once, the body is a list of movie ids
+    @PostMapping("/{id}/movies")
+    public ResponseEntity<?> linkMovies(@PathVariable Long id, @RequestBody List<Long> movieIds) {
+        return ResponseEntity.ok(Map.of("linked", genreService.linkMovies(id, movieIds)));
+    }
+
+    //Unlink many movies from a genre at once, the body is a list of movie ids
+    @DeleteMapping("/{id}/movies")
+    public ResponseEntity<?> unlinkMovies(@PathVariable Long id, @RequestBody List<Long> movieIds) {
+        return ResponseEntity.ok(Map.of("unlinked", genreService.unlinkMovies(id, movieIds)));
+    }
 
-        return ResponseEntity.ok(response);
+    //Count all genres, the cursor mode leaves the totals out
+    @GetMapping("/count")
+    public ResponseEntity<?> countGenres(WebRequest request) {
+        if (catalogVersions.notModified(request, Table.GENRES)) {
+            return null;
+        }
+        return ResponseEntity.ok(Map.of("totalElements", genreService.countGenres()));
     }
 
     //Get genre by ID
     @GetMapping("/{id}")
-    public ResponseEntity<?> getGenreById(@PathVariable Long id) {
+    //Answers 304 from the genre's version alone, the movies are only read for a 200
+    public ResponseEntity<?> getGenreById(@PathVariable Long id, WebRequest request) {
+            Optional<EntityVersion> version = genreService.getGenreVersion(id);
+            if (version.isPresent() && catalogVersions.notModified(request, version.get(), Table.MOVIES)) {
+                return null;
+            }
             return ResponseEntity.ok(genreService.getGenreById(id));
     }
 
     //Update an genre actor
+    //With an If-Match header the update only goes through if the genre is still at that ETag's version
     @PatchMapping("/{id}")
     public ResponseEntity<?> updateGenre(@PathVariable Long id,
-                                         @RequestBody Map<String, Object> updatedGenre) {;
-            return ResponseEntity.ok(genreService.updateGenre(id, updatedGenre));
+                                         @RequestBody Map<String, Object> updatedGenre,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+            Genre genre = genreService.updateGenre(id, updatedGenre, CatalogVersions.expectedVersion(ifMatch)).orElseThrow();
+            return ResponseEntity.ok().eTag(catalogVersions.tag(genre.getVersion(), Table.MOVIES)).body(genre);
     }
 
     //Delete an genre by ID
     @DeleteMapping("/{id}")
-    public ResponseEntity<Void> deleteGenreById(@PathVariable Long id,
-                                                @RequestParam(defaultValue = "false") boolean force) {
+    public ResponseEntity<?> deleteGenreById(@PathVariable Long id,
+                                             @RequestParam(defaultValue = "false") boolean force,
+                                             @RequestParam(defaultValue = "false") boolean async) {
+        //With async=true the delete runs as a background job, its status is at /api/jobs/{jobId}
+        if (async) {
+            Job job = genreService.deleteGenreInBackground(id, force);
+            return ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.id())).body(job);
+        }
         genreService.deleteGenre(id, force);
         return ResponseEntity.noContent().build();
     }
@@ -0,0 +1,24 @@
+package movies.movies.Controller;
+
+import movies.movies.Service.ImportService;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.io.IOException;
+
+@RestController
+@RequestMapping("/api/import") //Base URL for all endpoints in this controller
+public class ImportController {
+
+    @Autowired
+    private ImportService importService;
+
+    //Endpoint to import a whole catalog from an NDJSON or JSON array body
+    //The body is read as a stream straight from the request, it's never held in memory as a whole
+    @PostMapping
+    public ResponseEntity<?> importCatalog(HttpServletRequest request) throws IOException {
+        return ResponseEntity.ok(importService.importCatalog(request.getInputStream()));
+    }
+}
@@ -0,0 +1,22 @@
+package movies.movies.Controller;
+
+import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Service.JobService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/jobs") //Base URL for all endpoints in this controller
+public class JobController {
+
+    @Autowired
+    private JobService jobService;
+
+    //Endpoint to get the status of a background job
+    @GetMapping("/{id}")
+    public ResponseEntity<?> getJob(@PathVariable String id) {
+        return ResponseEntity.ok(jobService.getJob(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Job not found with id: " + id)));
+    }
+}
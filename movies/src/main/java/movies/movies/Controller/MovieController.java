@@ -1,22 +1,37 @@
 package movies.movies.Controller;
 
 
-import movies.movies.Entity.Actor;
+import movies.movies.Dto.ActorSummary;
+import movies.movies.Dto.Cursor;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.FacetedPageResponse;
+import movies.movies.Dto.Job;
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Dto.MovieSummary;
+import movies.movies.Dto.PageResponse;
+import movies.movies.Dto.SliceResponse;
 import movies.movies.Entity.Movie;
-import movies.movies.Service.ActorService;
 import movies.movies.Service.MovieService;
+import movies.movies.Service.MovieWriteQueue;
+import movies.movies.Service.CatalogVersions;
+import movies.movies.Service.CatalogVersions.Table;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.web.PageableDefault;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
-import java.util.HashMap;
+import java.net.URI;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/movies") //Base URL for all endpoints in this controller
@@ -25,11 +40,19 @@ public class MovieController {
     @Autowired
     private MovieService movieService;
     @Autowired
-    private ActorService actorService;
+    private CatalogVersions catalogVersions;
+    @Autowired
+    private MovieWriteQueue movieWriteQueue;
 
     //Endpoint to get all movies with pagination
+    //With async=true the movie is queued and written in the background, its status is at /api/jobs/{jobId}
     @PostMapping
-    public ResponseEntity<?> createMovie(@Valid @RequestBody Movie movie) {
+    public ResponseEntity<?> createMovie(@Valid @RequestBody Movie movie,
+                                         @RequestParam(defaultValue = "false") boolean async) {
+        if (async) {
+            Job job = movieWriteQueue.submit(movie);
+            return ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.id())).body(job);
+        }
         Movie createdMovie = movieService.createMovie(movie);
         return ResponseEntity.status(HttpStatus.CREATED).body(createdMovie); //Specifying the http status
     }
@@ -42,58 +65,105 @@ public class MovieController {
     }    
 
     // Get all movies with pagination
+    //Filters can be combined: genre and actor take several ids (genre=1&genre=2 or genre=1,2), which a movie must all have
+    //or, with genreMatch=any / actorMatch=any, at least one of; year, minYear/maxYear and minDuration/maxDuration are ranges
     @GetMapping
     public ResponseEntity<?> getAllMoviesOrByGenreByReleaseYearByActor(
-            @RequestParam(required = false) Long genre,
+            @RequestParam(required = false) List<Long> genre,
+            @RequestParam(required = false) String genreMatch,
+            @RequestParam(required = false) List<Long> actor,
+            @RequestParam(required = false) String actorMatch,
             @RequestParam(required = false) Integer year,
-            @RequestParam(required = false) Long actor,
+            @RequestParam(required = false) Integer minYear,
+            @RequestParam(required = false) Integer maxYear,
+            @RequestParam(required = false) Integer minDuration,
+            @RequestParam(required = false) Integer maxDuration,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "false") boolean facets,
             @PageableDefault(sort = "id", direction = Sort.Direction.ASC) Pageable pageable,
             @RequestParam(required = false, defaultValue = "0") int page,
-            @RequestParam(required = false, defaultValue = "10") int size) {
+            @RequestParam(required = false, defaultValue = "10") int size,
+            WebRequest request) {
         // Check that page number is not negative
                     validatePageAndSize(page, size);
+        MovieFilter filter = MovieFilter.of(genre, genreMatch, actor, actorMatch, year, minYear, maxYear, minDuration, maxDuration);
+        //304 without reading anything if no movie, genre or actor changed since the client's copy
+        if (catalogVersions.notModified(request, Table.MOVIES, Table.GENRES, Table.ACTORS)) {
+            return null;
+        }
 
+        //Cursor mode, sorted by id and without the totals
+        if (after != null) {
+            if (!pageable.getSort().equals(Sort.by("id"))) {
+                throw new IllegalStateException("sort can't be combined with after, cursor pages are always sorted by id");
+            }
+            Slice<MovieSummary> movieSlice = movieService.getMoviesAfter(filter, Cursor.decode(after), pageable.getPageSize());
+            return ResponseEntity.ok(SliceResponse.of(movieSlice, movie -> new Cursor("", movie.id())));
+        }
 
-        Page<Movie> moviePage; //Create an empty page before fetching anything to keep the code more readable
+        Page<MovieSummary> moviePage = filter.isEmpty()
+                ? movieService.getAllMovies(pageable)
+                : movieService.getMovies(filter, pageable);
 
-        //Fetches the movies depending on what search parameter has been given
-        if (genre != null) {
-            moviePage = movieService.getMoviesByGenreId(genre, pageable);
-        } else if (year != null) {
-            moviePage = movieService.getMoviesByReleaseYear(year, pageable);
-        } else if (actor != null) {
-            moviePage = actorService.getMoviesByActorId(actor, pageable);
-        } else {
-            moviePage = movieService.getAllMovies(pageable);
+        //facets=true adds the counts per genre, decade, duration range and top actor of all the matches
+        if (facets) {
+            return ResponseEntity.ok(FacetedPageResponse.of(moviePage, movieService.getFacets(filter)));
         }
+        return ResponseEntity.ok(PageResponse.of(moviePage));
+    }
 
-        //Construct the response manually so it looks better
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", moviePage.getContent());
-        response.put("totalElements", moviePage.getTotalElements());
-        response.put("totalPages", moviePage.getTotalPages());
-        response.put("elementsOnThisPage", moviePage.getNumberOfElements());
-
-        return ResponseEntity.ok(response);
+    //Endpoint to count the movies of a listing, takes the same filters as the listing and the title search
+    @GetMapping("/count")
+    public ResponseEntity<?> countMovies(@RequestParam(required = false) List<Long> genre,
+                                         @RequestParam(required = false) String genreMatch,
+                                         @RequestParam(required = false) List<Long> actor,
+                                         @RequestParam(required = false) String actorMatch,
+                                         @RequestParam(required = false) Integer year,
+                                         @RequestParam(required = false) Integer minYear,
+                                         @RequestParam(required = false) Integer maxYear,
+                                         @RequestParam(required = false) Integer minDuration,
+                                         @RequestParam(required = false) Integer maxDuration,
+                                         @RequestParam(required = false) String title,
+                                         WebRequest request) {
+        MovieFilter filter = MovieFilter.of(genre, genreMatch, actor, actorMatch, year, minYear, maxYear, minDuration, maxDuration);
+        //Filters by genre or actor count links, so those tables are part of the tag too
+        if (catalogVersions.notModified(request, Table.MOVIES, Table.GENRES, Table.ACTORS)) {
+            return null;
+        }
+        return ResponseEntity.ok(Map.of("totalElements", movieService.countMovies(filter, title)));
     }
 
     //Endpoint to get a movie by ID
     @GetMapping("/{id}")
-    public ResponseEntity<?> getMovieById(@PathVariable Long id) {
+    //Answers 304 from the movie's version alone, the genres and actors are only read for a 200
+    public ResponseEntity<?> getMovieById(@PathVariable Long id, WebRequest request) {
+        Optional<EntityVersion> version = movieService.getMovieVersion(id);
+        if (version.isPresent() && catalogVersions.notModified(request, version.get(), Table.GENRES, Table.ACTORS)) {
+            return null;
+        }
         return ResponseEntity.ok(movieService.getMovieById(id));
     }
 
     //Endpoint to update an existing movie
+    //With an If-Match header the update only goes through if the movie is still at that ETag's version
     @PatchMapping("/{id}")
     public ResponseEntity<?> updateMovie(@PathVariable Long id,
-                                         @RequestBody Map<String, Object> updatedMovie) {
-        return ResponseEntity.ok(movieService.updateMovie(id, updatedMovie));
+                                         @RequestBody Map<String, Object> updatedMovie,
+                                         @RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+        Movie movie = movieService.updateMovie(id, updatedMovie, CatalogVersions.expectedVersion(ifMatch)).orElseThrow();
+        return ResponseEntity.ok().eTag(catalogVersions.tag(movie.getVersion(), Table.GENRES, Table.ACTORS)).body(movie);
     }
 
     //Endpoint to delete a movie by ID
     @DeleteMapping("/{id}")
     public ResponseEntity<?> deleteMovieById(@PathVariable Long id,
-                                             @RequestParam(defaultValue = "false") boolean force) {
+                                             @RequestParam(defaultValue = "false") boolean force,
+                                             @RequestParam(defaultValue = "false") boolean async) {
+        //With async=true the delete runs as a background job, its status is at /api/jobs/{jobId}
+        if (async) {
+            Job job = movieService.deleteMovieInBackground(id, force);
+            return ResponseEntity.accepted().location(URI.create("/api/jobs/" + job.id())).body(job);
+        }
         movieService.deleteMovie(id, force);
         return ResponseEntity.noContent().build();
     }
@@ -101,21 +171,35 @@ public class MovieController {
     //Endpoint to search for a movie by title
     @GetMapping("/search")
     public ResponseEntity<?> getByTitle(@RequestParam String title,
+                                        @RequestParam(required = false) String after,
+                                        @RequestParam(defaultValue = "false") boolean facets,
+                                        @RequestParam(defaultValue = "false") boolean fuzzy,
                                         @PageableDefault(sort = "title", direction = Sort.Direction.ASC) Pageable pageable,
                                         @RequestParam(required = false, defaultValue = "0") int page,
-                                        @RequestParam(required = false, defaultValue = "10") int size) {
+                                        @RequestParam(required = false, defaultValue = "10") int size,
+                                        WebRequest request) {
         
         validatePageAndSize(page, size);
+        if (catalogVersions.notModified(request, Table.MOVIES, Table.GENRES, Table.ACTORS)) {
+            return null;
+        }
 
-        Page<Movie> moviePage = movieService.findByTitle(title, pageable);
+        //Cursor mode, sorted by title and without the totals
+        if (after != null) {
+            if (fuzzy) {
+                throw new IllegalStateException("fuzzy can't be combined with after, fuzzy results are ranked by relevance");
+            }
+            Slice<MovieSummary> movieSlice = movieService.searchByTitleAfter(title, Cursor.decode(after), pageable.getPageSize());
+            return ResponseEntity.ok(SliceResponse.of(movieSlice, MovieService::titleCursor));
+        }
 
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", moviePage.getContent());
-        response.put("totalElements", moviePage.getTotalElements());
-        response.put("totalPages", moviePage.getTotalPages());
-        response.put("elementsOnThisPage", moviePage.getNumberOfElements());
+        //fuzzy=true also finds titles with misspelled words, ranked after the ones that need fewer corrections
+        Page<MovieSummary> moviePage = movieService.findByTitle(title, fuzzy, pageable);
 
-        return ResponseEntity.ok(response);
+        if (facets) {
+            return ResponseEntity.ok(FacetedPageResponse.of(moviePage, movieService.getTitleFacets(title, fuzzy)));
+        }
+        return ResponseEntity.ok(PageResponse.of(moviePage));
     }
 
     //Endpoint to get all actors in a specific movie
@@ -123,21 +207,19 @@ public class MovieController {
     public ResponseEntity<?> getAllActorsInMovie(@PathVariable Long id,
                                                  @PageableDefault(sort = "name", direction = Sort.Direction.ASC) Pageable pageable,
                                                  @RequestParam(required = false, defaultValue = "0") int page,
-                                                 @RequestParam(required = false, defaultValue = "10") int size) {
+                                                 @RequestParam(required = false, defaultValue = "10") int size,
+                                                 WebRequest request) {
         if (page < 0) {
             throw new IllegalStateException("Page number must be greater than or equal to 0");
         }
         if (size > 100) {
             throw new IllegalStateException("Page size must be less than or equal to 100");
         }
-        Page<Actor> actorPage = movieService.getAllActorsInMovie(id, pageable);
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", actorPage.getContent());
-        response.put("totalElements", actorPage.getTotalElements());
-        response.put("totalPages", actorPage.getTotalPages());
-        response.put("elementsOnThisPage", actorPage.getNumberOfElements());
+        if (catalogVersions.notModified(request, Table.ACTORS, Table.MOVIES)) {
+            return null;
+        }
+        Page<ActorSummary> actorPage = movieService.getAllActorsInMovie(id, pageable);
 
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(PageResponse.of(actorPage));
     }
 }
@@ -1,13 +1,21 @@
 package movies.movies.Controller;
 
-import movies.movies.Entity.Actor;
-import movies.movies.Entity.Genre;
-import movies.movies.Entity.Movie;
-import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Dto.ActorSummary;
+import movies.movies.Dto.GenreSummary;
+import movies.movies.Dto.MovieFacets;
+import movies.movies.Dto.MovieSummary;
+import movies.movies.Dto.SearchResponse;
+import movies.movies.Exception.NotAvailableException;
+import movies.movies.Search.PrefixIndex;
+import movies.movies.Search.SearchIndex;
 import movies.movies.Service.ActorService;
 import movies.movies.Service.GenreService;
 import movies.movies.Service.MovieService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -15,60 +23,96 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import java.util.Collections;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.*;
 
 @RestController
 @RequestMapping("/api")  // Base API
 public class SearchController {
 
+    private static final Logger log = LoggerFactory.getLogger(SearchController.class);
+
     @Autowired
     private MovieService movieService;
     @Autowired
     private ActorService actorService;
     @Autowired
     private GenreService genreService;
+    @Autowired
+    private ExecutorService searchExecutor;
+    @Autowired
+    private SearchIndex searchIndex;
+
+    //How long the search waits for each entity type before answering without it
+    @Value("${movies.search.branch-timeout:500ms}")
+    private Duration branchTimeout;
 
 @GetMapping("/search")  //
 
 // Re-using functions from entities -> colleting all search restults from movies, actors, genres
-public ResponseEntity<?> searchAllEntities(@RequestParam String query) {
-    //// Pageable object used for pagination. Here, it's set to "unpaged" (need to fetch all results).
-    Pageable pageable = Pageable.unpaged();
+// The three searches run at the same time on virtual threads, so the response takes as long as the slowest one
+public ResponseEntity<?> searchAllEntities(@RequestParam String query,
+                                           @RequestParam(required = false, defaultValue = "0") int page,
+                                           @RequestParam(required = false, defaultValue = "20") int size,
+                                           @RequestParam(defaultValue = "false") boolean facets,
+                                           @RequestParam(defaultValue = "false") boolean fuzzy) {
+    if (page < 0) throw new IllegalStateException("Page number must be 0 or higher");
+    if (size < 1 || size > 100) throw new IllegalStateException("Page size must be between 1 and 100");
+    //Every entity type returns the same page of its own relevance-ranked results
+    Pageable pageable = PageRequest.of(page, size);
 
-    //Declare list to store found movies
-    List<Movie> movies;
-    try {
-        // Call service method to find moves by title
-        movies = movieService.findByTitle(query, pageable).getContent();
-    } catch (ResourceNotFoundException e) {
-        movies = Collections.emptyList();
-    }
+    Future<List<MovieSummary>> movies = searchExecutor.submit(() -> movieService.searchByTitle(query, fuzzy, pageable).getContent());
+    Future<List<ActorSummary>> actors = searchExecutor.submit(() -> actorService.searchByName(query, fuzzy, pageable).getContent());
+    Future<List<GenreSummary>> genres = searchExecutor.submit(() -> genreService.searchByName(query, fuzzy, pageable).getContent());
+    //The facets are one more branch, under the same deadline
+    Future<MovieFacets> movieFacets = facets ? searchExecutor.submit(() -> movieService.getTitleFacets(query, fuzzy)) : null;
 
-    List<Actor> actors;
-    try {
-        actors = actorService.findByName(query, pageable).getContent();
-    } catch (ResourceNotFoundException e) {
-        actors = Collections.emptyList();
-    }
+    //All branches share one deadline, a branch that misses it is left out of the response
+    long deadline = System.nanoTime() + branchTimeout.toNanos();
+    List<String> timedOut = new ArrayList<>();
+    return ResponseEntity.ok(new SearchResponse(
+            await(movies, "movies", deadline, timedOut, List.of()),
+            await(actors, "actors", deadline, timedOut, List.of()),
+            await(genres, "genres", deadline, timedOut, List.of()),
+            timedOut,
+            movieFacets == null ? null : await(movieFacets, "movieFacets", deadline, timedOut, null)));
+}
 
-    List<Genre> genres;
-    try {
-        genres = genreService.findByName(query, pageable).getContent();
-    } catch (ResourceNotFoundException e) {
-        genres = Collections.emptyList();
+    //Type-ahead suggestions for every keystroke: id, type and label of the most popular movies, actors and genres
+    //with a word starting with q, answered from memory without touching the database
+    @GetMapping("/autocomplete")
+    public ResponseEntity<?> autocomplete(@RequestParam String q,
+                                          @RequestParam(required = false, defaultValue = "10") int limit) {
+        if (limit < 1 || limit > PrefixIndex.MAX_LIMIT) {
+            throw new IllegalStateException("Limit must be between 1 and " + PrefixIndex.MAX_LIMIT);
+        }
+        if (!searchIndex.isEnabled()) {
+            throw new NotAvailableException("Autocomplete is only available on a single node, the search index is off with movies.multi-node");
+        }
+        return ResponseEntity.ok(searchIndex.autocomplete(q, limit));
     }
-    /// Mapping data as objects
-    
-    Map<String, Object> result = new HashMap<>();
-    result.put("movies", movies);
-    result.put("actors", actors);
-    result.put("genres", genres);
-
-    return ResponseEntity.ok(result);
-}
 
+    //Waits for one branch until the deadline, gives the fallback (an empty list) if it's too slow
+    private <T> T await(Future<T> branch, String name, long deadline, List<String> timedOut, T fallback) {
+        try {
+            return branch.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            branch.cancel(true);
+            timedOut.add(name);
+            log.warn("Search for {} did not finish in {}", name, branchTimeout);
+            return fallback;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search was interrupted");
+        } catch (ExecutionException e) {
+            //Errors inside a branch are rethrown so the exception handlers answer them as before
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
 }
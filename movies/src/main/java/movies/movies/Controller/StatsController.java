@@ -0,0 +1,30 @@
+package movies.movies.Controller;
+
+import movies.movies.Service.CatalogStats;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/stats") //Base URL for all endpoints in this controller
+public class StatsController {
+
+    @Autowired
+    private CatalogStats catalogStats;
+
+    //Endpoint to get movies and average duration per genre and per year, and the actors with the most credits
+    @GetMapping
+    public ResponseEntity<?> getStats(@RequestParam(required = false, defaultValue = "10") int top) {
+        if (top < 1 || top > 100) {
+            throw new IllegalStateException("Number of top actors must be between 1 and 100");
+        }
+        return ResponseEntity.ok(catalogStats.getStats(top));
+    }
+
+    //Endpoint to recompute the stats from the database, for when they are suspected to be off
+    @PostMapping("/rebuild")
+    public ResponseEntity<?> rebuildStats() {
+        catalogStats.rebuild();
+        return ResponseEntity.noContent().build();
+    }
+}
@@ -0,0 +1,33 @@
+package movies.movies.Controller;
+
+import movies.movies.Service.CatalogVersions;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.http.server.ServletServerHttpRequest;
+import org.springframework.http.server.ServletServerHttpResponse;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyAdvice;
+
+//Adds the ETag and Last-Modified of a listing or entity to its response once it's known to be a success,
+//the error bodies of GlobalExceptionHandler go through here too and are left without them
+@ControllerAdvice
+public class ValidatorsAdvice implements ResponseBodyAdvice<Object> {
+
+    @Override
+    public boolean supports(MethodParameter returnType, Class<? extends HttpMessageConverter<?>> converterType) {
+        return true;
+    }
+
+    @Override
+    public Object beforeBodyWrite(Object body, MethodParameter returnType, MediaType selectedContentType,
+                                  Class<? extends HttpMessageConverter<?>> selectedConverterType,
+                                  ServerHttpRequest request, ServerHttpResponse response) {
+        if (request instanceof ServletServerHttpRequest servletRequest && response instanceof ServletServerHttpResponse servletResponse) {
+            CatalogVersions.addValidators(servletRequest.getServletRequest(), servletResponse.getServletResponse().getStatus(), response.getHeaders());
+        }
+        return body;
+    }
+}
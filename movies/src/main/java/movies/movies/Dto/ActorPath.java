@@ -0,0 +1,8 @@
+package movies.movies.Dto;
+
+import java.util.List;
+
+//Shortest chain of movies between two actors, movies.get(i) is a movie of both actors.get(i) and actors.get(i + 1)
+//degrees is the number of movies, 1 for actors who played together
+public record ActorPath(int degrees, List<ActorRef> actors, List<MovieRef> movies) {
+}
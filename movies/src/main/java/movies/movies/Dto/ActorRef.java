@@ -0,0 +1,7 @@
+package movies.movies.Dto;
+
+import java.time.LocalDate;
+
+//Read model of an actor without their movies
+public record ActorRef(Long id, String name, LocalDate birthDate) {
+}
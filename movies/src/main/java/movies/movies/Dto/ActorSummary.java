@@ -0,0 +1,12 @@
+package movies.movies.Dto;
+
+import java.time.LocalDate;
+import java.util.List;
+
+//Read model returned by the actor GET endpoints, has the same JSON shape as the Actor entity
+public record ActorSummary(Long id, String name, LocalDate birthDate, List<MovieRef> movies) {
+
+    public static ActorSummary of(ActorRef actor, List<MovieRef> movies) {
+        return new ActorSummary(actor.id(), actor.name(), actor.birthDate(), movies);
+    }
+}
@@ -0,0 +1,5 @@
+package movies.movies.Dto;
+
+//An actor who played in a movie with another one, sharedMovies is how many movies they played in together
+public record Costar(Long id, String name, int sharedMovies) {
+}
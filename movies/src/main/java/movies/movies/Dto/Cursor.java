@@ -0,0 +1,30 @@
+package movies.movies.Dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+//Position in a keyset-paginated listing: the sort key and id of the last element returned
+//Clients only see it as an opaque token, the sort key is empty for listings sorted by id
+public record Cursor(String key, long id) {
+
+    public static final Cursor START = new Cursor("", 0);
+
+    public String encode() {
+        String raw = id + ":" + key;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    //An empty token starts from the beginning of the listing
+    public static Cursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return START;
+        }
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(':');
+            return new Cursor(raw.substring(separator + 1), Long.parseLong(raw.substring(0, separator)));
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IllegalStateException("Invalid cursor: " + token);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package movies.movies.Dto;
+
+import java.time.Instant;
+
+//Version and last change time of one row, all a conditional GET needs to read
+public record EntityVersion(Long version, Instant lastModified) {
+}
@@ -0,0 +1,16 @@
+package movies.movies.Dto;
+
+import org.springframework.data.domain.Page;
+
+import java.util.List;
+
+//Response body of a movie listing or title search asked for with facets=true, a page plus the facets of all its matches
+//facets is null while the filter index is still being built at startup
+public record FacetedPageResponse<T>(List<T> content, long totalElements, int totalPages, int elementsOnThisPage,
+                                     MovieFacets facets) {
+
+    public static <T> FacetedPageResponse<T> of(Page<T> page, MovieFacets facets) {
+        return new FacetedPageResponse<>(page.getContent(), page.getTotalElements(), page.getTotalPages(),
+                page.getNumberOfElements(), facets);
+    }
+}
@@ -0,0 +1,5 @@
+package movies.movies.Dto;
+
+//Read model of a genre without its movies
+public record GenreRef(Long id, String name) {
+}
@@ -0,0 +1,11 @@
+package movies.movies.Dto;
+
+import java.util.List;
+
+//Read model returned by the genre GET endpoints, has the same JSON shape as the Genre entity
+public record GenreSummary(Long id, String name, List<MovieRef> movies) {
+
+    public static GenreSummary of(GenreRef genre, List<MovieRef> movies) {
+        return new GenreSummary(genre.id(), genre.name(), movies);
+    }
+}
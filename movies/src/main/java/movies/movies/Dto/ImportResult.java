@@ -0,0 +1,12 @@
+package movies.movies.Dto;
+
+import java.util.List;
+
+//Response body of the bulk import: how many rows were read and imported of each type, and why the others failed
+//errors holds at most movies.import.max-errors entries, failed counts all of them
+public record ImportResult(long rows, long movies, long actors, long genres, long failed, List<RowError> errors) {
+
+    //Row is the 1-based position of the record in the file
+    public record RowError(long row, String error) {
+    }
+}
@@ -0,0 +1,33 @@
+package movies.movies.Dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.Instant;
+
+//Status of a background job, error is only set when the job failed
+//location is the URL of what a finished job created, if it created something
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record Job(String id, String description, Status status, String error, String location, Instant submittedAt, Instant finishedAt) {
+
+    public enum Status { PENDING, RUNNING, SUCCEEDED, FAILED }
+
+    public static Job pending(String id, String description) {
+        return new Job(id, description, Status.PENDING, null, null, Instant.now(), null);
+    }
+
+    public Job running() {
+        return new Job(id, description, Status.RUNNING, null, null, submittedAt, null);
+    }
+
+    public Job succeeded() {
+        return succeeded(null);
+    }
+
+    public Job succeeded(String location) {
+        return new Job(id, description, Status.SUCCEEDED, null, location, submittedAt, Instant.now());
+    }
+
+    public Job failed(String error) {
+        return new Job(id, description, Status.FAILED, error, null, submittedAt, Instant.now());
+    }
+}
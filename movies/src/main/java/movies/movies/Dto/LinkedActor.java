@@ -0,0 +1,11 @@
+package movies.movies.Dto;
+
+import java.time.LocalDate;
+
+//One row of a movie -> actor link, ownerId is the movie the actor plays in
+public record LinkedActor(Long ownerId, Long id, String name, LocalDate birthDate) {
+
+    public ActorRef toRef() {
+        return new ActorRef(id, name, birthDate);
+    }
+}
@@ -0,0 +1,9 @@
+package movies.movies.Dto;
+
+//One row of a movie -> genre link, ownerId is the movie the genre belongs to
+public record LinkedGenre(Long ownerId, Long id, String name) {
+
+    public GenreRef toRef() {
+        return new GenreRef(id, name);
+    }
+}
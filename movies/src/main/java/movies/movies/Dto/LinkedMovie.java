@@ -0,0 +1,9 @@
+package movies.movies.Dto;
+
+//One row of an actor/genre -> movie link, ownerId is the actor or genre the movie belongs to
+public record LinkedMovie(Long ownerId, Long id, String title, Integer releaseYear, Integer duration) {
+
+    public MovieRef toRef() {
+        return new MovieRef(id, title, releaseYear, duration);
+    }
+}
@@ -0,0 +1,17 @@
+package movies.movies.Dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+//Counts of the movies of a listing or search per genre, decade, duration range and actor
+//Only values with at least one movie are listed: genres and actors by count (actors just the top ones),
+//decades and durations in order
+public record MovieFacets(List<Facet> genres, List<Facet> decades, List<Facet> durations, List<Facet> actors) {
+
+    //id is set for a genre or actor, from and to (both included) for a decade or duration range,
+    //the values to pass as genre, actor, minYear/maxYear or minDuration/maxDuration to narrow the listing to it
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Facet(Long id, String name, Integer from, Integer to, long count) {
+    }
+}
@@ -0,0 +1,73 @@
+package movies.movies.Dto;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+//Filters of the movie listing, any mix of them can be given
+//A movie matches all of the given genres (allGenres) or any of them, the same for actors,
+//and the year and duration ranges include both ends, a missing end leaves the range open
+public record MovieFilter(Set<Long> genres, boolean allGenres, Set<Long> actors, boolean allActors,
+                          Integer minYear, Integer maxYear, Integer minDuration, Integer maxDuration) {
+
+    //Builds the filter from the request parameters, year is a shortcut for a range of one year
+    //Throws IllegalStateException (400) for a match that isn't all or any and for ranges that can't match anything
+    public static MovieFilter of(List<Long> genres, String genreMatch, List<Long> actors, String actorMatch,
+                                 Integer year, Integer minYear, Integer maxYear, Integer minDuration, Integer maxDuration) {
+        if (year != null) {
+            if (minYear != null || maxYear != null) {
+                throw new IllegalStateException("Give either year or minYear/maxYear, not both");
+            }
+            minYear = year;
+            maxYear = year;
+        }
+        if (minYear != null && maxYear != null && minYear > maxYear) {
+            throw new IllegalStateException("minYear must not be after maxYear");
+        }
+        if (minDuration != null && maxDuration != null && minDuration > maxDuration) {
+            throw new IllegalStateException("minDuration must not be more than maxDuration");
+        }
+        return new MovieFilter(ids(genres), matchesAll(genreMatch, "genreMatch"), ids(actors), matchesAll(actorMatch, "actorMatch"),
+                minYear, maxYear, minDuration, maxDuration);
+    }
+
+    public boolean isEmpty() {
+        return genres.isEmpty() && actors.isEmpty() && !hasYears() && !hasDurations();
+    }
+
+    public boolean hasYears() {
+        return minYear != null || maxYear != null;
+    }
+
+    public boolean hasDurations() {
+        return minDuration != null || maxDuration != null;
+    }
+
+    //The genre id if the filter is just one genre, the listings had a query of their own for that before filters could be combined
+    public Long singleGenre() {
+        return genres.size() == 1 && actors.isEmpty() && !hasYears() && !hasDurations() ? genres.iterator().next() : null;
+    }
+
+    public Long singleActor() {
+        return actors.size() == 1 && genres.isEmpty() && !hasYears() && !hasDurations() ? actors.iterator().next() : null;
+    }
+
+    public Integer singleYear() {
+        return minYear != null && minYear.equals(maxYear) && genres.isEmpty() && actors.isEmpty() && !hasDurations() ? minYear : null;
+    }
+
+    private static Set<Long> ids(List<Long> ids) {
+        return ids == null ? Set.of() : ids.stream().filter(Objects::nonNull).collect(Collectors.toUnmodifiableSet());
+    }
+
+    private static boolean matchesAll(String match, String parameter) {
+        if (match == null || match.equalsIgnoreCase("all")) {
+            return true;
+        }
+        if (match.equalsIgnoreCase("any")) {
+            return false;
+        }
+        throw new IllegalStateException(parameter + " must be all or any");
+    }
+}
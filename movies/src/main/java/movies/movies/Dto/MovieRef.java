@@ -0,0 +1,6 @@
+package movies.movies.Dto;
+
+//Read model of a movie without its associations
+//Used as the movie row of a summary and inside the movie lists of actors and genres
+public record MovieRef(Long id, String title, Integer releaseYear, Integer duration) {
+}
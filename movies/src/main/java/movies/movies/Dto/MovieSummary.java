@@ -0,0 +1,12 @@
+package movies.movies.Dto;
+
+import java.util.List;
+
+//Read model returned by the movie GET endpoints, has the same JSON shape as the Movie entity
+public record MovieSummary(Long id, String title, Integer releaseYear, Integer duration,
+                           List<GenreRef> genres, List<ActorRef> actors) {
+
+    public static MovieSummary of(MovieRef movie, List<GenreRef> genres, List<ActorRef> actors) {
+        return new MovieSummary(movie.id(), movie.title(), movie.releaseYear(), movie.duration(), genres, actors);
+    }
+}
@@ -0,0 +1,13 @@
+package movies.movies.Dto;
+
+import org.springframework.data.domain.Page;
+
+import java.util.List;
+
+//Response body of the paginated endpoints
+public record PageResponse<T>(List<T> content, long totalElements, int totalPages, int elementsOnThisPage) {
+
+    public static <T> PageResponse<T> of(Page<T> page) {
+        return new PageResponse<>(page.getContent(), page.getTotalElements(), page.getTotalPages(), page.getNumberOfElements());
+    }
+}
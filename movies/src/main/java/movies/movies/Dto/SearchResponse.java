@@ -0,0 +1,13 @@
+package movies.movies.Dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+//Response body of the general search, one list per entity type
+//timedOut names the entity types that didn't answer in time, their lists are empty, it's left out when all answered
+//movieFacets, with facets=true, counts all the movies the query matches, it's left out otherwise
+public record SearchResponse(List<MovieSummary> movies, List<ActorSummary> actors, List<GenreSummary> genres,
+                             @JsonInclude(JsonInclude.Include.NON_EMPTY) List<String> timedOut,
+                             @JsonInclude(JsonInclude.Include.NON_NULL) MovieFacets movieFacets) {
+}
@@ -0,0 +1,18 @@
+package movies.movies.Dto;
+
+import org.springframework.data.domain.Slice;
+
+import java.util.List;
+import java.util.function.Function;
+
+//Response body of the cursor-paginated endpoints, there's no count so no totals
+//nextCursor is the `after` token for the next page, null on the last page
+public record SliceResponse<T>(List<T> content, int elementsOnThisPage, boolean hasNext, String nextCursor) {
+
+    public static <T> SliceResponse<T> of(Slice<T> slice, Function<T, Cursor> cursorOf) {
+        String nextCursor = slice.hasNext() && slice.hasContent()
+                ? cursorOf.apply(slice.getContent().get(slice.getNumberOfElements() - 1)).encode()
+                : null;
+        return new SliceResponse<>(slice.getContent(), slice.getNumberOfElements(), slice.hasNext(), nextCursor);
+    }
+}
@@ -0,0 +1,22 @@
+package movies.movies.Dto;
+
+import java.util.List;
+
+//Response body of /api/stats
+//Genres are sorted by movie count, years by year, actors by credits
+public record StatsResponse(long movies, double averageDuration, List<GenreStats> genres, List<YearStats> years,
+                            List<ActorCredits> topActors) {
+
+    public record GenreStats(long id, String name, long movies, double averageDuration) {
+    }
+
+    public record YearStats(int year, long movies, double averageDuration) {
+    }
+
+    public record ActorCredits(long id, String name, long credits) {
+    }
+
+    public static double average(long total, long count) {
+        return count == 0 ? 0 : Math.round(100.0 * total / count) / 100.0;
+    }
+}
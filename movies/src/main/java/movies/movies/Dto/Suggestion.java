@@ -0,0 +1,5 @@
+package movies.movies.Dto;
+
+//One autocomplete suggestion, type is movie, actor or genre and label the title or name
+public record Suggestion(long id, String type, String label) {
+}
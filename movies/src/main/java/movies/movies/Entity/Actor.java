@@ -1,13 +1,20 @@
 package movies.movies.Entity;
 
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.HashSet;
 import java.util.Set;
 
 import lombok.Getter;
 import lombok.Setter;
+import movies.movies.Config.HibernateCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
 import org.springframework.format.annotation.DateTimeFormat;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 
@@ -15,6 +22,7 @@ import jakarta.validation.constraints.Past;
 import jakarta.validation.constraints.Size;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.persistence.Cacheable;
 import jakarta.persistence.OrderBy;
 import jakarta.persistence.Table;
 import jakarta.persistence.Column;
@@ -23,12 +31,15 @@ import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
 import jakarta.persistence.ManyToMany;
+import jakarta.persistence.Version;
 
 
 @Getter //Lombok annotations to automatically generate getters and setters
 @Setter
 @Entity //Marks this class as a JPA entity
 @Table(name = "tbl_actor")
+@Cacheable //Kept in the second-level cache, so cached movie casts don't load each actor with its own query
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.ACTORS)
 public class Actor {
 
     // Primary key, auto-generated
@@ -48,6 +59,16 @@ public class Actor {
     @Past(message = "Date of birth must be in the past")
     private LocalDate birthDate;
 
+    // Same version and last change time as the movie, not part of the JSON body
+    @Version
+    @ColumnDefault("0")
+    @JsonIgnore
+    private Long version;
+
+    @UpdateTimestamp
+    @JsonIgnore
+    private Instant lastModified;
+
     // Many-to-many relationship with movies
     // Prevents infinite loops when converting to JSON
     // Does not show 'genres' or 'actors' inside movies
@@ -1,13 +1,20 @@
 package movies.movies.Entity;
 
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.Size;
 import lombok.Getter;
 import lombok.Setter;
+import movies.movies.Config.HibernateCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -15,6 +22,8 @@ import java.util.Set;
 @Setter
 @Entity //Marks this class as a JPA entity
 @Table(name = "tbl_genre")
+@Cacheable //Kept in the second-level cache, genres are few and rarely change
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.GENRES)
 public class Genre {
 
     // Primary key for the table, ID is generated automatically
@@ -28,6 +37,16 @@ public class Genre {
     @Size(min = 1, max = 20, message = "Genre name must be between 1 and 20 characters")
     private String name;
 
+    // Version for optimistic locking and the ETag header, and the time of the last change
+    @Version
+    @ColumnDefault("0")
+    @JsonIgnore
+    private Long version;
+
+    @UpdateTimestamp
+    @JsonIgnore
+    private Instant lastModified;
+
     // Many-to-many relationship with movies
     // Ignores the 'genres' and 'actors' fields when converting to JSON to prevent infinite loops
     // Movies are sorted by title in ascending order
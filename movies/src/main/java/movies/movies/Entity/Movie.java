@@ -1,10 +1,17 @@
 package movies.movies.Entity;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
 import lombok.Getter;
 import lombok.Setter;
+import movies.movies.Config.HibernateCacheConfig;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.time.Instant;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -35,6 +42,17 @@ import java.util.Set;
         @Max(value = 1000, message = "Duration must be between 1 and 1000.")
         private Integer duration;
 
+        // Optimistic lock version and time of the last change, sent as the ETag and Last-Modified headers
+        // instead of in the body; existing rows start at version 0
+        @Version
+        @ColumnDefault("0")
+        @JsonIgnore
+        private Long version;
+
+        @UpdateTimestamp
+        @JsonIgnore
+        private Instant lastModified;
+
         // Many-to-many relationship with genres
         // Ignores the 'movies' field inside Genre when converting to JSON to avoid infinite loops
         // Genres are sorted by name in ascending order
@@ -42,6 +60,7 @@ import java.util.Set;
         @NotEmpty
         @ManyToMany
         @OrderBy("name ASC") //Sorting the genres alphabetically
+        @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.MOVIE_GENRES) //The genre ids are cached with the movie
         @JoinTable(
                 name = "movie_genres",
                 joinColumns = @JoinColumn(name = "movie_id", referencedColumnName = "id"),
@@ -52,6 +71,7 @@ import java.util.Set;
         @JsonIgnoreProperties("movies") //Prevents infinite recursion during JSON serialization
         @ManyToMany
         @OrderBy("name ASC") //Sorting the actors alphabetically
+        @Cache(usage = CacheConcurrencyStrategy.READ_WRITE, region = HibernateCacheConfig.MOVIE_ACTORS) //So are the actor ids
         @JoinTable(
                 name = "movie_actors",
                 joinColumns = @JoinColumn(name = "movie_id", referencedColumnName = "id"),
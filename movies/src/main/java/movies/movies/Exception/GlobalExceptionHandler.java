@@ -1,5 +1,8 @@
 package movies.movies.Exception;
 
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.orm.jpa.JpaSystemException;
@@ -36,6 +39,38 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(response, HttpStatus.NOT_FOUND);
     }
 
+    // Handles updates with an If-Match header for an older version of the entity
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<?> handlePreconditionFailedException(PreconditionFailedException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("ERROR", ex.getMessage());
+        return new ResponseEntity<>(response, HttpStatus.PRECONDITION_FAILED);
+    }
+
+    // Handles writes rejected because the write queue is full, the client can retry after a second
+    @ExceptionHandler(TooManyRequestsException.class)
+    public ResponseEntity<?> handleTooManyRequestsException(TooManyRequestsException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("ERROR", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").body(response);
+    }
+
+    // Handles features that are turned off for this deployment, see movies.multi-node
+    @ExceptionHandler(NotAvailableException.class)
+    public ResponseEntity<?> handleNotAvailableException(NotAvailableException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("ERROR", ex.getMessage());
+        return new ResponseEntity<>(response, HttpStatus.NOT_IMPLEMENTED);
+    }
+
+    // Handles two updates of the same entity at the same time, the one that commits second fails
+    @ExceptionHandler(OptimisticLockingFailureException.class)
+    public ResponseEntity<?> handleOptimisticLockingFailureException(OptimisticLockingFailureException ex) {
+        Map<String, String> response = new HashMap<>();
+        response.put("ERROR", "The entity was changed by another request at the same time, please try again.");
+        return new ResponseEntity<>(response, HttpStatus.CONFLICT);
+    }
+
     // Handles invalid operations like deleting a genre with movies when it's not allowed
     @ExceptionHandler(IllegalStateException.class)
     public ResponseEntity<?> handleIllegalStateException(IllegalStateException ex) {
@@ -52,20 +87,30 @@ public class GlobalExceptionHandler {
         return new ResponseEntity<>(response, HttpStatus.BAD_REQUEST);
     }
 
-    // Handles database errors when trying to save something with a duplicate value
+    // Handles database errors when trying to save something with a duplicate value (SQLite)
     @ExceptionHandler(JpaSystemException.class)
     public ResponseEntity<Map<String, String>> handleJpaSystemException(JpaSystemException ex) {
-        Map<String, String> response = new HashMap<>();
+        return duplicateValueResponse(ex.getMostSpecificCause().getMessage());
+    }
 
-        // Determine the entity based on the exception message or cause
-        String message = ex.getMostSpecificCause().getMessage();
+    // Same on PostgreSQL, where Hibernate reports the unique constraint violation as such
+    @ExceptionHandler(DataIntegrityViolationException.class)
+    public ResponseEntity<Map<String, String>> handleDataIntegrityViolationException(DataIntegrityViolationException ex) {
+        return duplicateValueResponse(ex.getMostSpecificCause().getMessage());
+    }
+
+    private ResponseEntity<Map<String, String>> duplicateValueResponse(String message) {
+        Map<String, String> response = new HashMap<>();
 
         // Checks which table caused the error and sends a specific message
-        if (message.contains("tbl_actor.name")) {
+        // SQLite names the column (tbl_actor.name), PostgreSQL the unique constraint (tbl_actor_name_key)
+        if (message == null) {
+            response.put("ERROR", "A database error occurred.");
+        } else if (message.contains("tbl_actor.name") || message.contains("tbl_actor_name_key")) {
             response.put("ERROR", "Actor with the given name already exists.");
-        } else if (message.contains("tbl_genre.name")) {
+        } else if (message.contains("tbl_genre.name") || message.contains("tbl_genre_name_key")) {
             response.put("ERROR", "Genre with the given name already exists.");
-        } else if (message.contains("tbl_movie.title")) {
+        } else if (message.contains("tbl_movie.title") || message.contains("tbl_movie_title_key")) {
             response.put("ERROR", "Movie with the given title already exists.");
         } else {
             response.put("ERROR", "A database error occurred.");
@@ -0,0 +1,15 @@
+package movies.movies.Exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Thrown for features this deployment doesn't offer, like the ones answered from memory when several nodes share the database
+// It returns a 501 Not Implemented HTTP status
+
+@ResponseStatus(HttpStatus.NOT_IMPLEMENTED)
+public class NotAvailableException extends RuntimeException {
+
+    public NotAvailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,15 @@
+package movies.movies.Exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+// Thrown when an update sends an If-Match header for a version that is no longer current
+// It returns a 412 Precondition Failed HTTP status
+
+@ResponseStatus(HttpStatus.PRECONDITION_FAILED)
+public class PreconditionFailedException extends RuntimeException {
+
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,107 @@
+package movies.movies.Metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Counts the SQL statements Hibernate prepares for each request, to find N+1 query patterns.
+ * Hibernate passes every statement through inspect() and the request interceptor records the count
+ * per endpoint when the request completes. Requests over the query budget are counted and logged.
+ *
+ * Only statements run on the request thread are counted: the JDBC writes of the import, the
+ * streamed export and the search branches run on other threads.
+ * Statements are also logged at debug level on the movies.sql logger, 1 in sample-rate of them,
+ * which replaces spring.jpa.show-sql.
+ */
+@Component
+public class QueryCounter implements StatementInspector, AsyncHandlerInterceptor {
+
+    private static final Logger log = LoggerFactory.getLogger(QueryCounter.class);
+    private static final Logger sqlLog = LoggerFactory.getLogger("movies.sql");
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //Statements a single request may run before it is reported
+    @Value("${movies.metrics.query-budget:20}")
+    private int queryBudget;
+    //1 in this many statements is logged when the movies.sql logger is at debug level
+    @Value("${movies.metrics.sql-log-sample-rate:100}")
+    private int sqlLogSampleRate;
+
+    //Statements of the request on this thread, null outside of a request
+    private final ThreadLocal<int[]> statements = new ThreadLocal<>();
+
+    @Override
+    public String inspect(String sql) {
+        int[] count = statements.get();
+        if (count != null) {
+            count[0]++;
+        }
+        if (sqlLog.isDebugEnabled() && ThreadLocalRandom.current().nextInt(sqlLogSampleRate) == 0) {
+            sqlLog.debug(sql);
+        }
+        return sql;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        //The dispatch that writes the result of an async handler is already counted with the request
+        if (request.getDispatcherType() != DispatcherType.ASYNC) {
+            statements.set(new int[1]);
+        }
+        return true;
+    }
+
+    //The handler went async, the rest of the request runs elsewhere and comes back as a new dispatch
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        record(request);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        record(request);
+    }
+
+    private void record(HttpServletRequest request) {
+        int[] count = statements.get();
+        statements.remove();
+        if (count == null) {
+            return;
+        }
+        //The mapped pattern, like /api/movies/{id}, so every movie id is the same endpoint
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        String uri = pattern != null ? pattern.toString() : "UNKNOWN";
+        DistributionSummary.builder("movies.request.queries")
+                .description("SQL statements run by Hibernate per request")
+                .tag("method", request.getMethod())
+                .tag("uri", uri)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(count[0]);
+        if (count[0] > queryBudget) {
+            Counter.builder("movies.request.query.budget.exceeded")
+                    .description("Requests that ran more SQL statements than the query budget")
+                    .tag("method", request.getMethod())
+                    .tag("uri", uri)
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("{} {} ran {} queries, over the budget of {}", request.getMethod(), request.getRequestURI(), count[0], queryBudget);
+        }
+    }
+}
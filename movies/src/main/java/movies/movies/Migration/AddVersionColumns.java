@@ -0,0 +1,66 @@
+package movies.movies.Migration;
+
+import org.flywaydb.core.api.MigrationVersion;
+import org.flywaydb.core.api.migration.Context;
+import org.flywaydb.core.api.migration.JavaMigration;
+import org.springframework.stereotype.Component;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/*
+ * V2: the optimistic lock version and last change time of movies, actors and genres.
+ * Databases that ran with ddl-auto=update after the columns were added to the entities already
+ * have them, and SQLite has no "add column if not exists", so each column is only added when missing.
+ * Spring Boot hands @Component migrations to Flyway, the version is given here instead of in the class name.
+ */
+@Component
+public class AddVersionColumns implements JavaMigration {
+
+    private static final List<String> TABLES = List.of("tbl_movie", "tbl_actor", "tbl_genre");
+
+    @Override
+    public MigrationVersion getVersion() {
+        return MigrationVersion.fromVersion("2");
+    }
+
+    @Override
+    public String getDescription() {
+        return "Add version columns";
+    }
+
+    @Override
+    public Integer getChecksum() {
+        return null;
+    }
+
+    @Override
+    public boolean canExecuteInTransaction() {
+        return true;
+    }
+
+    @Override
+    public void migrate(Context context) throws SQLException {
+        Connection connection = context.getConnection();
+        try (Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                //Existing rows start at version 0, as in @ColumnDefault
+                if (!hasColumn(connection, table, "version")) {
+                    statement.execute("alter table " + table + " add column version bigint default 0");
+                }
+                if (!hasColumn(connection, table, "last_modified")) {
+                    statement.execute("alter table " + table + " add column last_modified timestamp");
+                }
+            }
+        }
+    }
+
+    private static boolean hasColumn(Connection connection, String table, String column) throws SQLException {
+        try (ResultSet columns = connection.getMetaData().getColumns(null, null, table, column)) {
+            return columns.next();
+        }
+    }
+}
@@ -1,15 +1,148 @@
 package movies.movies.Repository;
 
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.ActorSummary;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.LinkedMovie;
+import movies.movies.Dto.MovieRef;
 import movies.movies.Entity.Actor;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
 @Repository
 public interface ActorRepository extends JpaRepository<Actor, Long> {
-    //Helper methods to add features beyond the given JpaRepository ones
-    Page<Actor> findByNameContainingIgnoreCase(String name, Pageable pageable);
-    Page<Actor> findByMoviesId(Long movieId, Pageable pageable);
+    //Same two-phase fetch plan as MovieRepository: a page of ids, then read-only projections for that page
+
+    //Phase 1: pages of actor ids
+    @Query("select a.id from Actor a")
+    Page<Long> findIds(Pageable pageable);
+
+    //Wildcards in the name are escaped the same way the derived ContainingIgnoreCase query does it
+    @Query("select a.id from Actor a where lower(a.name) like lower(concat('%', ?#{escape([0])}, '%')) escape ?#{escapeCharacter()}")
+    Page<Long> findIdsByNameContainingIgnoreCase(String name, Pageable pageable);
+
+    @Query("select a.id from Actor a join a.movies m where m.id = :movieId")
+    Page<Long> findIdsByMoviesId(@Param("movieId") Long movieId, Pageable pageable);
+
+    //Keyset variant of phase 1: the next ids after a given (name, id), without a count query
+    @Query("select a.id from Actor a where a.name > :afterName or (a.name = :afterName and a.id > :afterId) order by a.name, a.id")
+    List<Long> findIdsAfter(@Param("afterName") String afterName, @Param("afterId") Long afterId, Limit limit);
+
+    //Bulk links: one statement on the join table for any number of movies, no collection is loaded
+    //Clears the persistence context so no loaded movie or actor keeps the old links
+    //and names the join table, so Hibernate evicts the cached movie collections of that table and nothing else
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_actors"))
+    @Query(nativeQuery = true, value = "insert into movie_actors (movie_id, actor_id) select m.id, :actorId from tbl_movie m"
+            + " where m.id in (:movieIds) and not exists (select 1 from movie_actors ma where ma.movie_id = m.id and ma.actor_id = :actorId)")
+    int linkMovies(@Param("actorId") Long actorId, @Param("movieIds") Collection<Long> movieIds);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_actors"))
+    @Query(nativeQuery = true, value = "delete from movie_actors where actor_id = :actorId and movie_id in (:movieIds)")
+    int unlinkMovies(@Param("actorId") Long actorId, @Param("movieIds") Collection<Long> movieIds);
+
+    //Set-based delete, see MovieRepository
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_actors"))
+    @Query(nativeQuery = true, value = "delete from movie_actors where actor_id = :actorId")
+    int unlinkAllMovies(@Param("actorId") Long actorId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Actor a where a.id = :id")
+    int deleteRowById(@Param("id") Long id);
+
+    //Conditional requests and bulk link changes, see MovieRepository
+    @Query("select new movies.movies.Dto.EntityVersion(a.version, a.lastModified) from Actor a where a.id = :id")
+    Optional<EntityVersion> findVersionById(@Param("id") Long id);
+
+    @Modifying(flushAutomatically = true)
+    @Query("update Actor a set a.version = a.version + 1, a.lastModified = :now where a.id in :ids")
+    int touchByIdIn(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+    //Phase 2: the actor rows and their movies
+    @Query("select new movies.movies.Dto.ActorRef(a.id, a.name, a.birthDate) from Actor a where a.id in :ids")
+    List<ActorRef> findRefsByIdIn(@Param("ids") Collection<Long> ids);
+
+    //Actors who played in a movie with the given one and the number of movies they share, most first
+    //Only used until the actor graph is built
+    @Query(value = "select other.id, count(m) from Actor a join a.movies m join m.actors other where a.id = :id and other.id <> :id"
+            + " group by other.id order by count(m) desc, other.id",
+            countQuery = "select count(distinct other.id) from Actor a join a.movies m join m.actors other where a.id = :id and other.id <> :id")
+    Page<Object[]> findCostarsById(@Param("id") Long id, Pageable pageable);
+
+    @Query("select new movies.movies.Dto.LinkedMovie(a.id, m.id, m.title, m.releaseYear, m.duration) from Actor a join a.movies m where a.id in :ids order by m.title")
+    List<LinkedMovie> findMoviesByActorIdIn(@Param("ids") Collection<Long> ids);
+
+    //Every actor row, read as a stream so the whole table is never in memory at once
+    @Query("select new movies.movies.Dto.ActorRef(a.id, a.name, a.birthDate) from Actor a")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000")) //Batches on PostgreSQL, see MovieRepository.streamAllRefs
+    Stream<ActorRef> streamAllRefs();
+
+    default Page<ActorSummary> findAllSummaries(Pageable pageable) {
+        return summaries(findIds(pageable));
+    }
+
+    default Page<ActorSummary> findSummariesByNameContainingIgnoreCase(String name, Pageable pageable) {
+        return summaries(findIdsByNameContainingIgnoreCase(name, pageable));
+    }
+
+    default Page<ActorSummary> findSummariesByMoviesId(Long movieId, Pageable pageable) {
+        return summaries(findIdsByMoviesId(movieId, pageable));
+    }
+
+    //Turns up to size + 1 ids into a slice of summaries, the extra id only tells if there's a next slice
+    default Slice<ActorSummary> slice(List<Long> ids, int size) {
+        boolean hasNext = ids.size() > size;
+        List<Long> content = hasNext ? ids.subList(0, size) : ids;
+        return new SliceImpl<>(content.isEmpty() ? List.of() : findSummariesByIdIn(content), Pageable.ofSize(size), hasNext);
+    }
+
+    default Optional<ActorSummary> findSummaryById(Long id) {
+        List<ActorSummary> summaries = findSummariesByIdIn(List.of(id));
+        return summaries.isEmpty() ? Optional.empty() : Optional.of(summaries.get(0));
+    }
+
+    //Turns a page of ids into a page of summaries in the same order
+    default Page<ActorSummary> summaries(Page<Long> idPage) {
+        List<ActorSummary> content = idPage.isEmpty() ? List.of() : findSummariesByIdIn(idPage.getContent());
+        return new PageImpl<>(content, idPage.getPageable(), idPage.getTotalElements());
+    }
+
+    //Builds the summaries of the given actors in the order of the ids
+    default List<ActorSummary> findSummariesByIdIn(List<Long> ids) {
+        Map<Long, ActorRef> actorsById = new HashMap<>();
+        for (ActorRef actor : findRefsByIdIn(ids)) {
+            actorsById.put(actor.id(), actor);
+        }
+        Map<Long, List<MovieRef>> moviesByActor = new HashMap<>();
+        for (LinkedMovie movie : findMoviesByActorIdIn(ids)) {
+            moviesByActor.computeIfAbsent(movie.ownerId(), key -> new ArrayList<>()).add(movie.toRef());
+        }
+        List<ActorSummary> summaries = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            ActorRef actor = actorsById.get(id);
+            if (actor != null) {
+                summaries.add(ActorSummary.of(actor, moviesByActor.getOrDefault(id, List.of())));
+            }
+        }
+        return summaries;
+    }
 }
@@ -1,18 +1,133 @@
 package movies.movies.Repository;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.GenreRef;
+import movies.movies.Dto.GenreSummary;
+import movies.movies.Dto.LinkedMovie;
+import movies.movies.Dto.MovieRef;
 import movies.movies.Entity.Genre;
 
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
 
 
 @Repository
 public interface GenreRepository extends JpaRepository<Genre, Long> {
+        //Same two-phase fetch plan as MovieRepository: a page of ids, then read-only projections for that page
+
+        @Query("select g.id from Genre g")
+        Page<Long> findIds(Pageable pageable);
 
         //Needed only for main search api
-        Page<Genre> findByNameContainingIgnoreCase(String name, Pageable pageable);
+        @Query("select g.id from Genre g where lower(g.name) like lower(concat('%', ?#{escape([0])}, '%')) escape ?#{escapeCharacter()}")
+        Page<Long> findIdsByNameContainingIgnoreCase(String name, Pageable pageable);
+
+        //Keyset variant: the next ids after a given (name, id), without a count query
+        @Query("select g.id from Genre g where g.name > :afterName or (g.name = :afterName and g.id > :afterId) order by g.name, g.id")
+        List<Long> findIdsAfter(@Param("afterName") String afterName, @Param("afterId") Long afterId, Limit limit);
+
+        //Bulk links: one statement on the join table for any number of movies, no collection is loaded
+        //Clears the persistence context so no loaded movie or genre keeps the old links
+        //and names the join table, so Hibernate evicts the cached movie collections of that table and nothing else
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_genres"))
+        @Query(nativeQuery = true, value = "insert into movie_genres (movie_id, genre_id) select m.id, :genreId from tbl_movie m"
+                + " where m.id in (:movieIds) and not exists (select 1 from movie_genres mg where mg.movie_id = m.id and mg.genre_id = :genreId)")
+        int linkMovies(@Param("genreId") Long genreId, @Param("movieIds") Collection<Long> movieIds);
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_genres"))
+        @Query(nativeQuery = true, value = "delete from movie_genres where genre_id = :genreId and movie_id in (:movieIds)")
+        int unlinkMovies(@Param("genreId") Long genreId, @Param("movieIds") Collection<Long> movieIds);
+
+        //Set-based delete, see MovieRepository
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_genres"))
+        @Query(nativeQuery = true, value = "delete from movie_genres where genre_id = :genreId")
+        int unlinkAllMovies(@Param("genreId") Long genreId);
+
+        @Modifying(flushAutomatically = true, clearAutomatically = true)
+        @Query("delete from Genre g where g.id = :id")
+        int deleteRowById(@Param("id") Long id);
+
+        //Conditional requests and bulk link changes, see MovieRepository
+        @Query("select new movies.movies.Dto.EntityVersion(g.version, g.lastModified) from Genre g where g.id = :id")
+        Optional<EntityVersion> findVersionById(@Param("id") Long id);
+
+        @Modifying(flushAutomatically = true)
+        @Query("update Genre g set g.version = g.version + 1, g.lastModified = :now where g.id in :ids")
+        int touchByIdIn(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+        @Query("select new movies.movies.Dto.GenreRef(g.id, g.name) from Genre g where g.id in :ids")
+        List<GenreRef> findRefsByIdIn(@Param("ids") Collection<Long> ids);
+
+        @Query("select new movies.movies.Dto.LinkedMovie(g.id, m.id, m.title, m.releaseYear, m.duration) from Genre g join g.movies m where g.id in :ids order by m.title")
+        List<LinkedMovie> findMoviesByGenreIdIn(@Param("ids") Collection<Long> ids);
+
+        //Every genre row, read as a stream so the whole table is never in memory at once
+        @Query("select new movies.movies.Dto.GenreRef(g.id, g.name) from Genre g")
+        @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000")) //Batches on PostgreSQL, see MovieRepository.streamAllRefs
+        Stream<GenreRef> streamAllRefs();
+
+        default Page<GenreSummary> findAllSummaries(Pageable pageable) {
+                return summaries(findIds(pageable));
+        }
+
+        default Page<GenreSummary> findSummariesByNameContainingIgnoreCase(String name, Pageable pageable) {
+                return summaries(findIdsByNameContainingIgnoreCase(name, pageable));
+        }
+
+        //Turns up to size + 1 ids into a slice of summaries, the extra id only tells if there's a next slice
+        default Slice<GenreSummary> slice(List<Long> ids, int size) {
+                boolean hasNext = ids.size() > size;
+                List<Long> content = hasNext ? ids.subList(0, size) : ids;
+                return new SliceImpl<>(content.isEmpty() ? List.of() : findSummariesByIdIn(content), Pageable.ofSize(size), hasNext);
+        }
+
+        default Optional<GenreSummary> findSummaryById(Long id) {
+                List<GenreSummary> summaries = findSummariesByIdIn(List.of(id));
+                return summaries.isEmpty() ? Optional.empty() : Optional.of(summaries.get(0));
+        }
+
+        //Turns a page of ids into a page of summaries in the same order
+        default Page<GenreSummary> summaries(Page<Long> idPage) {
+                List<GenreSummary> content = idPage.isEmpty() ? List.of() : findSummariesByIdIn(idPage.getContent());
+                return new PageImpl<>(content, idPage.getPageable(), idPage.getTotalElements());
+        }
 
-}
\ No newline at end of file
+        //Builds the summaries of the given genres in the order of the ids
+        default List<GenreSummary> findSummariesByIdIn(List<Long> ids) {
+                Map<Long, GenreRef> genresById = new HashMap<>();
+                for (GenreRef genre : findRefsByIdIn(ids)) {
+                        genresById.put(genre.id(), genre);
+                }
+                Map<Long, List<MovieRef>> moviesByGenre = new HashMap<>();
+                for (LinkedMovie movie : findMoviesByGenreIdIn(ids)) {
+                        moviesByGenre.computeIfAbsent(movie.ownerId(), key -> new ArrayList<>()).add(movie.toRef());
+                }
+                List<GenreSummary> summaries = new ArrayList<>(ids.size());
+                for (Long id : ids) {
+                        GenreRef genre = genresById.get(id);
+                        if (genre != null) {
+                                summaries.add(GenreSummary.of(genre, moviesByGenre.getOrDefault(id, List.of())));
+                        }
+                }
+                return summaries;
+        }
+}
@@ -1,18 +1,232 @@
 package movies.movies.Repository;
 
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.GenreRef;
+import movies.movies.Dto.LinkedActor;
+import movies.movies.Dto.LinkedGenre;
+import movies.movies.Dto.MovieRef;
+import movies.movies.Dto.MovieSummary;
 import movies.movies.Entity.Movie;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Stream;
+
 @Repository
-public interface MovieRepository extends JpaRepository<Movie, Long> {
-
-    
-    //Helper methods to add features beyond the given JpaRepository ones
-    Page<Movie> findByGenresId(Long genreId, Pageable pageable);
-    Page<Movie> findByActorsId(Long actorId, Pageable pageable);
-    Page<Movie> findByReleaseYear(Integer releaseYear, Pageable pageable);
-    Page<Movie> findByTitleContainingIgnoreCase(String title, Pageable pageable);
-}
\ No newline at end of file
+public interface MovieRepository extends JpaRepository<Movie, Long>, JpaSpecificationExecutor<Movie> {
+
+    /*
+     * Fetch plan for movie listings:
+     * Phase 1 pages over the movie ids only (plus the count query).
+     * Phase 2 loads the movies of that page and their genres and actors as read-only projections,
+     * one constructor-expression query each, so no managed entities or lazy proxies are created.
+     * A page therefore costs the same number of queries no matter how many movies are on it.
+     */
+
+    //Phase 1: pages of movie ids for each of the listings
+    @Query("select m.id from Movie m")
+    Page<Long> findIds(Pageable pageable);
+
+    //The genre and release year pages come from the query cache (ids and count) until a movie or its genres change
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("select m.id from Movie m join m.genres g where g.id = :genreId")
+    Page<Long> findIdsByGenresId(@Param("genreId") Long genreId, Pageable pageable);
+
+    @Query("select m.id from Movie m join m.actors a where a.id = :actorId")
+    Page<Long> findIdsByActorsId(@Param("actorId") Long actorId, Pageable pageable);
+
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    @Query("select m.id from Movie m where m.releaseYear = :releaseYear")
+    Page<Long> findIdsByReleaseYear(@Param("releaseYear") Integer releaseYear, Pageable pageable);
+
+    //Wildcards in the title are escaped the same way the derived ContainingIgnoreCase query does it
+    @Query("select m.id from Movie m where lower(m.title) like lower(concat('%', ?#{escape([0])}, '%')) escape ?#{escapeCharacter()}")
+    Page<Long> findIdsByTitleContainingIgnoreCase(String title, Pageable pageable);
+
+    //Keyset variant of phase 1: the next ids after a given one, sorted by id, without a count query
+    @Query("select m.id from Movie m where m.id > :afterId order by m.id")
+    List<Long> findIdsAfter(@Param("afterId") Long afterId, Limit limit);
+
+    @Query("select m.id from Movie m join m.genres g where g.id = :genreId and m.id > :afterId order by m.id")
+    List<Long> findIdsByGenresIdAfter(@Param("genreId") Long genreId, @Param("afterId") Long afterId, Limit limit);
+
+    @Query("select m.id from Movie m join m.actors a where a.id = :actorId and m.id > :afterId order by m.id")
+    List<Long> findIdsByActorsIdAfter(@Param("actorId") Long actorId, @Param("afterId") Long afterId, Limit limit);
+
+    @Query("select m.id from Movie m where m.releaseYear = :releaseYear and m.id > :afterId order by m.id")
+    List<Long> findIdsByReleaseYearAfter(@Param("releaseYear") Integer releaseYear, @Param("afterId") Long afterId, Limit limit);
+
+    //Title search fallback for the cursor mode, sorted by lowercase title and id
+    @Query("select m.id from Movie m where lower(m.title) like lower(concat('%', ?#{escape([0])}, '%')) escape ?#{escapeCharacter()}"
+            + " and (lower(m.title) > ?2 or (lower(m.title) = ?2 and m.id > ?3)) order by lower(m.title), m.id")
+    List<Long> findIdsByTitleContainingIgnoreCaseAfter(String title, String afterTitle, Long afterId, Limit limit);
+
+    //Counts for the cursor mode, which leaves them out of the listing itself
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    long countByGenresId(Long genreId);
+    long countByActorsId(Long actorId);
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    long countByReleaseYear(Integer releaseYear);
+    long countByTitleContainingIgnoreCase(String title);
+
+    //Set-based delete: the ids on the other side of the links, then one statement per join table and one for the row
+    //Nothing is loaded into the persistence context, which is cleared so no loaded entity keeps the old links
+    //The native statements name the join table they change, so Hibernate only evicts the cached collections of that table
+    @Query("select g.id from Movie m join m.genres g where m.id = :movieId")
+    List<Long> findGenreIdsById(@Param("movieId") Long movieId);
+
+    @Query("select a.id from Movie m join m.actors a where m.id = :movieId")
+    List<Long> findActorIdsById(@Param("movieId") Long movieId);
+
+    @Query("select m.id from Movie m join m.genres g where g.id = :genreId")
+    List<Long> findAllIdsByGenresId(@Param("genreId") Long genreId);
+
+    @Query("select m.id from Movie m join m.actors a where a.id = :actorId")
+    List<Long> findAllIdsByActorsId(@Param("actorId") Long actorId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_genres"))
+    @Query(nativeQuery = true, value = "delete from movie_genres where movie_id = :movieId")
+    int unlinkAllGenres(@Param("movieId") Long movieId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_NATIVE_SPACES, value = "movie_actors"))
+    @Query(nativeQuery = true, value = "delete from movie_actors where movie_id = :movieId")
+    int unlinkAllActors(@Param("movieId") Long movieId);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Movie m where m.id = :id")
+    int deleteRowById(@Param("id") Long id);
+
+    //Version of one movie for conditional requests, and a version bump for movies whose links changed in bulk
+    @Query("select new movies.movies.Dto.EntityVersion(m.version, m.lastModified) from Movie m where m.id = :id")
+    Optional<EntityVersion> findVersionById(@Param("id") Long id);
+
+    @Modifying(flushAutomatically = true)
+    @Query("update Movie m set m.version = m.version + 1, m.lastModified = :now where m.id in :ids")
+    int touchByIdIn(@Param("ids") Collection<Long> ids, @Param("now") Instant now);
+
+    //Which of the given ids exist, for checks that don't need the entities
+    @Query("select m.id from Movie m where m.id in :ids")
+    List<Long> findExistingIds(@Param("ids") Collection<Long> ids);
+
+    //Total duration of the given movies, and of those of them linked to a genre, for the catalog stats
+    @Query("select coalesce(sum(m.duration), 0) from Movie m where m.id in :ids")
+    long sumDurationByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select coalesce(sum(m.duration), 0) from Movie m join m.genres g where g.id = :genreId and m.id in :ids")
+    long sumDurationByGenresIdAndIdIn(@Param("genreId") Long genreId, @Param("ids") Collection<Long> ids);
+
+    //Phase 2: the movie rows and both of their associations
+    @Query("select new movies.movies.Dto.MovieRef(m.id, m.title, m.releaseYear, m.duration) from Movie m where m.id in :ids")
+    List<MovieRef> findRefsByIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select new movies.movies.Dto.LinkedGenre(m.id, g.id, g.name) from Movie m join m.genres g where m.id in :ids order by g.name")
+    List<LinkedGenre> findGenresByMovieIdIn(@Param("ids") Collection<Long> ids);
+
+    @Query("select new movies.movies.Dto.LinkedActor(m.id, a.id, a.name, a.birthDate) from Movie m join m.actors a where m.id in :ids order by a.name")
+    List<LinkedActor> findActorsByMovieIdIn(@Param("ids") Collection<Long> ids);
+
+    //Every movie row in id order, read as a stream so the whole table is never in memory at once
+    //The fetch size makes PgJDBC read the rows in batches, without it the driver loads the whole result first
+    //(it only does so inside a transaction, which the callers open; SQLite steps through the rows anyway)
+    @Query("select new movies.movies.Dto.MovieRef(m.id, m.title, m.releaseYear, m.duration) from Movie m order by m.id")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<MovieRef> streamAllRefs();
+
+    //Every link of the join tables as (movie id, genre or actor id) pairs, for the filter index
+    @Query("select m.id, g.id from Movie m join m.genres g")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<Object[]> streamGenreLinks();
+
+    @Query("select m.id, a.id from Movie m join m.actors a")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "1000"))
+    Stream<Object[]> streamActorLinks();
+
+    //Listings that combine both phases, keeping the order of the id page
+    default Page<MovieSummary> findAllSummaries(Pageable pageable) {
+        return summaries(findIds(pageable));
+    }
+
+    default Page<MovieSummary> findSummariesByGenresId(Long genreId, Pageable pageable) {
+        return summaries(findIdsByGenresId(genreId, pageable));
+    }
+
+    default Page<MovieSummary> findSummariesByActorsId(Long actorId, Pageable pageable) {
+        return summaries(findIdsByActorsId(actorId, pageable));
+    }
+
+    default Page<MovieSummary> findSummariesByReleaseYear(Integer releaseYear, Pageable pageable) {
+        return summaries(findIdsByReleaseYear(releaseYear, pageable));
+    }
+
+    default Page<MovieSummary> findSummariesByTitleContainingIgnoreCase(String title, Pageable pageable) {
+        return summaries(findIdsByTitleContainingIgnoreCase(title, pageable));
+    }
+
+    //Turns up to size + 1 ids into a slice of summaries, the extra id only tells if there's a next slice
+    default Slice<MovieSummary> slice(List<Long> ids, int size) {
+        boolean hasNext = ids.size() > size;
+        List<Long> content = hasNext ? ids.subList(0, size) : ids;
+        return new SliceImpl<>(content.isEmpty() ? List.of() : findSummariesByIdIn(content), Pageable.ofSize(size), hasNext);
+    }
+
+    default Optional<MovieSummary> findSummaryById(Long id) {
+        List<MovieSummary> summaries = findSummariesByIdIn(List.of(id));
+        return summaries.isEmpty() ? Optional.empty() : Optional.of(summaries.get(0));
+    }
+
+    //Turns a page of ids into a page of summaries in the same order
+    default Page<MovieSummary> summaries(Page<Long> idPage) {
+        List<MovieSummary> content = idPage.isEmpty() ? List.of() : findSummariesByIdIn(idPage.getContent());
+        return new PageImpl<>(content, idPage.getPageable(), idPage.getTotalElements());
+    }
+
+    //Builds the summaries of the given movies in the order of the ids
+    //Skips a movie that was deleted between loading the ids and loading the rows
+    default List<MovieSummary> findSummariesByIdIn(List<Long> ids) {
+        return summariesOf(ids, findRefsByIdIn(ids));
+    }
+
+    //Adds the genres and actors to movie rows that are already loaded, in the order of the ids
+    default List<MovieSummary> summariesOf(List<Long> ids, Collection<MovieRef> movies) {
+        Map<Long, MovieRef> moviesById = new HashMap<>();
+        for (MovieRef movie : movies) {
+            moviesById.put(movie.id(), movie);
+        }
+        Map<Long, List<GenreRef>> genresByMovie = new HashMap<>();
+        for (LinkedGenre genre : findGenresByMovieIdIn(ids)) {
+            genresByMovie.computeIfAbsent(genre.ownerId(), key -> new ArrayList<>()).add(genre.toRef());
+        }
+        Map<Long, List<ActorRef>> actorsByMovie = new HashMap<>();
+        for (LinkedActor actor : findActorsByMovieIdIn(ids)) {
+            actorsByMovie.computeIfAbsent(actor.ownerId(), key -> new ArrayList<>()).add(actor.toRef());
+        }
+        List<MovieSummary> summaries = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            MovieRef movie = moviesById.get(id);
+            if (movie != null) {
+                summaries.add(MovieSummary.of(movie,
+                        genresByMovie.getOrDefault(id, List.of()),
+                        actorsByMovie.getOrDefault(id, List.of())));
+            }
+        }
+        return summaries;
+    }
+}
@@ -0,0 +1,70 @@
+package movies.movies.Repository;
+
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Entity.Movie;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Subquery;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+//The movie filters as a query, for the listings the filter index can't answer (other sort orders, or before it's built)
+//Each genre or actor is a subquery on its join table, which the (genre_id, movie_id) and (actor_id, movie_id) indexes answer
+public final class MovieSpecifications {
+
+    private MovieSpecifications() {
+    }
+
+    public static Specification<Movie> matching(MovieFilter filter) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            links(predicates, root, query, cb, "genres", filter.genres(), filter.allGenres());
+            links(predicates, root, query, cb, "actors", filter.actors(), filter.allActors());
+            if (filter.minYear() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("releaseYear"), filter.minYear()));
+            }
+            if (filter.maxYear() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("releaseYear"), filter.maxYear()));
+            }
+            if (filter.minDuration() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("duration"), filter.minDuration()));
+            }
+            if (filter.maxDuration() != null) {
+                predicates.add(cb.lessThanOrEqualTo(root.get("duration"), filter.maxDuration()));
+            }
+            return cb.and(predicates.toArray(new Predicate[0]));
+        };
+    }
+
+    //Movies after the given id, for the cursor mode
+    public static Specification<Movie> idAfter(long afterId) {
+        return (root, query, cb) -> cb.greaterThan(root.get("id"), afterId);
+    }
+
+    //All of the ids: one subquery each, any of them: one subquery with all of the ids
+    private static void links(List<Predicate> predicates, Root<Movie> root, CriteriaQuery<?> query, CriteriaBuilder cb,
+                              String association, Set<Long> ids, boolean all) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        if (!all) {
+            predicates.add(root.get("id").in(linkedMovieIds(query, association, ids)));
+            return;
+        }
+        for (Long id : ids) {
+            predicates.add(root.get("id").in(linkedMovieIds(query, association, Set.of(id))));
+        }
+    }
+
+    private static Subquery<Long> linkedMovieIds(CriteriaQuery<?> query, String association, Set<Long> ids) {
+        Subquery<Long> movieIds = query.subquery(Long.class);
+        Root<Movie> movie = movieIds.from(Movie.class);
+        movieIds.select(movie.get("id")).where(movie.join(association).get("id").in(ids));
+        return movieIds;
+    }
+}
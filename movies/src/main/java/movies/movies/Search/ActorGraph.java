@@ -0,0 +1,542 @@
+package movies.movies.Search;
+
+import movies.movies.Dto.Costar;
+import movies.movies.Repository.MovieRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/*
+ * The movie_actors links as a graph of actors and movies, for the co-stars of an actor and the
+ * shortest chain of movies between two actors. Both directions are kept as compressed sparse rows:
+ * the sorted movie ids of every actor one after another in a single int array, with an array of
+ * where each actor's run starts, and the same for the cast of every movie. Walking from an actor to
+ * its co-stars reads a few runs of ints without touching an object per link.
+ *
+ * The arrays aren't changed in place. A write puts new rows for the actors and movies it touches in
+ * a map that is read before the arrays, and once those rows hold more than an eighth of the links
+ * everything is copied into fresh arrays. Like the filter index it is built when the application
+ * starts and the services report every change of a cast, applied once the transaction commits.
+ * Actor and movie ids are used as array positions, as ints.
+ * With movies.multi-node it is never built: the co-stars come from a query and the paths aren't offered.
+ */
+@Component
+public class ActorGraph {
+
+    private static final Logger log = LoggerFactory.getLogger(ActorGraph.class);
+
+    //Longest chain of movies a path search looks for
+    public static final int MAX_DEGREES = 10;
+
+    private static final int[] NONE = new int[0];
+
+    //Queries read the graph under the read lock, writes and the swap after a rebuild change it under the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Graph graph = new Graph(new Rows(), new Rows());
+
+    //Writes that commit while the graph is being built are replayed once it's done
+    private final List<Runnable> pending = new ArrayList<>();
+    private boolean building;
+    private volatile boolean ready;
+
+    @Autowired
+    private MovieRepository movieRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    //Several nodes share the database and each would only see its own writes
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    //False when the graph is turned off for a multi-node deployment, it is then never ready
+    public boolean isEnabled() {
+        return !multiNode;
+    }
+
+    //One page of the actors who played in a movie with the given one, most shared movies first and then by id
+    //Names are left for the caller to fill in
+    public Page<Costar> costars(long actorId, Pageable pageable) {
+        long[] ranked = ranked(actorId);
+        long offset = pageable.isPaged() ? pageable.getOffset() : 0;
+        int size = pageable.isPaged() ? pageable.getPageSize() : ranked.length;
+        List<Costar> costars = new ArrayList<>();
+        for (long i = offset; i < ranked.length && costars.size() < size; i++) {
+            long costar = ranked[(int) i];
+            costars.add(new Costar((long) (int) costar, null, Integer.MAX_VALUE - (int) (costar >>> 32)));
+        }
+        return new PageImpl<>(costars, pageable, ranked.length);
+    }
+
+    //Shortest chain from one actor to the other: actor, movie, actor, ... ending with the other actor,
+    //at most maxDegrees movies long, empty if there's none
+    public List<Long> path(long fromActor, long toActor, int maxDegrees) {
+        int[] path;
+        lock.readLock().lock();
+        try {
+            path = graph.path(toInt(fromActor), toInt(toActor), maxDegrees);
+        } finally {
+            lock.readLock().unlock();
+        }
+        List<Long> ids = new ArrayList<>(path.length);
+        for (int id : path) {
+            ids.add((long) id);
+        }
+        return ids;
+    }
+
+    //The movie now has exactly these actors, for a new, updated or imported movie
+    public void movieCast(Long movieId, Collection<Long> actorIds) {
+        int[] actors = sortedOf(actorIds);
+        afterCommit(graph -> graph.replace(graph.movies, graph.actors, toInt(movieId), actors));
+    }
+
+    public void movieRemoved(Long movieId) {
+        afterCommit(graph -> graph.replace(graph.movies, graph.actors, toInt(movieId), NONE));
+    }
+
+    //The actor now plays in exactly these movies, for writes that replace an actor's movies
+    public void actorMovies(Long actorId, Collection<Long> movieIds) {
+        int[] movies = sortedOf(movieIds);
+        afterCommit(graph -> graph.replace(graph.actors, graph.movies, toInt(actorId), movies));
+    }
+
+    public void actorLinked(Long actorId, Collection<Long> movieIds) {
+        int[] movies = sortedOf(movieIds);
+        afterCommit(graph -> graph.link(graph.actors, graph.movies, toInt(actorId), movies));
+    }
+
+    public void actorUnlinked(Long actorId, Collection<Long> movieIds) {
+        int[] movies = sortedOf(movieIds);
+        afterCommit(graph -> graph.unlink(graph.actors, graph.movies, toInt(actorId), movies));
+    }
+
+    public void actorRemoved(Long actorId) {
+        afterCommit(graph -> graph.replace(graph.actors, graph.movies, toInt(actorId), NONE));
+    }
+
+    //Reads the join table into a fresh graph and swaps it in, queries keep using the old one meanwhile
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (multiNode) {
+            log.info("Actor graph is off, movies.multi-node is set");
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            building = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long start = System.currentTimeMillis();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        Links links = new Links();
+        readOnly.executeWithoutResult(status -> {
+            try (Stream<Object[]> rows = movieRepository.streamActorLinks()) {
+                rows.forEach(link -> links.add(toInt((Long) link[0]), toInt((Long) link[1])));
+            }
+        });
+        Graph rebuilt = new Graph(Rows.of(links.actors, links.movies, links.size), Rows.of(links.movies, links.actors, links.size));
+        lock.writeLock().lock();
+        try {
+            graph = rebuilt;
+            pending.forEach(Runnable::run);
+            pending.clear();
+            building = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        log.info("Actor graph built in {} ms: {} links", System.currentTimeMillis() - start, links.size);
+    }
+
+    //Every co-star of the actor, encoded to sort most shared movies first and then by id:
+    //the high half is Integer.MAX_VALUE minus the number of shared movies, the low half the actor id
+    private long[] ranked(long actorId) {
+        int actor = toInt(actorId);
+        int[] costars;
+        lock.readLock().lock();
+        try {
+            costars = graph.costarsWithRepeats(actor);
+        } finally {
+            lock.readLock().unlock();
+        }
+        //Sorted, every co-star is a run as long as the number of shared movies
+        Arrays.sort(costars);
+        long[] ranked = new long[costars.length];
+        int count = 0;
+        for (int i = 0; i < costars.length; ) {
+            int run = i;
+            while (run < costars.length && costars[run] == costars[i]) {
+                run++;
+            }
+            ranked[count++] = (long) (Integer.MAX_VALUE - (run - i)) << 32 | costars[i];
+            i = run;
+        }
+        ranked = Arrays.copyOf(ranked, count);
+        Arrays.sort(ranked);
+        return ranked;
+    }
+
+    private static int[] sortedOf(Collection<Long> ids) {
+        int[] sorted = new int[ids.size()];
+        int count = 0;
+        for (Long id : ids) {
+            sorted[count++] = toInt(id);
+        }
+        Arrays.sort(sorted);
+        return distinct(sorted, count);
+    }
+
+    private static int[] distinct(int[] sorted, int length) {
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (count == 0 || sorted[count - 1] != sorted[i]) {
+                sorted[count++] = sorted[i];
+            }
+        }
+        return count == sorted.length ? sorted : Arrays.copyOf(sorted, count);
+    }
+
+    private static int toInt(Long id) {
+        return Math.toIntExact(id);
+    }
+
+    private void afterCommit(Consumer<Graph> change) {
+        if (multiNode) {
+            return;
+        }
+        Runnable apply = () -> {
+            lock.writeLock().lock();
+            try {
+                if (building) {
+                    pending.add(() -> change.accept(graph));
+                } else {
+                    change.accept(graph);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    //Both directions of the links, every write changes the two of them together
+    private record Graph(Rows actors, Rows movies) {
+
+        //The actors of every movie of the given one except itself, an actor once per shared movie
+        private int[] costarsWithRepeats(int actor) {
+            Row movieRow = actors.row(actor, new Row());
+            Row cast = new Row();
+            int size = 0;
+            for (int i = movieRow.from; i < movieRow.to; i++) {
+                movies.row(movieRow.values[i], cast);
+                size += cast.to - cast.from;
+            }
+            int[] costars = new int[size];
+            int count = 0;
+            for (int i = movieRow.from; i < movieRow.to; i++) {
+                movies.row(movieRow.values[i], cast);
+                for (int j = cast.from; j < cast.to; j++) {
+                    if (cast.values[j] != actor) {
+                        costars[count++] = cast.values[j];
+                    }
+                }
+            }
+            return Arrays.copyOf(costars, count);
+        }
+
+        //Breadth-first from both actors at once, always a whole level of the side with the smaller frontier,
+        //so each side only goes about half the distance. Every actor is checked against the other side when
+        //it's reached, so the first actor the two sides share ends the shortest chain
+        private int[] path(int from, int to, int maxDegrees) {
+            if (from == to) {
+                return new int[]{from};
+            }
+            Search forward = new Search(from);
+            Search backward = new Search(to);
+            Row movieRow = new Row();
+            Row cast = new Row();
+            while (forward.depth + backward.depth < maxDegrees && forward.frontier.length > 0 && backward.frontier.length > 0) {
+                Search side = forward.frontier.length <= backward.frontier.length ? forward : backward;
+                Search other = side == forward ? backward : forward;
+                int[] next = new int[Math.max(16, side.frontier.length)];
+                int count = 0;
+                for (int actor : side.frontier) {
+                    actors.row(actor, movieRow);
+                    for (int i = movieRow.from; i < movieRow.to; i++) {
+                        int movie = movieRow.values[i];
+                        if (!side.movies.add(movie)) {
+                            continue;
+                        }
+                        movies.row(movie, cast);
+                        for (int j = cast.from; j < cast.to; j++) {
+                            int costar = cast.values[j];
+                            if (side.steps.containsKey(costar)) {
+                                continue;
+                            }
+                            side.steps.put(costar, new Step(movie, actor, side.depth + 1));
+                            if (other.steps.containsKey(costar)) {
+                                return joined(forward, backward, costar);
+                            }
+                            if (count == next.length) {
+                                next = Arrays.copyOf(next, count * 2);
+                            }
+                            next[count++] = costar;
+                        }
+                    }
+                }
+                side.frontier = Arrays.copyOf(next, count);
+                side.depth++;
+            }
+            return NONE;
+        }
+
+        //The chain from the first actor to the meeting actor, then on to the second one
+        private static int[] joined(Search forward, Search backward, int meeting) {
+            List<Integer> path = new ArrayList<>();
+            path.add(meeting);
+            for (Step step = forward.steps.get(meeting); step.depth() > 0; step = forward.steps.get(step.actor())) {
+                path.add(step.movie());
+                path.add(step.actor());
+            }
+            Collections.reverse(path);
+            for (Step step = backward.steps.get(meeting); step.depth() > 0; step = backward.steps.get(step.actor())) {
+                path.add(step.movie());
+                path.add(step.actor());
+            }
+            return path.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        //Adds the links from one actor or movie to the given sorted ids, and the links back
+        private void link(Rows side, Rows other, int id, int[] ids) {
+            int[] row = side.get(id);
+            int[] added = minus(ids, row);
+            if (added.length == 0) {
+                return;
+            }
+            side.put(id, union(row, added));
+            for (int linked : added) {
+                other.put(linked, union(other.get(linked), new int[]{id}));
+            }
+            compactIfNeeded();
+        }
+
+        private void unlink(Rows side, Rows other, int id, int[] ids) {
+            int[] row = side.get(id);
+            int[] removed = minus(row, minus(row, ids)); //The given ids that are linked
+            if (removed.length == 0) {
+                return;
+            }
+            side.put(id, minus(row, removed));
+            for (int linked : removed) {
+                other.put(linked, minus(other.get(linked), new int[]{id}));
+            }
+            compactIfNeeded();
+        }
+
+        private void replace(Rows side, Rows other, int id, int[] ids) {
+            int[] row = side.get(id);
+            unlink(side, other, id, minus(row, ids));
+            link(side, other, id, minus(ids, row));
+        }
+
+        private void compactIfNeeded() {
+            if (actors.needsCompaction() || movies.needsCompaction()) {
+                actors.compact();
+                movies.compact();
+            }
+        }
+    }
+
+    //The links of one direction: compressed sparse rows, with the rows changed since they were built in a map
+    private static class Rows {
+        private int[] offsets = {0};
+        private int[] values = NONE;
+        private final Map<Integer, int[]> changed = new HashMap<>();
+        private long changedValues;
+
+        //Rows from pairs of ids, row ids[i] gets linked[i]
+        private static Rows of(int[] ids, int[] linked, int size) {
+            int rows = 0;
+            for (int i = 0; i < size; i++) {
+                rows = Math.max(rows, ids[i] + 1);
+            }
+            Rows built = new Rows();
+            built.offsets = new int[rows + 1];
+            for (int i = 0; i < size; i++) {
+                built.offsets[ids[i] + 1]++;
+            }
+            for (int row = 0; row < rows; row++) {
+                built.offsets[row + 1] += built.offsets[row];
+            }
+            built.values = new int[size];
+            int[] next = Arrays.copyOf(built.offsets, rows);
+            for (int i = 0; i < size; i++) {
+                built.values[next[ids[i]]++] = linked[i];
+            }
+            for (int row = 0; row < rows; row++) {
+                Arrays.sort(built.values, built.offsets[row], built.offsets[row + 1]);
+            }
+            return built;
+        }
+
+        //Points the given row at the values of an id, without copying them
+        private Row row(int id, Row row) {
+            int[] changedRow = changed.get(id);
+            if (changedRow != null) {
+                row.values = changedRow;
+                row.from = 0;
+                row.to = changedRow.length;
+            } else if (id >= 0 && id < offsets.length - 1) {
+                row.values = values;
+                row.from = offsets[id];
+                row.to = offsets[id + 1];
+            } else {
+                row.values = NONE;
+                row.from = 0;
+                row.to = 0;
+            }
+            return row;
+        }
+
+        private int[] get(int id) {
+            Row row = row(id, new Row());
+            return row.values == values ? Arrays.copyOfRange(values, row.from, row.to) : row.values;
+        }
+
+        private void put(int id, int[] row) {
+            int[] before = changed.put(id, row);
+            changedValues += row.length - (before == null ? 0 : before.length);
+        }
+
+        private boolean needsCompaction() {
+            return changed.size() + changedValues > values.length / 8 + 1024;
+        }
+
+        //Copies every row, changed or not, into fresh arrays and empties the map
+        private void compact() {
+            int rows = offsets.length - 1;
+            for (int id : changed.keySet()) {
+                rows = Math.max(rows, id + 1);
+            }
+            int[] newOffsets = new int[rows + 1];
+            Row row = new Row();
+            for (int id = 0; id < rows; id++) {
+                row(id, row);
+                newOffsets[id + 1] = newOffsets[id] + row.to - row.from;
+            }
+            int[] newValues = new int[newOffsets[rows]];
+            for (int id = 0; id < rows; id++) {
+                row(id, row);
+                System.arraycopy(row.values, row.from, newValues, newOffsets[id], row.to - row.from);
+            }
+            offsets = newOffsets;
+            values = newValues;
+            changed.clear();
+            changedValues = 0;
+        }
+    }
+
+    //A run of the values of one row, reused while walking the graph
+    private static class Row {
+        private int[] values = NONE;
+        private int from;
+        private int to;
+    }
+
+    //How a path search reached an actor: through which movie from which actor, and how many movies from the start
+    private record Step(int movie, int actor, int depth) {
+    }
+
+    //One side of a path search: the actors it reached, the movies it went through and the actors of its last level
+    private static class Search {
+        private final Map<Integer, Step> steps = new HashMap<>();
+        private final Set<Integer> movies = new HashSet<>();
+        private int[] frontier;
+        private int depth;
+
+        private Search(int actor) {
+            steps.put(actor, new Step(-1, -1, 0));
+            frontier = new int[]{actor};
+        }
+    }
+
+    //Link pairs read while building, as two growing int arrays
+    private static class Links {
+        private int[] movies = new int[1024];
+        private int[] actors = new int[1024];
+        private int size;
+
+        private void add(int movie, int actor) {
+            if (size == movies.length) {
+                movies = Arrays.copyOf(movies, size * 2);
+                actors = Arrays.copyOf(actors, size * 2);
+            }
+            movies[size] = movie;
+            actors[size] = actor;
+            size++;
+        }
+    }
+
+    //Ids in the first sorted array and not in the second
+    private static int[] minus(int[] sorted, int[] remove) {
+        int[] result = new int[sorted.length];
+        int count = 0;
+        int j = 0;
+        for (int value : sorted) {
+            while (j < remove.length && remove[j] < value) {
+                j++;
+            }
+            if (j == remove.length || remove[j] != value) {
+                result[count++] = value;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(int[] a, int[] b) {
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[count++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[count++] = b[j++];
+            } else {
+                result[count++] = a[i++];
+                j++;
+            }
+        }
+        return count == result.length ? result : Arrays.copyOf(result, count);
+    }
+}
@@ -0,0 +1,587 @@
+package movies.movies.Search;
+
+import movies.movies.Dto.MovieFacets;
+import movies.movies.Dto.MovieFacets.Facet;
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Dto.MovieRef;
+import movies.movies.Repository.MovieRepository;
+import movies.movies.Service.CatalogStats.MovieFacts;
+import movies.movies.Service.CommitGate;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.roaringbitmap.RoaringBitmap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/*
+ * Posting lists of the movie filters: for every genre, actor, release year and duration the ids of
+ * its movies, as compressed bitmaps. A filter is answered by unioning the bitmaps of each criterion
+ * (the years of a range, the genres of an "any" match) and intersecting the criteria, smallest first,
+ * so only the page of ids that is finally shown is read from the database.
+ *
+ * Like the search index it is built when the application starts and kept in sync by the services,
+ * which report every write here, and the changes are applied once the transaction commits.
+ * Movie ids are stored as ints, which holds for any catalog this application can serve.
+ *
+ * The same postings give the facets of a result: the number of matches in each list is the size of
+ * its intersection with the matches, counted without building the intersection. With the cast size of
+ * every movie they are also the popularity that ranks the autocomplete suggestions.
+ *
+ * With movies.multi-node it is never built and ignores the writes, the services then use the queries.
+ */
+@Component
+public class FilterIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(FilterIndex.class);
+
+    //Where the duration ranges of the facets end (excluded), the last range is open
+    private static final int[] DURATION_LIMITS = {90, 120, 150};
+
+    //Filters read the postings under the read lock, writes and the swap after a rebuild change them under the write lock
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private Postings postings = new Postings();
+
+    //Writes that commit while the index is being built are replayed once it's done
+    private final List<Runnable> pending = new ArrayList<>();
+    private boolean building;
+    private volatile boolean ready;
+    //Goes up with every change, for results computed from the postings that are kept around
+    private volatile long version;
+
+    @Autowired
+    private MovieRepository movieRepository;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private CommitGate commitGate;
+    @PersistenceContext
+    private EntityManager entityManager;
+    //Several nodes share the database and each would only see its own writes
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    //The index keeps the ids in id order, other sort orders need the database
+    public static boolean isIdOrder(Sort sort) {
+        for (Sort.Order order : sort) {
+            if (!order.getProperty().equals("id")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //One page of the matching ids, ascending or descending by id
+    public Page<Long> movies(MovieFilter filter, Pageable pageable) {
+        RoaringBitmap matches = match(filter);
+        int total = matches.getCardinality();
+        Sort.Order order = pageable.getSort().getOrderFor("id");
+        boolean descending = order != null && order.isDescending();
+        List<Long> ids = new ArrayList<>();
+        long offset = pageable.isPaged() ? pageable.getOffset() : 0;
+        int size = pageable.isPaged() ? pageable.getPageSize() : total;
+        if (offset < total) {
+            //select finds the first id of the page without walking the ids before it
+            int position = (int) offset;
+            long id = matches.select(descending ? total - 1 - position : position);
+            while (id >= 0 && ids.size() < size) {
+                ids.add(id);
+                id = descending ? previousValue(matches, id) : nextValue(matches, id);
+            }
+        }
+        return new PageImpl<>(ids, pageable, total);
+    }
+
+    //The first ids after the given one, in id order, for the cursor mode
+    public List<Long> moviesAfter(MovieFilter filter, long afterId, int limit) {
+        RoaringBitmap matches = match(filter);
+        List<Long> ids = new ArrayList<>(limit);
+        long id = afterId < 0 ? matches.nextValue(0) : nextValue(matches, afterId);
+        while (id >= 0 && ids.size() < limit) {
+            ids.add(id);
+            id = nextValue(matches, id);
+        }
+        return ids;
+    }
+
+    public long count(MovieFilter filter) {
+        return match(filter).getLongCardinality();
+    }
+
+    public long version() {
+        return version;
+    }
+
+    //Number of movies of a genre, 0 for an unknown one
+    public int genreSize(long genreId) {
+        return size(postings -> postings.genres.get(genreId));
+    }
+
+    //Number of movies of an actor
+    public int actorSize(long actorId) {
+        return size(postings -> postings.actors.get(actorId));
+    }
+
+    //Number of actors of a movie
+    public int castSize(long movieId) {
+        lock.readLock().lock();
+        try {
+            return postings.castSize(toInt(movieId));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Facets of the movies matching the filter, genre and actor names are left for the caller to fill in
+    public MovieFacets facets(MovieFilter filter, int topActors) {
+        return facets(match(filter), topActors);
+    }
+
+    //Facets of the given movies, the matches of a title search
+    public MovieFacets facets(long[] movieIds, int topActors) {
+        RoaringBitmap matches = new RoaringBitmap();
+        for (long id : movieIds) {
+            matches.add(toInt(id));
+        }
+        return facets(matches, topActors);
+    }
+
+    public void movieAdded(Long id, MovieFacts movie) {
+        afterCommit(postings -> postings.add(id, movie));
+    }
+
+    public void movieRemoved(Long id, MovieFacts movie) {
+        afterCommit(postings -> postings.remove(id, movie));
+    }
+
+    public void movieUpdated(Long id, MovieFacts before, MovieFacts after) {
+        afterCommit(postings -> {
+            postings.remove(id, before);
+            postings.add(id, after);
+        });
+    }
+
+    //The genre is now linked to exactly these movies, for writes that replace a genre's movies
+    public void genreMovies(Long genreId, Collection<Long> movieIds) {
+        afterCommit(postings -> postings.genres.put(genreId, bitmapOf(movieIds)));
+    }
+
+    public void genreLinked(Long genreId, Collection<Long> movieIds) {
+        afterCommit(postings -> postings.genres.computeIfAbsent(genreId, key -> new RoaringBitmap()).or(bitmapOf(movieIds)));
+    }
+
+    public void genreUnlinked(Long genreId, Collection<Long> movieIds) {
+        afterCommit(postings -> {
+            RoaringBitmap movies = postings.genres.get(genreId);
+            if (movies != null) {
+                movies.andNot(bitmapOf(movieIds));
+            }
+        });
+    }
+
+    public void genreRemoved(Long genreId) {
+        afterCommit(postings -> postings.genres.remove(genreId));
+    }
+
+    public void actorMovies(Long actorId, Collection<Long> movieIds) {
+        afterCommit(postings -> {
+            RoaringBitmap movies = bitmapOf(movieIds);
+            RoaringBitmap before = postings.actors.put(actorId, movies);
+            if (before != null) {
+                postings.castChanged(RoaringBitmap.andNot(before, movies), -1);
+                postings.castChanged(RoaringBitmap.andNot(movies, before), 1);
+            } else {
+                postings.castChanged(movies, 1);
+            }
+        });
+    }
+
+    public void actorLinked(Long actorId, Collection<Long> movieIds) {
+        afterCommit(postings -> {
+            RoaringBitmap movies = postings.actors.computeIfAbsent(actorId, key -> new RoaringBitmap());
+            RoaringBitmap linked = RoaringBitmap.andNot(bitmapOf(movieIds), movies);
+            movies.or(linked);
+            postings.castChanged(linked, 1);
+        });
+    }
+
+    public void actorUnlinked(Long actorId, Collection<Long> movieIds) {
+        afterCommit(postings -> {
+            RoaringBitmap movies = postings.actors.get(actorId);
+            if (movies != null) {
+                RoaringBitmap unlinked = RoaringBitmap.and(bitmapOf(movieIds), movies);
+                movies.andNot(unlinked);
+                postings.castChanged(unlinked, -1);
+            }
+        });
+    }
+
+    public void actorRemoved(Long actorId) {
+        afterCommit(postings -> {
+            RoaringBitmap movies = postings.actors.remove(actorId);
+            if (movies != null) {
+                postings.castChanged(movies, -1);
+            }
+        });
+    }
+
+    //Reads every movie and both join tables into fresh postings and swaps them in
+    //Filters keep using the old postings while the new ones are built
+    //The reads share one snapshot, and only the changes committed after it are replayed, as the cast counts aren't idempotent
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (multiNode) {
+            log.info("Filter index is off, movies.multi-node is set");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        Postings rebuilt = new Postings();
+        readOnly.executeWithoutResult(status -> {
+            commitGate.openSnapshot(entityManager, () -> {
+                lock.writeLock().lock();
+                try {
+                    building = true;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+            });
+            try (Stream<MovieRef> rows = movieRepository.streamAllRefs()) {
+                rows.forEach(movie -> rebuilt.add(movie.id(), new MovieFacts(movie.releaseYear(), movie.duration(), Set.of(), Set.of())));
+            }
+            try (Stream<Object[]> rows = movieRepository.streamGenreLinks()) {
+                rows.forEach(link -> rebuilt.genres.computeIfAbsent((Long) link[1], key -> new RoaringBitmap()).add(toInt((Long) link[0])));
+            }
+            try (Stream<Object[]> rows = movieRepository.streamActorLinks()) {
+                rows.forEach(link -> {
+                    int movieId = toInt((Long) link[0]);
+                    rebuilt.actors.computeIfAbsent((Long) link[1], key -> new RoaringBitmap()).add(movieId);
+                    rebuilt.castChanged(movieId, 1);
+                });
+            }
+        });
+        rebuilt.compress();
+        lock.writeLock().lock();
+        try {
+            postings = rebuilt;
+            pending.forEach(Runnable::run);
+            pending.clear();
+            building = false;
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        ready = true;
+        log.info("Filter index built in {} ms: {} movies, {} genres, {} actors, {} years",
+                System.currentTimeMillis() - start, rebuilt.all.getCardinality(), rebuilt.genres.size(),
+                rebuilt.actors.size(), rebuilt.years.size());
+    }
+
+    //Intersects the criteria of the filter, each one a union of posting lists
+    private RoaringBitmap match(MovieFilter filter) {
+        lock.readLock().lock();
+        try {
+            Postings current = postings;
+            List<RoaringBitmap> criteria = new ArrayList<>();
+            if (!filter.genres().isEmpty()) {
+                criteria.add(links(current.genres, filter.genres(), filter.allGenres()));
+            }
+            if (!filter.actors().isEmpty()) {
+                criteria.add(links(current.actors, filter.actors(), filter.allActors()));
+            }
+            if (filter.hasYears()) {
+                criteria.add(range(current.years, filter.minYear(), filter.maxYear()));
+            }
+            if (filter.hasDurations()) {
+                criteria.add(range(current.durations, filter.minDuration(), filter.maxDuration()));
+            }
+            if (criteria.isEmpty()) {
+                return current.all.clone();
+            }
+            criteria.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+            RoaringBitmap result = criteria.get(0).clone();
+            for (int i = 1; i < criteria.size() && !result.isEmpty(); i++) {
+                result.and(criteria.get(i));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //One pass over every kind of posting list, years and durations come in order so each decade and range is a run of them
+    private MovieFacets facets(RoaringBitmap matches, int topActors) {
+        lock.readLock().lock();
+        try {
+            Postings current = postings;
+            List<Facet> genres = counts(current.genres, matches, Integer.MAX_VALUE);
+            List<Facet> actors = counts(current.actors, matches, topActors);
+
+            Map<Integer, Long> decades = new TreeMap<>();
+            for (Map.Entry<Integer, RoaringBitmap> year : current.years.entrySet()) {
+                int count = RoaringBitmap.andCardinality(matches, year.getValue());
+                if (count > 0) {
+                    decades.merge(Math.floorDiv(year.getKey(), 10) * 10, (long) count, Long::sum);
+                }
+            }
+            List<Facet> decadeFacets = new ArrayList<>(decades.size());
+            decades.forEach((decade, count) -> decadeFacets.add(new Facet(null, decade + "s", decade, decade + 9, count)));
+
+            long[] durations = new long[DURATION_LIMITS.length + 1];
+            int range = 0;
+            for (Map.Entry<Integer, RoaringBitmap> duration : current.durations.entrySet()) {
+                while (range < DURATION_LIMITS.length && duration.getKey() >= DURATION_LIMITS[range]) {
+                    range++;
+                }
+                durations[range] += RoaringBitmap.andCardinality(matches, duration.getValue());
+            }
+            List<Facet> durationFacets = new ArrayList<>();
+            for (int i = 0; i < durations.length; i++) {
+                if (durations[i] > 0) {
+                    durationFacets.add(durationFacet(i, durations[i]));
+                }
+            }
+            return new MovieFacets(genres, decadeFacets, durationFacets, actors);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Genres or actors with matches, most matches first and then by id, at most `limit` of them
+    //A bounded heap keeps the best ones, a list smaller than the worst of a full heap isn't even intersected
+    private static List<Facet> counts(Map<Long, RoaringBitmap> postings, RoaringBitmap matches, int limit) {
+        Comparator<Facet> best = Comparator.comparingLong(Facet::count).reversed().thenComparing(Facet::id);
+        PriorityQueue<Facet> top = new PriorityQueue<>(best.reversed());
+        for (Map.Entry<Long, RoaringBitmap> entry : postings.entrySet()) {
+            if (top.size() == limit && entry.getValue().getCardinality() < top.peek().count()) {
+                continue;
+            }
+            int count = RoaringBitmap.andCardinality(matches, entry.getValue());
+            if (count == 0) {
+                continue;
+            }
+            Facet facet = new Facet(entry.getKey(), null, null, null, count);
+            if (top.size() < limit) {
+                top.add(facet);
+            } else if (best.compare(facet, top.peek()) < 0) {
+                top.poll();
+                top.add(facet);
+            }
+        }
+        List<Facet> result = new ArrayList<>(top);
+        result.sort(best);
+        return result;
+    }
+
+    private static Facet durationFacet(int range, long count) {
+        int from = range == 0 ? 1 : DURATION_LIMITS[range - 1];
+        if (range == DURATION_LIMITS.length) {
+            return new Facet(null, from + " min and over", from, null, count);
+        }
+        int to = DURATION_LIMITS[range] - 1;
+        return new Facet(null, range == 0 ? "Under " + (to + 1) + " min" : from + "-" + to + " min", from, to, count);
+    }
+
+    //Movies linked to all (or any) of the given genres or actors
+    private static RoaringBitmap links(Map<Long, RoaringBitmap> postings, Set<Long> ids, boolean all) {
+        List<RoaringBitmap> lists = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            RoaringBitmap movies = postings.get(id);
+            if (movies == null && all) {
+                return new RoaringBitmap(); //An unknown id has no movies, so nothing has all of them
+            }
+            if (movies != null) {
+                lists.add(movies);
+            }
+        }
+        if (lists.isEmpty()) {
+            return new RoaringBitmap();
+        }
+        if (!all) {
+            return RoaringBitmap.or(lists.iterator());
+        }
+        lists.sort(Comparator.comparingInt(RoaringBitmap::getCardinality));
+        RoaringBitmap result = lists.get(0).clone();
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result.and(lists.get(i));
+        }
+        return result;
+    }
+
+    //Movies with a value in the range, both ends included and a null end open
+    private static RoaringBitmap range(NavigableMap<Integer, RoaringBitmap> postings, Integer min, Integer max) {
+        NavigableMap<Integer, RoaringBitmap> values = postings;
+        if (min != null && max != null) {
+            values = postings.subMap(min, true, max, true);
+        } else if (min != null) {
+            values = postings.tailMap(min, true);
+        } else if (max != null) {
+            values = postings.headMap(max, true);
+        }
+        return RoaringBitmap.or(values.values().iterator());
+    }
+
+    private int size(Function<Postings, RoaringBitmap> list) {
+        lock.readLock().lock();
+        try {
+            RoaringBitmap movies = list.apply(postings);
+            return movies == null ? 0 : movies.getCardinality();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static long nextValue(RoaringBitmap bitmap, long id) {
+        return id >= Integer.MAX_VALUE ? -1 : bitmap.nextValue((int) id + 1);
+    }
+
+    private static long previousValue(RoaringBitmap bitmap, long id) {
+        return id <= 0 ? -1 : bitmap.previousValue((int) id - 1);
+    }
+
+    private static RoaringBitmap bitmapOf(Collection<Long> ids) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        for (Long id : ids) {
+            bitmap.add(toInt(id));
+        }
+        return bitmap;
+    }
+
+    private static int toInt(Long id) {
+        return Math.toIntExact(id);
+    }
+
+    private void afterCommit(Consumer<Postings> change) {
+        if (multiNode) {
+            return;
+        }
+        Runnable apply = () -> {
+            lock.writeLock().lock();
+            try {
+                if (building) {
+                    pending.add(() -> change.accept(postings));
+                } else {
+                    change.accept(postings);
+                    version++;
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            commitGate.holdWhileCommitting();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private static class Postings {
+        private final RoaringBitmap all = new RoaringBitmap();
+        private final Map<Long, RoaringBitmap> genres = new HashMap<>();
+        private final Map<Long, RoaringBitmap> actors = new HashMap<>();
+        private final NavigableMap<Integer, RoaringBitmap> years = new TreeMap<>();
+        private final NavigableMap<Integer, RoaringBitmap> durations = new TreeMap<>();
+        //Number of actors per movie id
+        private int[] cast = new int[0];
+
+        private void add(Long id, MovieFacts movie) {
+            int movieId = toInt(id);
+            all.add(movieId);
+            if (movie.releaseYear() != null) {
+                years.computeIfAbsent(movie.releaseYear(), key -> new RoaringBitmap()).add(movieId);
+            }
+            if (movie.duration() != null) {
+                durations.computeIfAbsent(movie.duration(), key -> new RoaringBitmap()).add(movieId);
+            }
+            for (Long genreId : movie.genreIds()) {
+                genres.computeIfAbsent(genreId, key -> new RoaringBitmap()).add(movieId);
+            }
+            for (Long actorId : movie.actorIds()) {
+                if (actors.computeIfAbsent(actorId, key -> new RoaringBitmap()).checkedAdd(movieId)) {
+                    castChanged(movieId, 1);
+                }
+            }
+        }
+
+        private void remove(Long id, MovieFacts movie) {
+            int movieId = toInt(id);
+            all.remove(movieId);
+            //A year or duration goes once its last movie is gone, genres and actors stay until they're removed
+            remove(years, movie.releaseYear(), movieId, true);
+            remove(durations, movie.duration(), movieId, true);
+            for (Long genreId : movie.genreIds()) {
+                remove(genres, genreId, movieId, false);
+            }
+            for (Long actorId : movie.actorIds()) {
+                remove(actors, actorId, movieId, false);
+            }
+            if (movieId < cast.length) {
+                cast[movieId] = 0;
+            }
+        }
+
+        private int castSize(int movieId) {
+            return movieId < cast.length ? cast[movieId] : 0;
+        }
+
+        private void castChanged(int movieId, int change) {
+            if (movieId >= cast.length) {
+                cast = Arrays.copyOf(cast, Math.max(movieId + 1, cast.length * 2));
+            }
+            cast[movieId] = Math.max(0, cast[movieId] + change);
+        }
+
+        private void castChanged(RoaringBitmap movies, int change) {
+            movies.forEach((int movieId) -> castChanged(movieId, change));
+        }
+
+        private static <K> void remove(Map<K, RoaringBitmap> postings, K key, int movieId, boolean dropEmpty) {
+            RoaringBitmap movies = key == null ? null : postings.get(key);
+            if (movies != null) {
+                movies.remove(movieId);
+                if (dropEmpty && movies.isEmpty()) {
+                    postings.remove(key);
+                }
+            }
+        }
+
+        //Run-length encodes the containers where that's smaller, done once after a build
+        private void compress() {
+            all.runOptimize();
+            genres.values().forEach(RoaringBitmap::runOptimize);
+            actors.values().forEach(RoaringBitmap::runOptimize);
+            years.values().forEach(RoaringBitmap::runOptimize);
+            durations.values().forEach(RoaringBitmap::runOptimize);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package movies.movies.Search;
+
+import movies.movies.Dto.Suggestion;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * In-memory prefix index for autocomplete over movie titles, actor names and genre names together.
+ * Every label gets an int slot, and every word start of its normalized text is an entry: the slot and
+ * the offset of the word packed into a long. The entries are kept in one sorted array, ordered by the
+ * text from their offset, so the labels with a word starting with the query are one contiguous run
+ * found by binary search. "mat" finds "The Matrix" through the entry at "matrix".
+ *
+ * Entries of labels added since the array was last sorted wait in a small sorted map, and a freed slot
+ * (a removed or renamed label) is skipped until the next merge drops its entries. The array is merged
+ * again once the map holds more than an eighth of it.
+ *
+ * Matches are ranked by a popularity that's looked up at query time. Short queries and common words
+ * have long runs, so the ranked results of a run longer than CACHED_RUN are kept until the labels or
+ * the popularity change.
+ */
+public class PrefixIndex {
+
+    //How many suggestions a query can ask for, the cached results hold this many
+    public static final int MAX_LIMIT = 50;
+    private static final int CACHED_RUN = 100;
+
+    public enum Type {
+        MOVIE, ACTOR, GENRE;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    //Popularity of each suggestion, version() has to change whenever a popularity does
+    public interface Popularity {
+        int of(Type type, long id);
+
+        long version();
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Integer> slotByKey = new HashMap<>();
+    private long[] ids = new long[64];
+    private byte[] types = new byte[64];
+    private String[] labels = new String[64]; //Null for a freed slot
+    private String[] texts = new String[64]; //Normalized label, kept for a freed slot until the merge
+    private int slots;
+    private int freed;
+
+    private long[] sorted = new long[0];
+    //Entries not merged yet, by their text from the offset and the entry itself
+    private final TreeMap<String, Long> added = new TreeMap<>();
+    private long version;
+
+    private final Map<String, Cached> cache = new ConcurrentHashMap<>();
+
+    private record Cached(long version, long popularityVersion, List<Suggestion> suggestions) {
+    }
+
+    private record Ranked(List<Suggestion> suggestions, int run) {
+    }
+
+    //Adds a label or replaces it
+    public void put(Type type, long id, String label) {
+        lock.writeLock().lock();
+        try {
+            free(type, id);
+            String normalized = TextIndex.normalize(label);
+            int slot = slots++;
+            if (slot == ids.length) {
+                ids = Arrays.copyOf(ids, slot * 2);
+                types = Arrays.copyOf(types, slot * 2);
+                labels = Arrays.copyOf(labels, slot * 2);
+                texts = Arrays.copyOf(texts, slot * 2);
+            }
+            ids[slot] = id;
+            types[slot] = (byte) type.ordinal();
+            labels[slot] = label;
+            texts[slot] = normalized;
+            slotByKey.put(key(type, id), slot);
+            for (int offset : wordStarts(normalized)) {
+                long entry = entry(slot, offset);
+                added.put(addedKey(entry), entry);
+            }
+            changed();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(Type type, long id) {
+        lock.writeLock().lock();
+        try {
+            free(type, id);
+            changed();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    //Sorts the entries added so far into the array, called once after loading every label
+    public void compact() {
+        lock.writeLock().lock();
+        try {
+            merge();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotByKey.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * The `limit` most popular labels with a word starting with the query, which can span several
+     * words ("matrix rel"). Ties go to the shorter label, then alphabetically, then by type and id.
+     */
+    public List<Suggestion> complete(String query, int limit, Popularity popularity) {
+        String prefix = TextIndex.normalize(query);
+        if (prefix.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        long popularityVersion = popularity.version();
+        Cached cached = cache.get(prefix);
+        List<Suggestion> suggestions;
+        if (cached != null && cached.version() == currentVersion() && cached.popularityVersion() == popularityVersion) {
+            suggestions = cached.suggestions();
+        } else {
+            //The label version is read with the results under the same lock, so a write in between only makes them stale
+            lock.readLock().lock();
+            try {
+                Ranked ranked = rank(prefix, MAX_LIMIT, popularity);
+                if (ranked.run() > CACHED_RUN) {
+                    cache.put(prefix, new Cached(version, popularityVersion, ranked.suggestions()));
+                }
+                suggestions = ranked.suggestions();
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+        return suggestions.subList(0, Math.min(limit, suggestions.size()));
+    }
+
+    private long currentVersion() {
+        lock.readLock().lock();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //The best `limit` matches and the number of entries read to find them
+    private Ranked rank(String prefix, int limit, Popularity popularity) {
+        lock.readLock().lock();
+        try {
+            //Bounded heap that keeps the best `limit` slots, the worst one on top
+            Map<Integer, Integer> scores = new HashMap<>();
+            Comparator<Integer> best = (a, b) -> {
+                int byPopularity = Integer.compare(scores.get(b), scores.get(a));
+                if (byPopularity != 0) {
+                    return byPopularity;
+                }
+                int byLength = Integer.compare(texts[a].length(), texts[b].length());
+                if (byLength != 0) {
+                    return byLength;
+                }
+                int byText = texts[a].compareTo(texts[b]);
+                if (byText != 0) {
+                    return byText;
+                }
+                return types[a] != types[b] ? Byte.compare(types[a], types[b]) : Long.compare(ids[a], ids[b]);
+            };
+            PriorityQueue<Integer> top = new PriorityQueue<>(Math.min(limit, 64), best.reversed());
+            int run = 0;
+            for (int i = lowerBound(prefix); i < sorted.length && startsWith(sorted[i], prefix); i++, run++) {
+                offer(slotOf(sorted[i]), limit, popularity, scores, top, best);
+            }
+            for (long entry : added.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+                offer(slotOf(entry), limit, popularity, scores, top, best);
+                run++;
+            }
+            List<Integer> ranked = new ArrayList<>(top);
+            ranked.sort(best);
+            List<Suggestion> suggestions = new ArrayList<>(ranked.size());
+            for (int slot : ranked) {
+                suggestions.add(new Suggestion(ids[slot], Type.values()[types[slot]].label(), labels[slot]));
+            }
+            return new Ranked(suggestions, run);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void offer(int slot, int limit, Popularity popularity, Map<Integer, Integer> scores,
+                       PriorityQueue<Integer> top, Comparator<Integer> best) {
+        //A freed slot is skipped, a label matched by several of its words is only ranked once
+        if (labels[slot] == null || scores.containsKey(slot)) {
+            return;
+        }
+        scores.put(slot, popularity.of(Type.values()[types[slot]], ids[slot]));
+        if (top.size() < limit) {
+            top.add(slot);
+        } else if (best.compare(slot, top.peek()) < 0) {
+            top.poll();
+            top.add(slot);
+        }
+    }
+
+    //First position in the array whose text isn't before the prefix
+    private int lowerBound(String prefix) {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareText(sorted[middle], prefix) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean startsWith(long entry, String prefix) {
+        return texts[slotOf(entry)].startsWith(prefix, offsetOf(entry));
+    }
+
+    //Compares the text of an entry from its offset with a plain string
+    private int compareText(long entry, String other) {
+        String text = texts[slotOf(entry)];
+        int offset = offsetOf(entry);
+        int length = Math.min(text.length() - offset, other.length());
+        for (int i = 0; i < length; i++) {
+            char a = text.charAt(offset + i);
+            char b = other.charAt(i);
+            if (a != b) {
+                return Character.compare(a, b);
+            }
+        }
+        return Integer.compare(text.length() - offset, other.length());
+    }
+
+    //Orders entries by their text, ties in any fixed order
+    private int compareEntries(long a, long b) {
+        String textA = texts[slotOf(a)];
+        String textB = texts[slotOf(b)];
+        int offsetA = offsetOf(a);
+        int offsetB = offsetOf(b);
+        int length = Math.min(textA.length() - offsetA, textB.length() - offsetB);
+        for (int i = 0; i < length; i++) {
+            char charA = textA.charAt(offsetA + i);
+            char charB = textB.charAt(offsetB + i);
+            if (charA != charB) {
+                return Character.compare(charA, charB);
+            }
+        }
+        int byLength = Integer.compare(textA.length() - offsetA, textB.length() - offsetB);
+        return byLength != 0 ? byLength : Long.compare(a, b);
+    }
+
+    private void free(Type type, long id) {
+        Integer slot = slotByKey.remove(key(type, id));
+        if (slot == null) {
+            return;
+        }
+        //The entries of a slot still in the map are keyed by its text, so those are taken out first
+        for (int offset : wordStarts(texts[slot])) {
+            added.remove(addedKey(entry(slot, offset)));
+        }
+        labels[slot] = null;
+        freed++;
+    }
+
+    private void changed() {
+        version++;
+        cache.clear(); //All stale now, clearing keeps the cache to the prefixes asked for since the last write
+        if (added.size() > Math.max(1024, sorted.length / 8) || freed > Math.max(1024, slots / 4)) {
+            merge();
+        }
+    }
+
+    //Merges the map into the array, drops the entries of freed slots and renumbers the live slots
+    private void merge() {
+        int[] renumbered = new int[slots];
+        int live = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            renumbered[slot] = labels[slot] != null ? live++ : -1;
+        }
+        //Both runs are sorted by text, a merge keeps them sorted and renumbering doesn't change any text
+        long[] merged = new long[sorted.length + added.size()];
+        int size = 0;
+        Iterator<Long> fromMap = added.values().iterator();
+        long next = fromMap.hasNext() ? fromMap.next() : -1;
+        for (long entry : sorted) {
+            while (next >= 0 && compareEntries(next, entry) < 0) {
+                size = append(merged, size, next, renumbered);
+                next = fromMap.hasNext() ? fromMap.next() : -1;
+            }
+            size = append(merged, size, entry, renumbered);
+        }
+        while (next >= 0) {
+            size = append(merged, size, next, renumbered);
+            next = fromMap.hasNext() ? fromMap.next() : -1;
+        }
+        for (int slot = 0; slot < slots; slot++) {
+            int to = renumbered[slot];
+            if (to >= 0) {
+                ids[to] = ids[slot];
+                types[to] = types[slot];
+                labels[to] = labels[slot];
+                texts[to] = texts[slot];
+                slotByKey.put(key(Type.values()[types[to]], ids[to]), to);
+            }
+        }
+        Arrays.fill(texts, live, slots, null);
+        Arrays.fill(labels, live, slots, null);
+        slots = live;
+        freed = 0;
+        added.clear();
+        sorted = Arrays.copyOf(merged, size);
+    }
+
+    private int append(long[] merged, int size, long entry, int[] renumbered) {
+        int slot = renumbered[slotOf(entry)];
+        if (slot >= 0) {
+            merged[size++] = entry(slot, offsetOf(entry));
+        }
+        return size;
+    }
+
+    //Offsets of the words of a normalized text, the start of the text always counts
+    private static List<Integer> wordStarts(String text) {
+        List<Integer> starts = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            if (i == 0 || (Character.isLetterOrDigit(text.charAt(i)) && !Character.isLetterOrDigit(text.charAt(i - 1)))) {
+                starts.add(i);
+            }
+        }
+        if (starts.isEmpty()) {
+            starts.add(0);
+        }
+        return starts;
+    }
+
+    //Text of the entry from its offset, made unique by the entry, a shorter text sorts before its extensions
+    private String addedKey(long entry) {
+        return texts[slotOf(entry)].substring(offsetOf(entry)) + '\u0000' + entry;
+    }
+
+    private static long key(Type type, long id) {
+        return id << 2 | type.ordinal();
+    }
+
+    private static long entry(int slot, int offset) {
+        return (long) slot << 16 | Math.min(offset, 0xFFFF);
+    }
+
+    private static int slotOf(long entry) {
+        return (int) (entry >>> 16);
+    }
+
+    private static int offsetOf(long entry) {
+        return (int) (entry & 0xFFFF);
+    }
+}
@@ -0,0 +1,267 @@
+package movies.movies.Search;
+
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.GenreRef;
+import movies.movies.Dto.MovieRef;
+import movies.movies.Dto.Suggestion;
+import movies.movies.Repository.ActorRepository;
+import movies.movies.Repository.GenreRepository;
+import movies.movies.Repository.MovieRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/*
+ * Full-text search over movie titles, actor names and genre names, and autocomplete over all three.
+ * The indexes are built from the database when the application starts and are kept
+ * in sync by the services, which report every write here. Changes are applied after
+ * the transaction commits, so a rolled back write never shows up in search results.
+ * Until the first build is done the services fall back to the database queries.
+ * With movies.multi-node each node would only see its own writes, so the index is never built
+ * and the services always use the database, except for autocomplete which has no query to fall back to.
+ */
+@Component
+public class SearchIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(SearchIndex.class);
+
+    private volatile TextIndex movies = new TextIndex();
+    private volatile TextIndex actors = new TextIndex();
+    private volatile TextIndex genres = new TextIndex();
+    private volatile PrefixIndex prefixes = new PrefixIndex();
+
+    //Writes that commit while the index is being built are replayed once it's done
+    private final List<Runnable> pending = new ArrayList<>();
+    private boolean building;
+    private volatile boolean ready;
+
+    @Autowired
+    private MovieRepository movieRepository;
+    @Autowired
+    private ActorRepository actorRepository;
+    @Autowired
+    private GenreRepository genreRepository;
+    @Autowired
+    private FilterIndex filterIndex;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    //Several nodes share the database, see the class comment
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    //How many of the best matches a search ranks, pages are cut from this window
+    @Value("${movies.search.top-k:1000}")
+    private int topK;
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    //False when the index is turned off for a multi-node deployment, it is then never ready
+    public boolean isEnabled() {
+        return !multiNode;
+    }
+
+    //With fuzzy=true misspelled words match too, see TextIndex.fuzzySearch
+    public Page<Long> searchMovies(String title, boolean fuzzy, Pageable pageable) {
+        return search(movies, title, fuzzy, pageable);
+    }
+
+    public Page<Long> searchActors(String name, boolean fuzzy, Pageable pageable) {
+        return search(actors, name, fuzzy, pageable);
+    }
+
+    public Page<Long> searchGenres(String name, boolean fuzzy, Pageable pageable) {
+        return search(genres, name, fuzzy, pageable);
+    }
+
+    //Movies whose title matches, in title order, for the cursor-paginated search
+    public List<Long> movieMatchesAfter(String title, String afterTitle, long afterId, int limit) {
+        return movies.matchesAfter(title, afterTitle, afterId, limit);
+    }
+
+    //Every movie whose title matches, for the facets of a title search
+    public long[] movieMatches(String title, boolean fuzzy) {
+        if (!fuzzy) {
+            return movies.matches(title);
+        }
+        List<TextIndex.Hit> hits = movies.fuzzySearch(title, Integer.MAX_VALUE).hits();
+        long[] ids = new long[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).id();
+        }
+        return ids;
+    }
+
+    //The most popular titles and names with a word starting with the query
+    //Popularity is the number of movies of a genre or actor and the number of actors of a movie
+    public List<Suggestion> autocomplete(String query, int limit) {
+        return prefixes.complete(query, limit, new PrefixIndex.Popularity() {
+            @Override
+            public int of(PrefixIndex.Type type, long id) {
+                return switch (type) {
+                    case MOVIE -> filterIndex.castSize(id);
+                    case ACTOR -> filterIndex.actorSize(id);
+                    case GENRE -> filterIndex.genreSize(id);
+                };
+            }
+
+            @Override
+            public long version() {
+                return filterIndex.version();
+            }
+        });
+    }
+
+    public long countMovies(String title) {
+        return movies.count(title);
+    }
+
+    public void putMovie(Long id, String title) {
+        afterCommit(() -> {
+            movies.put(id, title);
+            prefixes.put(PrefixIndex.Type.MOVIE, id, title);
+        });
+    }
+
+    public void removeMovie(Long id) {
+        afterCommit(() -> {
+            movies.remove(id);
+            prefixes.remove(PrefixIndex.Type.MOVIE, id);
+        });
+    }
+
+    public void putActor(Long id, String name) {
+        afterCommit(() -> {
+            actors.put(id, name);
+            prefixes.put(PrefixIndex.Type.ACTOR, id, name);
+        });
+    }
+
+    public void removeActor(Long id) {
+        afterCommit(() -> {
+            actors.remove(id);
+            prefixes.remove(PrefixIndex.Type.ACTOR, id);
+        });
+    }
+
+    public void putGenre(Long id, String name) {
+        afterCommit(() -> {
+            genres.put(id, name);
+            prefixes.put(PrefixIndex.Type.GENRE, id, name);
+        });
+    }
+
+    public void removeGenre(Long id) {
+        afterCommit(() -> {
+            genres.remove(id);
+            prefixes.remove(PrefixIndex.Type.GENRE, id);
+        });
+    }
+
+    //Loads every title and name from the database into fresh indexes and swaps them in
+    //Searches keep using the old indexes while the new ones are built
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (multiNode) {
+            log.info("Search index is off, movies.multi-node is set");
+            return;
+        }
+        synchronized (pending) {
+            building = true;
+        }
+        long start = System.currentTimeMillis();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        TextIndex newMovies = new TextIndex();
+        TextIndex newActors = new TextIndex();
+        TextIndex newGenres = new TextIndex();
+        PrefixIndex newPrefixes = new PrefixIndex();
+        readOnly.executeWithoutResult(status -> {
+            try (Stream<MovieRef> rows = movieRepository.streamAllRefs()) {
+                rows.forEach(movie -> {
+                    newMovies.put(movie.id(), movie.title());
+                    newPrefixes.put(PrefixIndex.Type.MOVIE, movie.id(), movie.title());
+                });
+            }
+            try (Stream<ActorRef> rows = actorRepository.streamAllRefs()) {
+                rows.forEach(actor -> {
+                    newActors.put(actor.id(), actor.name());
+                    newPrefixes.put(PrefixIndex.Type.ACTOR, actor.id(), actor.name());
+                });
+            }
+            try (Stream<GenreRef> rows = genreRepository.streamAllRefs()) {
+                rows.forEach(genre -> {
+                    newGenres.put(genre.id(), genre.name());
+                    newPrefixes.put(PrefixIndex.Type.GENRE, genre.id(), genre.name());
+                });
+            }
+        });
+        newPrefixes.compact();
+        synchronized (pending) {
+            movies = newMovies;
+            actors = newActors;
+            genres = newGenres;
+            prefixes = newPrefixes;
+            pending.forEach(Runnable::run);
+            pending.clear();
+            building = false;
+        }
+        ready = true;
+        log.info("Search index built in {} ms: {} movies, {} actors, {} genres, {} autocomplete labels",
+                System.currentTimeMillis() - start, movies.size(), actors.size(), genres.size(), prefixes.size());
+    }
+
+    //Cuts the requested page out of the ranked top-K window
+    private Page<Long> search(TextIndex index, String query, boolean fuzzy, Pageable pageable) {
+        List<TextIndex.Hit> hits = (fuzzy ? index.fuzzySearch(query, topK) : index.search(query, topK)).hits();
+        List<Long> ids = new ArrayList<>();
+        int from = pageable.isPaged() ? (int) Math.min(pageable.getOffset(), hits.size()) : 0;
+        int to = pageable.isPaged() ? Math.min(from + pageable.getPageSize(), hits.size()) : hits.size();
+        for (TextIndex.Hit hit : hits.subList(from, to)) {
+            ids.add(hit.id());
+        }
+        return new PageImpl<>(ids, pageable, hits.size());
+    }
+
+    private void afterCommit(Runnable change) {
+        if (multiNode) {
+            return;
+        }
+        Runnable apply = () -> {
+            synchronized (pending) {
+                if (building) {
+                    pending.add(change);
+                } else {
+                    change.run();
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+}
@@ -0,0 +1,701 @@
+package movies.movies.Search;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/*
+ * In-memory inverted index over one text field (movie titles, actor names or genre names).
+ * Every document gets an int slot, postings are sorted arrays of slots.
+ * Three kinds of postings are kept:
+ * - trigrams of the whole text, used to find substring matches without scanning every document
+ * - word tokens in a sorted map, used for whole-word and word-prefix matches
+ * - trigrams of every distinct word, used to find the words a misspelled query word is close to
+ * Updating a document frees its old slot and appends a new one, freed slots are
+ * dropped from the postings when the index compacts itself.
+ */
+public class TextIndex {
+
+    private static final int GRAM = 3;
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    //Scores of the different kinds of matches, the best one per document counts
+    private static final int EXACT = 1000;
+    private static final int STARTS_WITH = 500;
+    private static final int WORD_PREFIX = 300;
+    private static final int SUBSTRING = 200;
+    private static final int ALL_WORDS = 100;
+    //Every edit in a fuzzy match costs more than the best score, so fewer edits always rank first
+    private static final int PER_EDIT = 1100;
+    private static final char WORD_EDGE = '$';
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<Long, Integer> slotById = new HashMap<>();
+    private final Map<String, Postings> grams = new HashMap<>();
+    private final TreeMap<String, Postings> tokens = new TreeMap<>();
+    private final Map<String, List<String>> wordsByGram = new HashMap<>();
+    private long[] ids = new long[64];
+    private String[] texts = new String[64]; //Normalized text, null for a freed slot
+    private int slots;
+
+    //One ranked search result
+    public record Hit(long id, int score) {
+    }
+
+    //The best hits of a search and the number of documents that matched
+    public record Result(List<Hit> hits, int total) {
+    }
+
+    //Adds a document or replaces its text
+    public void put(long id, String text) {
+        lock.writeLock().lock();
+        try {
+            free(id);
+            String normalized = normalize(text);
+            int slot = slots++;
+            if (slot == ids.length) {
+                ids = Arrays.copyOf(ids, slot * 2);
+                texts = Arrays.copyOf(texts, slot * 2);
+            }
+            ids[slot] = id;
+            texts[slot] = normalized;
+            slotById.put(id, slot);
+            addPostings(slot, normalized);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(long id) {
+        lock.writeLock().lock();
+        try {
+            free(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            slotById.clear();
+            grams.clear();
+            tokens.clear();
+            wordsByGram.clear();
+            ids = new long[64];
+            texts = new String[64];
+            slots = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return slotById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Finds the documents that contain the query as a substring, or that have a word
+     * starting with every word of the query, and returns the best `limit` of them.
+     * Ranking: exact match, then text starting with the query, then a word starting with it,
+     * then any substring, then all words matched separately. Shorter texts rank higher
+     * inside each group, ties are broken alphabetically and then by id.
+     */
+    public Result search(String query, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return new Result(List.of(), 0);
+        }
+        List<String> queryTokens = tokenize(normalized);
+
+        lock.readLock().lock();
+        try {
+            //Bounded heap that keeps the best `limit` hits, the worst one on top
+            PriorityQueue<int[]> best = new PriorityQueue<>(Math.min(limit, 1024), (a, b) -> compare(b, a));
+            int total = 0;
+            for (int slot : candidates(normalized, queryTokens)) {
+                int score = score(texts[slot], normalized, queryTokens);
+                if (score == 0) {
+                    continue;
+                }
+                total++;
+                int[] hit = {slot, score};
+                if (best.size() < limit) {
+                    best.add(hit);
+                } else if (compare(hit, best.peek()) < 0) {
+                    best.poll();
+                    best.add(hit);
+                }
+            }
+            List<int[]> ranked = new ArrayList<>(best);
+            ranked.sort(this::compare);
+            List<Hit> hits = new ArrayList<>(ranked.size());
+            for (int[] hit : ranked) {
+                hits.add(new Hit(ids[hit[0]], hit[1]));
+            }
+            return new Result(hits, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Typo-tolerant search: every word of the query has to be the prefix of a word of the text, or
+     * within a few edits of one (none for words under 4 letters, 1 up to 7 letters, 2 from 8 on).
+     * Hits with fewer edits in total rank first, hits without edits rank like in search().
+     *
+     * Misspelled words are looked up in the dictionary of distinct words, not in the texts: the words
+     * sharing enough trigrams with the query word (each edit breaks at most 3 of them) and of a close
+     * enough length are the only ones whose edit distance is computed. The texts are then the postings
+     * of those words, starting from the query word with the fewest, intersected with the others.
+     */
+    public Result fuzzySearch(String query, int limit) {
+        List<String> queryTokens = tokenize(normalize(query));
+        if (queryTokens.isEmpty() || limit <= 0) {
+            return new Result(List.of(), 0);
+        }
+        String normalized = normalize(query);
+
+        lock.readLock().lock();
+        try {
+            //For every query word the postings of the words it matches, grouped by number of edits
+            List<List<List<Postings>>> matches = new ArrayList<>(queryTokens.size());
+            for (String queryToken : queryTokens) {
+                List<List<Postings>> byEdits = postingsByEdits(queryToken);
+                if (byEdits == null) {
+                    return new Result(List.of(), 0);
+                }
+                matches.add(byEdits);
+            }
+            //The candidates are the texts of the rarest query word, every query word then keeps those it matches
+            matches.sort(Comparator.comparingInt(TextIndex::size));
+            List<Postings> rarest = new ArrayList<>();
+            matches.get(0).forEach(rarest::addAll);
+
+            int[] candidates = onlyLive(union(rarest));
+            int[] edits = new int[candidates.length];
+            int count = candidates.length;
+            for (List<List<Postings>> byEdits : matches) {
+                int[] least = new int[count];
+                Arrays.fill(least, -1);
+                //Fewest edits last, so they're what's left in least
+                for (int level = byEdits.size() - 1; level >= 0; level--) {
+                    for (Postings postings : byEdits.get(level)) {
+                        markMatches(candidates, count, postings, least, level);
+                    }
+                }
+                int kept = 0;
+                for (int i = 0; i < count; i++) {
+                    if (least[i] >= 0) {
+                        candidates[kept] = candidates[i];
+                        edits[kept++] = edits[i] + least[i];
+                    }
+                }
+                count = kept;
+            }
+
+            PriorityQueue<int[]> best = new PriorityQueue<>(Math.min(limit, 1024), (a, b) -> compare(b, a));
+            for (int i = 0; i < count; i++) {
+                int slot = candidates[i];
+                int score = edits[i] == 0 ? score(texts[slot], normalized, queryTokens) : 0;
+                if (score == 0) {
+                    //Only the words matched, the text length still favours the texts that are mostly the query
+                    score = ALL_WORDS + (99 * Math.min(normalized.length(), texts[slot].length())) / Math.max(texts[slot].length(), 1);
+                }
+                int[] hit = {slot, score - PER_EDIT * edits[i]};
+                if (best.size() < limit) {
+                    best.add(hit);
+                } else if (compare(hit, best.peek()) < 0) {
+                    best.poll();
+                    best.add(hit);
+                }
+            }
+            List<int[]> ranked = new ArrayList<>(best);
+            ranked.sort(this::compare);
+            List<Hit> hits = new ArrayList<>(ranked.size());
+            for (int[] hit : ranked) {
+                hits.add(new Hit(ids[hit[0]], hit[1]));
+            }
+            return new Result(hits, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Number of documents a search would match, without ranking them
+    public int count(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return 0;
+        }
+        List<String> queryTokens = tokenize(normalized);
+        lock.readLock().lock();
+        try {
+            int total = 0;
+            for (int slot : candidates(normalized, queryTokens)) {
+                if (score(texts[slot], normalized, queryTokens) > 0) {
+                    total++;
+                }
+            }
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Ids of every document a search matches, unranked and in no particular order
+    public long[] matches(String query) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty()) {
+            return new long[0];
+        }
+        List<String> queryTokens = tokenize(normalized);
+        lock.readLock().lock();
+        try {
+            long[] result = new long[16];
+            int total = 0;
+            for (int slot : candidates(normalized, queryTokens)) {
+                if (score(texts[slot], normalized, queryTokens) > 0) {
+                    if (total == result.length) {
+                        result = Arrays.copyOf(result, total * 2);
+                    }
+                    result[total++] = ids[slot];
+                }
+            }
+            return Arrays.copyOf(result, total);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /*
+     * Keyset listing of the documents a search matches, in (normalized text, id) order
+     * instead of by relevance, so a client can walk through all of them page by page.
+     * Returns the ids of the first `limit` matches that sort after (afterText, afterId).
+     */
+    public List<Long> matchesAfter(String query, String afterText, long afterId, int limit) {
+        String normalized = normalize(query);
+        if (normalized.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        List<String> queryTokens = tokenize(normalized);
+
+        lock.readLock().lock();
+        try {
+            //Bounded heap that keeps the first `limit` matches, the last one on top
+            Comparator<Integer> byKey = (a, b) -> {
+                int byText = texts[a].compareTo(texts[b]);
+                return byText != 0 ? byText : Long.compare(ids[a], ids[b]);
+            };
+            PriorityQueue<Integer> first = new PriorityQueue<>(Math.min(limit, 1024), byKey.reversed());
+            for (int slot : candidates(normalized, queryTokens)) {
+                int byText = texts[slot].compareTo(afterText);
+                if (byText < 0 || (byText == 0 && ids[slot] <= afterId)
+                        || score(texts[slot], normalized, queryTokens) == 0) {
+                    continue;
+                }
+                if (first.size() < limit) {
+                    first.add(slot);
+                } else if (byKey.compare(slot, first.peek()) < 0) {
+                    first.poll();
+                    first.add(slot);
+                }
+            }
+            List<Integer> ordered = new ArrayList<>(first);
+            ordered.sort(byKey);
+            List<Long> result = new ArrayList<>(ordered.size());
+            for (int slot : ordered) {
+                result.add(ids[slot]);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    //Orders hits best first: higher score, shorter text, alphabetical, lower id
+    private int compare(int[] a, int[] b) {
+        if (a[1] != b[1]) {
+            return Integer.compare(b[1], a[1]);
+        }
+        int byText = texts[a[0]].compareTo(texts[b[0]]);
+        return byText != 0 ? byText : Long.compare(ids[a[0]], ids[b[0]]);
+    }
+
+    //Score of one document, 0 if it doesn't match
+    private int score(String text, String query, List<String> queryTokens) {
+        int score;
+        if (text.equals(query)) {
+            score = EXACT;
+        } else if (text.startsWith(query)) {
+            score = STARTS_WITH;
+        } else if (text.contains(query)) {
+            int at = text.indexOf(query);
+            boolean wordStart = false;
+            while (at >= 0 && !wordStart) {
+                wordStart = !Character.isLetterOrDigit(text.charAt(at - 1));
+                at = text.indexOf(query, at + 1);
+            }
+            score = wordStart ? WORD_PREFIX : SUBSTRING;
+        } else if (!queryTokens.isEmpty() && hasAllWords(text, queryTokens)) {
+            score = ALL_WORDS;
+        } else {
+            return 0;
+        }
+        //Texts that are mostly the query rank above long texts that only contain it
+        return score + (99 * Math.min(query.length(), text.length())) / Math.max(text.length(), 1);
+    }
+
+    private boolean hasAllWords(String text, List<String> queryTokens) {
+        List<String> textTokens = tokenize(text);
+        for (String queryToken : queryTokens) {
+            boolean found = false;
+            for (String textToken : textTokens) {
+                if (textToken.startsWith(queryToken)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Slots that may match, a superset of the real matches which score() then checks
+    private int[] candidates(String query, List<String> queryTokens) {
+        int[] bySubstring;
+        if (query.length() >= GRAM) {
+            Set<String> queryGrams = gramsOf(query);
+            List<Postings> lists = new ArrayList<>();
+            for (String gram : queryGrams) {
+                Postings postings = grams.get(gram);
+                if (postings == null) {
+                    lists = null;
+                    break;
+                }
+                lists.add(postings);
+            }
+            bySubstring = lists == null ? new int[0] : intersect(lists);
+        } else {
+            //Too short for trigrams, so every live document is a candidate
+            bySubstring = liveSlots();
+        }
+
+        //Documents where every query word is the prefix of some word
+        int[] byWords = null;
+        for (String queryToken : queryTokens) {
+            int[] withPrefix = union(tokens.subMap(queryToken, queryToken + Character.MAX_VALUE).values());
+            byWords = byWords == null ? withPrefix : intersect(byWords, withPrefix);
+            if (byWords.length == 0) {
+                break;
+            }
+        }
+        int[] merged = byWords == null ? bySubstring : union(List.of(new Postings(bySubstring), new Postings(byWords)));
+        return onlyLive(merged);
+    }
+
+    //Postings of the words within the edit limit of a query word, grouped by edits, null if there are none
+    private List<List<Postings>> postingsByEdits(String queryToken) {
+        int maxEdits = maxEdits(queryToken.length());
+        List<List<Postings>> byEdits = new ArrayList<>();
+        for (int i = 0; i <= maxEdits; i++) {
+            byEdits.add(new ArrayList<>());
+        }
+        //Words starting with the query word need no edits
+        byEdits.get(0).addAll(tokens.subMap(queryToken, queryToken + Character.MAX_VALUE).values());
+        if (maxEdits > 0) {
+            Set<String> grams = wordGramsOf(queryToken);
+            int required = Math.max(1, grams.size() - 3 * maxEdits);
+            //Words of a length more edits away can't match, so they aren't even counted
+            Map<String, Integer> shared = new HashMap<>();
+            for (String gram : grams) {
+                for (String word : wordsByGram.getOrDefault(gram, List.of())) {
+                    if (Math.abs(word.length() - queryToken.length()) <= maxEdits) {
+                        shared.merge(word, 1, Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<String, Integer> word : shared.entrySet()) {
+                String text = word.getKey();
+                if (word.getValue() < required || text.startsWith(queryToken)) {
+                    continue;
+                }
+                int edits = editDistance(queryToken, text, maxEdits);
+                if (edits <= maxEdits) {
+                    byEdits.get(edits).add(tokens.get(text));
+                }
+            }
+        }
+        return size(byEdits) > 0 ? byEdits : null;
+    }
+
+    //Sets least[i] to edits for the first count candidates that are in the postings, both are sorted
+    //Walks both lists, or for postings much longer than the candidates binary searches them from the last match
+    private static void markMatches(int[] candidates, int count, Postings postings, int[] least, int edits) {
+        if (postings.length > 8 * count) {
+            int from = 0;
+            for (int i = 0; i < count && from < postings.length; i++) {
+                int at = Arrays.binarySearch(postings.slots, from, postings.length, candidates[i]);
+                if (at >= 0) {
+                    least[i] = edits;
+                    from = at + 1;
+                } else {
+                    from = -at - 1;
+                }
+            }
+            return;
+        }
+        int i = 0, j = 0;
+        while (i < count && j < postings.length) {
+            if (candidates[i] < postings.slots[j]) {
+                i++;
+            } else if (candidates[i] > postings.slots[j]) {
+                j++;
+            } else {
+                least[i++] = edits;
+                j++;
+            }
+        }
+    }
+
+    private static int size(List<List<Postings>> byEdits) {
+        int size = 0;
+        for (List<Postings> lists : byEdits) {
+            for (Postings postings : lists) {
+                size += postings.length;
+            }
+        }
+        return size;
+    }
+
+    //Edits a word of this length may be away from a word of the text
+    static int maxEdits(int length) {
+        return length < 4 ? 0 : length < 8 ? 1 : 2;
+    }
+
+    //Levenshtein distance, or max + 1 as soon as it's known to be more than max
+    //Only the band of cells within max of the diagonal can stay under it, so only those are computed
+    static int editDistance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) {
+            return max + 1;
+        }
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            int from = Math.max(1, i - max);
+            int to = Math.min(b.length(), i + max);
+            current[0] = i;
+            if (from > 1) {
+                current[from - 1] = max + 1;
+            }
+            int rowMin = from == 1 ? i : max + 1;
+            for (int j = from; j <= to; j++) {
+                int substitution = previous[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                int deletion = (j <= i - 1 + max ? previous[j] : max + 1) + 1;
+                int insertion = current[j - 1] + 1;
+                current[j] = Math.min(substitution, Math.min(deletion, insertion));
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (to < b.length()) {
+                current[to + 1] = max + 1;
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return Math.min(previous[b.length()], max + 1);
+    }
+
+    //Trigrams of a word with its edges marked, so a word of n letters has n of them and short words have some too
+    static Set<String> wordGramsOf(String word) {
+        return gramsOf(WORD_EDGE + word + WORD_EDGE);
+    }
+
+    private void free(long id) {
+        Integer slot = slotById.remove(id);
+        if (slot == null) {
+            return;
+        }
+        texts[slot] = null;
+        //Compacts once freed slots outnumber live ones
+        int freed = slots - slotById.size();
+        if (freed > 1024 && freed > slotById.size()) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        long[] oldIds = ids;
+        String[] oldTexts = texts;
+        int oldSlots = slots;
+        int live = slotById.size();
+        slotById.clear();
+        grams.clear();
+        tokens.clear();
+        wordsByGram.clear();
+        ids = new long[Math.max(64, live * 2)];
+        texts = new String[ids.length];
+        slots = 0;
+        for (int slot = 0; slot < oldSlots; slot++) {
+            if (oldTexts[slot] != null) {
+                int newSlot = slots++;
+                if (newSlot == ids.length) {
+                    ids = Arrays.copyOf(ids, newSlot * 2);
+                    texts = Arrays.copyOf(texts, newSlot * 2);
+                }
+                ids[newSlot] = oldIds[slot];
+                texts[newSlot] = oldTexts[slot];
+                slotById.put(oldIds[slot], newSlot);
+                addPostings(newSlot, oldTexts[slot]);
+            }
+        }
+    }
+
+    private void addPostings(int slot, String normalized) {
+        for (String gram : gramsOf(normalized)) {
+            grams.computeIfAbsent(gram, key -> new Postings()).add(slot);
+        }
+        for (String token : new HashSet<>(tokenize(normalized))) {
+            tokens.computeIfAbsent(token, key -> {
+                for (String gram : wordGramsOf(key)) {
+                    wordsByGram.computeIfAbsent(gram, word -> new ArrayList<>()).add(key);
+                }
+                return new Postings();
+            }).add(slot);
+        }
+    }
+
+    private int[] liveSlots() {
+        int[] live = new int[slotById.size()];
+        int count = 0;
+        for (int slot = 0; slot < slots; slot++) {
+            if (texts[slot] != null) {
+                live[count++] = slot;
+            }
+        }
+        return Arrays.copyOf(live, count);
+    }
+
+    private int[] onlyLive(int[] candidates) {
+        int count = 0;
+        int[] live = new int[candidates.length];
+        for (int slot : candidates) {
+            if (texts[slot] != null) {
+                live[count++] = slot;
+            }
+        }
+        return count == live.length ? live : Arrays.copyOf(live, count);
+    }
+
+    //Intersection of sorted postings, starting from the shortest list
+    private static int[] intersect(List<Postings> lists) {
+        lists.sort(Comparator.comparingInt(postings -> postings.length));
+        int[] result = lists.get(0).toArray();
+        for (int i = 1; i < lists.size() && result.length > 0; i++) {
+            result = intersect(result, lists.get(i).toArray());
+        }
+        return result;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, count = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private static int[] union(Collection<Postings> lists) {
+        if (lists.size() == 1) {
+            return lists.iterator().next().toArray(); //Already sorted and without duplicates
+        }
+        int total = 0;
+        for (Postings postings : lists) {
+            total += postings.length;
+        }
+        int[] all = new int[total];
+        int count = 0;
+        for (Postings postings : lists) {
+            System.arraycopy(postings.slots, 0, all, count, postings.length);
+            count += postings.length;
+        }
+        Arrays.sort(all);
+        int unique = 0;
+        for (int i = 0; i < all.length; i++) {
+            if (i == 0 || all[i] != all[i - 1]) {
+                all[unique++] = all[i];
+            }
+        }
+        return Arrays.copyOf(all, unique);
+    }
+
+    public static String normalize(String text) {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    static List<String> tokenize(String normalized) {
+        List<String> result = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(normalized)) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        return result;
+    }
+
+    static Set<String> gramsOf(String normalized) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i + GRAM <= normalized.length(); i++) {
+            result.add(normalized.substring(i, i + GRAM));
+        }
+        return result;
+    }
+
+    //Growable sorted array of slots, slots are always appended in increasing order
+    private static final class Postings {
+        private int[] slots;
+        private int length;
+
+        Postings() {
+            slots = new int[4];
+        }
+
+        Postings(int[] sorted) {
+            slots = sorted;
+            length = sorted.length;
+        }
+
+        void add(int slot) {
+            if (length == slots.length) {
+                slots = Arrays.copyOf(slots, length * 2);
+            }
+            slots[length++] = slot;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(slots, length);
+        }
+    }
+}
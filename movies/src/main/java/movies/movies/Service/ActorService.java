@@ -3,19 +3,41 @@ package movies.movies.Service;
 import movies.movies.Entity.Movie;
 import movies.movies.Entity.Actor;
 
+import movies.movies.Dto.ActorPath;
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.Costar;
+import movies.movies.Dto.Cursor;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.Job;
+import movies.movies.Dto.ActorSummary;
+import movies.movies.Dto.MovieRef;
+
 import movies.movies.Repository.ActorRepository;
 import movies.movies.Repository.MovieRepository;
 
+import movies.movies.Exception.NotAvailableException;
 import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Exception.TooManyRequestsException;
+import movies.movies.Search.ActorGraph;
+import movies.movies.Search.FilterIndex;
+import movies.movies.Search.SearchIndex;
+import movies.movies.Service.CatalogVersions.Table;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
 import java.util.*;
 
 @Service
@@ -26,41 +48,92 @@ public class ActorService {
     private MovieRepository movieRepository;
     @Autowired
     private ObjectMapper jacksonObjectMapper; 
+    @Autowired
+    private ReferenceResolver referenceResolver;
+    @Autowired
+    private CatalogCache catalogCache;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private FilterIndex filterIndex;
+    @Autowired
+    private ActorGraph actorGraph;
+    @Autowired
+    private JobService jobService;
+    @Autowired
+    private CatalogStats catalogStats;
+    @Autowired
+    private CatalogVersions catalogVersions;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     //Method to create an actor with associated movies
     @Transactional
     public Actor createActor(Actor actor) {
         if (!actor.getMovies().isEmpty()) {
-            Set<Movie> existingMovies = new HashSet<>(); //Empty set to hold the existing movies
-            for (Movie movie : actor.getMovies()) { //Checks if the movie exists
-                Movie existingMovie = movieRepository.findById(movie.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + movie.getId()));
-                existingMovies.add(existingMovie); //Adds the existing movie to the set
-                existingMovie.getActors().add(actor); //Adds the new actor to the existing movie
-            }
-            actor.setMovies(existingMovies); //Sets the movies to the actor
+            //Checks if the movies exist
+            Set<Movie> existingMovies = referenceResolver.resolve(movieRepository, actor.getMovies(), Movie::getId, "Movie");
+            actor.setMovies(existingMovies); //Sets the movies to the actor, the links are inserted once it's saved
         }
         actor.setName(actor.getName().trim()); //Trim blank spaces in front and back of the name
-        return actorRepository.save(actor);
+        catalogCache.evictMovies(CatalogCache.idsOf(actor.getMovies(), Movie::getId)); //The cached movies now list this actor
+        Actor savedActor = actorRepository.save(actor);
+        //The movies own the links: one bulk insert instead of loading the actors of every movie to add this one
+        Set<Long> movieIds = CatalogCache.idsOf(savedActor.getMovies(), Movie::getId);
+        if (!movieIds.isEmpty()) {
+            actorRepository.linkMovies(savedActor.getId(), movieIds);
+            movieRepository.touchByIdIn(movieIds, Instant.now());
+        }
+        searchIndex.putActor(savedActor.getId(), savedActor.getName());
+        filterIndex.actorMovies(savedActor.getId(), CatalogCache.idsOf(savedActor.getMovies(), Movie::getId));
+        actorGraph.actorMovies(savedActor.getId(), CatalogCache.idsOf(savedActor.getMovies(), Movie::getId));
+        catalogStats.actorSaved(savedActor.getId(), savedActor.getName());
+        catalogVersions.changed(Table.ACTORS, Table.MOVIES);
+        catalogStats.actorLinksChanged(savedActor.getId(), savedActor.getMovies().size());
+        return savedActor;
     }
 
     //Method to get all actors with pagination
-    public Page<Actor> getAllActors(Pageable pageable) {
-        return actorRepository.findAll(pageable);
+    @Transactional(readOnly = true)
+    public Page<ActorSummary> getAllActors(Pageable pageable) {
+        return actorRepository.findAllSummaries(pageable);
+    }
+
+    //Cursor mode of the actor listing: the actors after the cursor sorted by name and id, without a count query
+    @Transactional(readOnly = true)
+    public Slice<ActorSummary> getActorsAfter(Cursor after, int size) {
+        return actorRepository.slice(actorRepository.findIdsAfter(after.key(), after.id(), Limit.of(size + 1)), size);
+    }
+
+    @Transactional(readOnly = true)
+    public long countActors() {
+        return actorRepository.count();
     }
 
     //Method to get an actor by ID and throw an exception if not found
-    public Optional<Actor> getActorById(Long id) {
-        return Optional.ofNullable(actorRepository.findById(id)
+    @Cacheable(cacheNames = CatalogCache.ACTORS, key = "#id")
+    @Transactional(readOnly = true)
+    public Optional<ActorSummary> getActorById(Long id) {
+        return Optional.ofNullable(actorRepository.findSummaryById(id)
         .orElseThrow(() -> new ResourceNotFoundException("Actor not found with id: " + id)));
     }
 
+    //Version of an actor for the conditional GET, empty if there's no such actor
+    @Transactional(readOnly = true)
+    public Optional<EntityVersion> getActorVersion(Long id) {
+        return actorRepository.findVersionById(id);
+    }
+
     //Method to update an existing actor and throw an exception if not found
+    //expectedVersion comes from an If-Match header, the update fails if the actor has a newer version
     @Transactional
-    public Optional<Actor> updateActor(Long id, Map<String, Object> updates) {
+    public Optional<Actor> updateActor(Long id, Map<String, Object> updates, Long expectedVersion) {
         Actor existingActor = actorRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Actor not found with id: " + id));
-
+        CatalogVersions.checkVersion("Actor", id, expectedVersion, existingActor.getVersion());
+        //Movies linked before the update show this actor in their cached lists
+        Set<Long> affectedMovieIds = CatalogCache.idsOf(existingActor.getMovies(), Movie::getId);
+        int creditsBefore = affectedMovieIds.size();
 
         // Convert incoming raw map to Actor object (used for extracting updated fields)
         Actor updatedActor = jacksonObjectMapper.convertValue(updates, Actor.class);
@@ -73,16 +146,15 @@ public class ActorService {
         }
 
         //Update the associated movies if provided
+        boolean unlinkAll = false;
         if (updates.containsKey("movies") && updatedActor.getMovies().isEmpty()) { //If the "movies" field exists in the given JSON body and it is empty then it clears the associations
+            //Actor.movies is the inverse side, clearing it doesn't delete any link, so they go with one delete after the save
             existingActor.getMovies().clear();
+            unlinkAll = true;
         }
         else if (!updatedActor.getMovies().isEmpty()) { //If the "movies" field isnt empty in the JSON body then checks if the movies exist
-            Set<Movie> updatedMovies = new HashSet<>();
-            for (Movie movie : updatedActor.getMovies()) { //Check if the associated movies exist and throw an exception if not found
-                Movie existingMovie = movieRepository.findById(movie.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + movie.getId()));
-                updatedMovies.add(existingMovie);
-            }
+            //Check if the associated movies exist and throw an exception if not found
+            Set<Movie> updatedMovies = referenceResolver.resolve(movieRepository, updatedActor.getMovies(), Movie::getId, "Movie");
 
             //Remove the actor from movies NOT in the updated list
             for (Movie movie : existingActor.getMovies()) {
@@ -101,47 +173,191 @@ public class ActorService {
             // Update the actor's movie list
             existingActor.setMovies(updatedMovies);
         }
+        //The movies own the links, so the actor row is only updated, and its version bumped, if it's marked changed
+        if (updates.containsKey("movies")) {
+            existingActor.setLastModified(Instant.now());
+        }
+
+        //Evicts the actor and their movies as they were before and after the update
+        affectedMovieIds.addAll(CatalogCache.idsOf(existingActor.getMovies(), Movie::getId));
+        catalogCache.evictActors(List.of(id));
+        catalogCache.evictMovies(affectedMovieIds);
 
         Actor savedActor = actorRepository.save(existingActor);
+        int creditsChange = savedActor.getMovies().size() - creditsBefore;
+        if (unlinkAll) {
+            creditsChange = -actorRepository.unlinkAllMovies(id);
+            if (!affectedMovieIds.isEmpty()) {
+                movieRepository.touchByIdIn(affectedMovieIds, Instant.now()); //The movies that listed the actor
+            }
+        }
+        searchIndex.putActor(id, savedActor.getName());
+        filterIndex.actorMovies(id, CatalogCache.idsOf(savedActor.getMovies(), Movie::getId));
+        actorGraph.actorMovies(id, CatalogCache.idsOf(savedActor.getMovies(), Movie::getId));
+        catalogStats.actorSaved(id, savedActor.getName());
+        catalogStats.actorLinksChanged(id, creditsChange);
+        catalogVersions.changed(Table.ACTORS, Table.MOVIES);
         return Optional.of(savedActor);
     }
 
     //Method to delete an actor and throw an exception if actor isn't found or they have associated movies
+    //Same delete as a background job, for actors with very many links
+    //Checks the actor exists first so a wrong id still gets a 404 right away
+    public Job deleteActorInBackground(Long id, boolean force) {
+        if (!actorRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Actor not found with id: " + id);
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        return jobService.submit("Delete actor " + id, () -> transaction.executeWithoutResult(status -> deleteActor(id, force)));
+    }
+
     @Transactional
     public void deleteActor(Long id, boolean force) {
         Actor actor = actorRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Actor not found with id: " + id));
-        if (!force && !actor.getMovies().isEmpty()) {
-            throw new IllegalStateException("Unable to delete actor '" + actor.getName() + "' because they have " + actor.getMovies().size() + " associated movie(s)");
+        //Only the ids of the linked movies are read, the collection is never loaded
+        List<Long> movieIds = movieRepository.findAllIdsByActorsId(id);
+        if (!force && !movieIds.isEmpty()) {
+            throw new IllegalStateException("Unable to delete actor '" + actor.getName() + "' because they have " + movieIds.size() + " associated movie(s)");
         }
-        if (force) { //If force=true then remove the actor from all associated movies
-            for (Movie movie : actor.getMovies()) {
-                movie.getActors().remove(actor);
-            }
-            actor.getMovies().clear();
+        catalogCache.evictActors(List.of(id));
+        catalogCache.evictMovies(movieIds);
+        searchIndex.removeActor(id);
+        filterIndex.actorRemoved(id);
+        actorGraph.actorRemoved(id);
+        catalogStats.actorRemoved(id);
+        catalogVersions.changed(Table.ACTORS, Table.MOVIES);
+        //If force=true the links go with one delete on the join table, then the actor row
+        actorRepository.unlinkAllMovies(id);
+        actorRepository.deleteRowById(id);
+        if (!movieIds.isEmpty()) {
+            movieRepository.touchByIdIn(movieIds, Instant.now()); //The movies that listed the actor
         }
-        actorRepository.delete(actor);
     }
 
-    //Method to find actors by name (case-insensitive and partial match)
-    public Page<Actor> findByName(String name, Pageable pageable) {
-        Page<Actor> actors = actorRepository.findByNameContainingIgnoreCase(name, pageable);
-        if (actors.isEmpty()) {
-            throw new ResourceNotFoundException("No actors found with name containing: " + name);
+    //Links the given movies to the actor with one bulk insert, movies already linked are skipped
+    //Returns how many links were added
+    @Transactional
+    public int linkMovies(Long id, List<Long> movieIds) {
+        Set<Long> ids = requireMovies(id, movieIds);
+        int linked = actorRepository.linkMovies(id, ids);
+        if (linked > 0) {
+            touch(id, ids);
+        }
+        catalogStats.actorLinksChanged(id, linked);
+        filterIndex.actorLinked(id, ids);
+        actorGraph.actorLinked(id, ids);
+        catalogCache.evictActors(List.of(id));
+        catalogCache.evictMovies(ids);
+        return linked;
+    }
+
+    //Unlinks the given movies from the actor with one bulk delete, returns how many links were removed
+    @Transactional
+    public int unlinkMovies(Long id, List<Long> movieIds) {
+        Set<Long> ids = requireMovies(id, movieIds);
+        int unlinked = actorRepository.unlinkMovies(id, ids);
+        if (unlinked > 0) {
+            touch(id, ids);
+        }
+        catalogStats.actorLinksChanged(id, -unlinked);
+        filterIndex.actorUnlinked(id, ids);
+        actorGraph.actorUnlinked(id, ids);
+        catalogCache.evictActors(List.of(id));
+        catalogCache.evictMovies(ids);
+        return unlinked;
+    }
+
+    //Actors who played in a movie with the given one, most shared movies first and then by id
+    //Counted on the actor graph, the database query is only used until the graph is built
+    @Transactional(readOnly = true)
+    public Page<Costar> getCostars(Long id, Pageable pageable) {
+        requireActor(id);
+        Pageable unsorted = PageRequest.of(pageable.getPageNumber(), pageable.getPageSize());
+        Page<Costar> costars = actorGraph.isReady()
+                ? actorGraph.costars(id, unsorted)
+                : actorRepository.findCostarsById(id, unsorted).map(row -> new Costar((Long) row[0], null, ((Number) row[1]).intValue()));
+        Map<Long, String> names = new HashMap<>();
+        if (!costars.isEmpty()) {
+            actorRepository.findRefsByIdIn(costars.map(Costar::id).getContent()).forEach(actor -> names.put(actor.id(), actor.name()));
+        }
+        return costars.map(costar -> new Costar(costar.id(), names.get(costar.id()), costar.sharedMovies()));
+    }
+
+    //Shortest chain of movies from one actor to the other, at most maxDegrees movies long
+    //Needs the actor graph, until it's built the client is asked to try again, and it isn't offered on several nodes
+    @Transactional(readOnly = true)
+    public ActorPath getPath(Long fromId, Long toId, int maxDegrees) {
+        requireActor(fromId);
+        requireActor(toId);
+        if (!actorGraph.isEnabled()) {
+            throw new NotAvailableException("Actor paths are only available on a single node, the actor graph is off with movies.multi-node");
+        }
+        if (!actorGraph.isReady()) {
+            throw new TooManyRequestsException("The actor graph is still being built, please try again later");
+        }
+        List<Long> path = actorGraph.path(fromId, toId, maxDegrees);
+        if (path.isEmpty()) {
+            throw new ResourceNotFoundException("No path between actors " + fromId + " and " + toId + " within " + maxDegrees + " degrees");
+        }
+        //Actors and movies alternate, starting and ending with an actor
+        List<Long> actorIds = new ArrayList<>();
+        List<Long> movieIds = new ArrayList<>();
+        for (int i = 0; i < path.size(); i++) {
+            (i % 2 == 0 ? actorIds : movieIds).add(path.get(i));
+        }
+        Map<Long, ActorRef> actors = new HashMap<>();
+        actorRepository.findRefsByIdIn(actorIds).forEach(actor -> actors.put(actor.id(), actor));
+        Map<Long, MovieRef> movies = new HashMap<>();
+        if (!movieIds.isEmpty()) {
+            movieRepository.findRefsByIdIn(movieIds).forEach(movie -> movies.put(movie.id(), movie));
+        }
+        return new ActorPath(movieIds.size(), actorIds.stream().map(actors::get).toList(), movieIds.stream().map(movies::get).toList());
+    }
+
+    private void requireActor(Long id) {
+        if (!actorRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Actor not found with id: " + id);
         }
-        return actors;
     }
 
-    //Method to get all the movies by a specific actor
-    public Page<Movie> getMoviesByActorId(Long actor, Pageable pageable) {
-        if (!actorRepository.existsById(actor)) {
-            throw new ResourceNotFoundException("Actor not found with id: " + actor);
+    //Bulk link changes bypass the entities, so both sides get their new version here
+    private void touch(Long id, Set<Long> movieIds) {
+        Instant now = Instant.now();
+        actorRepository.touchByIdIn(List.of(id), now);
+        movieRepository.touchByIdIn(movieIds, now);
+        catalogVersions.changed(Table.ACTORS, Table.MOVIES);
+    }
+
+    //Checks the actor and every movie exist, the movies with a single query
+    private Set<Long> requireMovies(Long id, List<Long> movieIds) {
+        if (!actorRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Actor not found with id: " + id);
         }
-        Page<Movie> movies = movieRepository.findByActorsId(actor, pageable);
-        if (movies.isEmpty()) {
-            throw new ResourceNotFoundException("No associated movies found for actor with id: " + actor);
+        if (movieIds == null || movieIds.isEmpty()) {
+            throw new IllegalStateException("Movie ids must not be empty");
         }
-        return movies;
+        return referenceResolver.requireIds(movieIds, movieRepository::findExistingIds, "Movie");
+    }
+
+    //Method to find actors by name (case-insensitive and partial match)
+    //Results come from the search index ranked by relevance, the database query is only used until the index is built
+    //Returns an empty page when nothing matches
+    @Transactional(readOnly = true)
+    public Page<ActorSummary> searchByName(String name, boolean fuzzy, Pageable pageable) {
+        return searchIndex.isReady()
+                ? actorRepository.summaries(searchIndex.searchActors(name, fuzzy, pageable))
+                : actorRepository.findSummariesByNameContainingIgnoreCase(name, pageable);
+    }
+
+    //Same search but throws an exception if no actors are found
+    @Transactional(readOnly = true)
+    public Page<ActorSummary> findByName(String name, boolean fuzzy, Pageable pageable) {
+        Page<ActorSummary> actors = searchByName(name, fuzzy, pageable);
+        if (actors.isEmpty()) {
+            throw new ResourceNotFoundException("No actors found with name containing: " + name);
+        }
+        return actors;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,102 @@
+package movies.movies.Service;
+
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.caffeine.CaffeineCache;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.*;
+import java.util.function.Function;
+
+//Evicts the cached summaries that a write makes stale
+//A summary also lists the other side of its many-to-many links, so writes evict both sides
+@Component
+public class CatalogCache {
+
+    public static final String MOVIES = "movies";
+    public static final String ACTORS = "actors";
+    public static final String GENRES = "genres";
+
+    @Autowired
+    private CacheManager cacheManager;
+    @Autowired
+    private CaffeineCacheManager caffeineCacheManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    public void evictMovies(Collection<Long> ids) {
+        evict(MOVIES, ids);
+    }
+
+    public void evictActors(Collection<Long> ids) {
+        evict(ACTORS, ids);
+    }
+
+    public void evictGenres(Collection<Long> ids) {
+        evict(GENRES, ids);
+    }
+
+    //For writes made with plain JDBC, which Hibernate doesn't see: empties its second-level cache
+    //(entities, collections and query results) once the transaction commits
+    public void evictSecondLevelCache() {
+        Runnable evict = () -> entityManagerFactory.unwrap(SessionFactory.class).getCache().evictAllRegions();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    evict.run();
+                }
+            });
+        } else {
+            evict.run();
+        }
+    }
+
+    //Ids of the entities on one side of a link, collected before the write changes them
+    public static <T> Set<Long> idsOf(Collection<T> entities, Function<T, Long> idOf) {
+        Set<Long> ids = new HashSet<>();
+        for (T entity : entities) {
+            ids.add(idOf.apply(entity));
+        }
+        return ids;
+    }
+
+    private void evict(String cacheName, Collection<Long> ids) {
+        Cache cache = cacheManager.getCache(cacheName);
+        if (cache == null) {
+            return;
+        }
+        for (Long id : ids) {
+            if (id != null) {
+                cache.evict(id);
+            }
+        }
+    }
+
+    //Size, hit, miss and eviction counts of every cache
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (String name : List.of(MOVIES, ACTORS, GENRES)) {
+            Cache cache = caffeineCacheManager.getCache(name);
+            if (!(cache instanceof CaffeineCache caffeineCache)) {
+                continue;
+            }
+            CacheStats cacheStats = caffeineCache.getNativeCache().stats();
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("size", caffeineCache.getNativeCache().estimatedSize());
+            entry.put("hits", cacheStats.hitCount());
+            entry.put("misses", cacheStats.missCount());
+            entry.put("hitRate", cacheStats.hitRate());
+            entry.put("evictions", cacheStats.evictionCount());
+            stats.put(name, entry);
+        }
+        return stats;
+    }
+}
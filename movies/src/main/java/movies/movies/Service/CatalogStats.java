@@ -0,0 +1,297 @@
+package movies.movies.Service;
+
+import movies.movies.Dto.StatsResponse;
+import movies.movies.Dto.StatsResponse.ActorCredits;
+import movies.movies.Dto.StatsResponse.GenreStats;
+import movies.movies.Dto.StatsResponse.YearStats;
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/*
+ * Aggregate statistics of the catalog kept in memory: movies and total duration per genre
+ * and per release year, and credits per actor, with the actors also kept sorted by credits.
+ *
+ * The services report every write here as a change to the counters (a movie added or removed,
+ * links added or removed, a genre or actor renamed or deleted), and the change is applied once
+ * the transaction commits, so a write never runs an extra query and a read never scans the tables.
+ * The counters are built from the database on startup, and POST /api/stats/rebuild builds them
+ * again if they ever drift, e.g. after rows were changed outside the application.
+ * With movies.multi-node each node would only count its own writes, so nothing is kept in memory
+ * and every request runs the grouped queries of a rebuild instead.
+ */
+@Component
+public class CatalogStats {
+
+    private static final Logger log = LoggerFactory.getLogger(CatalogStats.class);
+    private static final Comparator<ActorCredits> BY_CREDITS = Comparator.comparingLong(ActorCredits::credits).reversed()
+            .thenComparing(ActorCredits::name)
+            .thenComparingLong(ActorCredits::id);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private CommitGate commitGate;
+    //Several nodes share the database, see the class comment
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    //Counters, all guarded by the lock of this object
+    private Counters counters = new Counters();
+
+    //Changes that commit while the counters are being rebuilt are applied to the new ones once it's done
+    private final List<Runnable> pending = new ArrayList<>();
+    private boolean building;
+
+    //What a movie adds to the counters, taken before and after a write
+    public record MovieFacts(Integer releaseYear, Integer duration, Set<Long> genreIds, Set<Long> actorIds) {
+
+        public static MovieFacts of(Movie movie) {
+            return new MovieFacts(movie.getReleaseYear(), movie.getDuration(),
+                    CatalogCache.idsOf(movie.getGenres(), Genre::getId), CatalogCache.idsOf(movie.getActors(), Actor::getId));
+        }
+    }
+
+    public void movieAdded(MovieFacts movie) {
+        afterCommit(counters -> counters.add(movie, 1));
+    }
+
+    public void movieRemoved(MovieFacts movie) {
+        afterCommit(counters -> counters.add(movie, -1));
+    }
+
+    public void movieUpdated(MovieFacts before, MovieFacts after) {
+        afterCommit(counters -> {
+            counters.add(before, -1);
+            counters.add(after, 1);
+        });
+    }
+
+    //A genre was created or renamed
+    public void genreSaved(Long id, String name) {
+        afterCommit(counters -> counters.genre(id).name = name);
+    }
+
+    //Movies were linked to or unlinked from a genre, the deltas are negative for unlinked movies
+    public void genreLinksChanged(Long id, long movies, long duration) {
+        afterCommit(counters -> {
+            Totals genre = counters.genre(id);
+            genre.movies += movies;
+            genre.duration += duration;
+        });
+    }
+
+    public void genreRemoved(Long id) {
+        afterCommit(counters -> counters.genres.remove(id));
+    }
+
+    public void actorSaved(Long id, String name) {
+        afterCommit(counters -> counters.putActor(id, name, 0));
+    }
+
+    public void actorLinksChanged(Long id, long credits) {
+        afterCommit(counters -> counters.putActor(id, null, credits));
+    }
+
+    public void actorRemoved(Long id) {
+        afterCommit(counters -> counters.removeActor(id));
+    }
+
+    //Total duration of the given movies, for the genre deltas of the services
+    public static long totalDuration(Collection<Movie> movies) {
+        long duration = 0;
+        for (Movie movie : movies) {
+            duration += movie.getDuration() == null ? 0 : movie.getDuration();
+        }
+        return duration;
+    }
+
+    //Reads only the in-memory counters, or counts from the database on several nodes
+    public StatsResponse getStats(int topActors) {
+        if (multiNode) {
+            return stats(count(() -> { }), topActors);
+        }
+        synchronized (this) {
+            return stats(counters, topActors);
+        }
+    }
+
+    private static StatsResponse stats(Counters counters, int topActors) {
+        long movies = 0;
+        long duration = 0;
+        List<YearStats> years = new ArrayList<>(counters.years.size());
+        for (Map.Entry<Integer, Totals> year : counters.years.entrySet()) {
+            Totals totals = year.getValue();
+            movies += totals.movies;
+            duration += totals.duration;
+            years.add(new YearStats(year.getKey(), totals.movies, StatsResponse.average(totals.duration, totals.movies)));
+        }
+        List<GenreStats> genres = new ArrayList<>(counters.genres.size());
+        counters.genres.forEach((id, totals) -> genres.add(new GenreStats(id, totals.name, totals.movies,
+                StatsResponse.average(totals.duration, totals.movies))));
+        genres.sort(Comparator.comparingLong(GenreStats::movies).reversed().thenComparing(GenreStats::name));
+        List<ActorCredits> top = counters.actorsByCredits.stream().limit(topActors).toList();
+        return new StatsResponse(movies, StatsResponse.average(duration, movies), genres, years, top);
+    }
+
+    //Counts everything again and swaps the new counters in
+    //Reads keep using the old counters while the new ones are built
+    //Only the changes committed after the snapshot of the count are replayed on the new counters
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuild() {
+        if (multiNode) {
+            log.info("Catalog stats are counted on every request, movies.multi-node is set");
+            return;
+        }
+        long start = System.currentTimeMillis();
+        Counters rebuilt = count(() -> {
+            synchronized (this) {
+                building = true;
+            }
+        });
+        synchronized (this) {
+            counters = rebuilt;
+            pending.forEach(Runnable::run);
+            pending.clear();
+            building = false;
+        }
+        log.info("Catalog stats built in {} ms: {} genres, {} actors, {} years",
+                System.currentTimeMillis() - start, rebuilt.genres.size(), rebuilt.actors.size(), rebuilt.years.size());
+    }
+
+    //Counts everything with one grouped query per kind, all reading the same snapshot
+    //opened runs once the snapshot is taken, before any commit that isn't part of it
+    private Counters count(Runnable opened) {
+        Counters counted = new Counters();
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readOnly.executeWithoutResult(status -> {
+            commitGate.openSnapshot(entityManager, opened);
+            for (Object[] row : entityManager.createQuery("select g.id, g.name, count(m.id), coalesce(sum(m.duration), 0)"
+                    + " from Genre g left join g.movies m group by g.id, g.name", Object[].class).getResultList()) {
+                Totals genre = counted.genre((Long) row[0]);
+                genre.name = (String) row[1];
+                genre.movies = ((Number) row[2]).longValue();
+                genre.duration = ((Number) row[3]).longValue();
+            }
+            for (Object[] row : entityManager.createQuery("select m.releaseYear, count(m.id), coalesce(sum(m.duration), 0)"
+                    + " from Movie m group by m.releaseYear", Object[].class).getResultList()) {
+                Totals year = counted.year((Integer) row[0]);
+                year.movies = ((Number) row[1]).longValue();
+                year.duration = ((Number) row[2]).longValue();
+            }
+            for (Object[] row : entityManager.createQuery("select a.id, a.name, count(m.id)"
+                    + " from Actor a left join a.movies m group by a.id, a.name", Object[].class).getResultList()) {
+                counted.putActor((Long) row[0], (String) row[1], ((Number) row[2]).longValue());
+            }
+        });
+        return counted;
+    }
+
+    //Applies the change once the transaction commits, so a rolled back write never counts
+    private void afterCommit(Consumer<Counters> change) {
+        if (multiNode) {
+            return;
+        }
+        Runnable apply = () -> {
+            synchronized (this) {
+                if (building) {
+                    pending.add(() -> change.accept(counters));
+                } else {
+                    change.accept(counters);
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            commitGate.holdWhileCommitting();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply.run();
+                }
+            });
+        } else {
+            apply.run();
+        }
+    }
+
+    private static class Totals {
+        private String name = "";
+        private long movies;
+        private long duration;
+    }
+
+    private static class Counters {
+        private final Map<Long, Totals> genres = new HashMap<>();
+        private final Map<Integer, Totals> years = new TreeMap<>();
+        private final Map<Long, ActorCredits> actors = new HashMap<>();
+        private final TreeSet<ActorCredits> actorsByCredits = new TreeSet<>(BY_CREDITS);
+
+        private Totals genre(Long id) {
+            return genres.computeIfAbsent(id, key -> new Totals());
+        }
+
+        private Totals year(Integer year) {
+            return years.computeIfAbsent(year, key -> new Totals());
+        }
+
+        //Adds (sign 1) or takes away (sign -1) one movie
+        private void add(MovieFacts movie, int sign) {
+            long duration = movie.duration() == null ? 0 : movie.duration();
+            if (movie.releaseYear() != null) {
+                Totals year = year(movie.releaseYear());
+                year.movies += sign;
+                year.duration += sign * duration;
+                if (year.movies <= 0) {
+                    years.remove(movie.releaseYear());
+                }
+            }
+            for (Long id : movie.genreIds()) {
+                Totals genre = genre(id);
+                genre.movies += sign;
+                genre.duration += sign * duration;
+            }
+            for (Long id : movie.actorIds()) {
+                putActor(id, null, sign);
+            }
+        }
+
+        //Adds the credits to the actor, a null name keeps the current one
+        private void putActor(Long id, String name, long credits) {
+            ActorCredits old = actors.get(id);
+            if (old != null) {
+                actorsByCredits.remove(old);
+            }
+            ActorCredits updated = new ActorCredits(id, name != null ? name : old != null ? old.name() : "",
+                    (old != null ? old.credits() : 0) + credits);
+            actors.put(id, updated);
+            actorsByCredits.add(updated);
+        }
+
+        private void removeActor(Long id) {
+            ActorCredits old = actors.remove(id);
+            if (old != null) {
+                actorsByCredits.remove(old);
+            }
+        }
+    }
+}
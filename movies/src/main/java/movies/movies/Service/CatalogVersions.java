@@ -0,0 +1,174 @@
+package movies.movies.Service;
+
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Exception.PreconditionFailedException;
+import org.springframework.beans.factory.annotation.Value;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.context.request.WebRequest;
+
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Change counters of the movie, actor and genre tables, for the ETag and Last-Modified headers.
+ * The services report which tables a write changed (rows or links) and the counters go up once
+ * the transaction commits.
+ *
+ * A listing's ETag is made of the counters of every table its entries show, so it is answered with
+ * 304 without any query. A single entity's ETag is its @Version plus the counters of the tables it
+ * links to, since a renamed genre changes the JSON of its movies without changing their rows.
+ * The counters start from zero on every start, so the tags also carry the start time.
+ *
+ * The headers only go out with a 304 or with a successful response (see ValidatorsAdvice): a listing that
+ * then fails with a 404 must not give the client a tag to revalidate the error with.
+ *
+ * With movies.multi-node a node doesn't see the writes of the others, so there are no counters and no 304s:
+ * an entity's ETag is only its version, still good for If-Match, and listings have no ETag.
+ */
+@Component
+public class CatalogVersions {
+
+    public enum Table { MOVIES, ACTORS, GENRES }
+
+    private static final Pattern VERSION = Pattern.compile("^(?:W/)?\"[0-9a-z]+-v(\\d+)(?:-\\d+)*\"$");
+    //Request attribute with the validators of a response that isn't a 304, until it's written
+    private static final String VALIDATORS = CatalogVersions.class.getName() + ".validators";
+
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<Table, Long> counters = new EnumMap<>(Table.class);
+    private final Map<Table, Long> lastChanged = new EnumMap<>(Table.class);
+    //Several nodes share the database, see the class comment
+    @Value("${movies.multi-node:false}")
+    private boolean multiNode;
+
+    public CatalogVersions() {
+        //Nothing is known about changes before the start, so every table counts as changed then
+        long now = System.currentTimeMillis();
+        for (Table table : Table.values()) {
+            counters.put(table, 0L);
+            lastChanged.put(table, now);
+        }
+    }
+
+    //Called by the services inside the write transaction
+    public void changed(Table... tables) {
+        if (multiNode) {
+            return;
+        }
+        Runnable bump = () -> {
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                for (Table table : tables) {
+                    counters.merge(table, 1L, Long::sum);
+                    lastChanged.put(table, now);
+                }
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    bump.run();
+                }
+            });
+        } else {
+            bump.run();
+        }
+    }
+
+    //Sets the ETag and Last-Modified headers of a listing of the given tables
+    //Returns true if the client's copy is still current, the response is then a 304 without a body
+    //The tag is taken before the listing is read, so a write that commits in between can only make it look older
+    public boolean notModified(WebRequest request, Table... tables) {
+        if (multiNode) {
+            return false;
+        }
+        return checkNotModified(request, tag(null, tables), lastModified(null, tables));
+    }
+
+    //Same for one entity, with its version and the tables it links to
+    public boolean notModified(WebRequest request, EntityVersion version, Table... linked) {
+        if (multiNode) {
+            //The ETag is still sent for If-Match, but never compared with If-None-Match
+            request.setAttribute(VALIDATORS, new Validators(tag(version.version()), -1), RequestAttributes.SCOPE_REQUEST);
+            return false;
+        }
+        return checkNotModified(request, tag(version.version(), linked), lastModified(version.lastModified(), linked));
+    }
+
+    //Adds the headers notModified kept back to a response that is about to be written, if it's a success
+    public static void addValidators(HttpServletRequest request, int status, HttpHeaders headers) {
+        if (request.getAttribute(VALIDATORS) instanceof Validators validators && status >= 200 && status < 300) {
+            headers.setETag(validators.tag());
+            if (validators.lastModified() >= 0) {
+                headers.setLastModified(validators.lastModified());
+            }
+        }
+    }
+
+    //Spring's check sets the headers on the response whatever comes next, so it is first run on the request alone,
+    //and only a 304 (or a 412 for If-Match / If-Unmodified-Since) is answered with the headers right away
+    private static boolean checkNotModified(WebRequest request, String tag, long lastModified) {
+        if (request instanceof ServletWebRequest servlet
+                && !new ServletWebRequest(servlet.getRequest()).checkNotModified(tag, lastModified)) {
+            request.setAttribute(VALIDATORS, new Validators(tag, lastModified), RequestAttributes.SCOPE_REQUEST);
+            return false;
+        }
+        return request.checkNotModified(tag, lastModified);
+    }
+
+    //The version an If-Match header asks for, null without the header or for "*"
+    //Only the version part of the tag is compared: changes to linked tables don't make an update conflict
+    public static Long expectedVersion(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return null;
+        }
+        Matcher matcher = VERSION.matcher(ifMatch.trim());
+        if (!matcher.matches()) {
+            throw new PreconditionFailedException("If-Match must be an ETag returned by this API");
+        }
+        return Long.valueOf(matcher.group(1));
+    }
+
+    //Throws if the entity changed since the client read the version it sends
+    public static void checkVersion(String entityName, Long id, Long expectedVersion, Long currentVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(currentVersion)) {
+            throw new PreconditionFailedException(entityName + " with id " + id + " was changed since it was read");
+        }
+    }
+
+    //The ETag of a listing (without a version) or of one entity, also sent back after a write
+    public synchronized String tag(Long version, Table... tables) {
+        StringBuilder tag = new StringBuilder("\"").append(epoch);
+        if (version != null) {
+            tag.append("-v").append(version);
+        }
+        if (!multiNode) {
+            for (Table table : tables) {
+                tag.append('-').append(counters.get(table));
+            }
+        }
+        return tag.append('"').toString();
+    }
+
+    //ETag and Last-Modified of a response, -1 for no Last-Modified
+    private record Validators(String tag, long lastModified) {
+    }
+
+    private synchronized long lastModified(Instant entity, Table... tables) {
+        long lastModified = entity == null ? 0 : entity.toEpochMilli();
+        for (Table table : tables) {
+            lastModified = Math.max(lastModified, lastChanged.get(table));
+        }
+        return lastModified;
+    }
+}
@@ -0,0 +1,74 @@
+package movies.movies.Service;
+
+import jakarta.persistence.EntityManager;
+import org.hibernate.Session;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.sql.Statement;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/*
+ * Orders the writes that the in-memory views of the catalog (the stats, the filter index) apply after commit
+ * against the snapshot a rebuild of such a view reads.
+ *
+ * A transaction that reports a change to a view holds the gate from just before its commit until its
+ * afterCommit callbacks have run, and a rebuild opens its snapshot with the gate closed. So every write either
+ * committed before the snapshot, is part of it and was applied to the old view, or commits after it and is
+ * replayed on the new one, never both. Writes only wait while a rebuild opens its snapshot, not while it reads.
+ */
+@Component
+public class CommitGate {
+
+    //Fair, so a rebuild waiting to close the gate isn't starved by a steady stream of commits
+    private final ReadWriteLock lock = new ReentrantReadWriteLock(true);
+
+    //Holds the gate while the current transaction commits, once per transaction however many changes it reports
+    public void holdWhileCommitting() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()
+                || TransactionSynchronizationManager.getSynchronizations().stream().anyMatch(Hold.class::isInstance)) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new Hold());
+    }
+
+    //Opens the snapshot of a rebuild's transaction and marks the view as building, with no commit in between
+    //SQLite keeps the snapshot of a read transaction's first read, PostgreSQL needs repeatable read for that,
+    //which is set here as Spring can't with the connection released after each transaction (prod)
+    //The connection is either held already or comes from a pool the writers don't use (the readers), as writers wait here holding theirs
+    public void openSnapshot(EntityManager entityManager, Runnable building) {
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            lock.writeLock().lock();
+            try (Statement statement = connection.createStatement()) {
+                if ("PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) {
+                    statement.execute("set transaction isolation level repeatable read");
+                }
+                statement.executeQuery("select id from tbl_genre limit 1").close();
+                building.run();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    private class Hold implements TransactionSynchronization {
+        private boolean held;
+
+        @Override
+        public void beforeCommit(boolean readOnly) {
+            lock.readLock().lock();
+            held = true;
+        }
+
+        //Also called on a rollback, after a beforeCommit that failed or instead of it
+        @Override
+        public void afterCompletion(int status) {
+            if (held) {
+                held = false;
+                lock.readLock().unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package movies.movies.Service;
+
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.GenreRef;
+import movies.movies.Dto.MovieRef;
+import movies.movies.Dto.MovieSummary;
+
+import movies.movies.Repository.MovieRepository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Export of the whole movie catalog with genres and actors, as NDJSON or CSV.
+ * Movie rows are read through a forward-only stream of projections, so nothing is kept
+ * in a persistence context, and every chunk of movies.export.chunk-size rows gets its genres
+ * and actors with one query each. Each chunk is written to the response before the next one
+ * is read, so memory use is the same for any number of movies.
+ */
+@Service
+public class ExportService {
+
+    public static final String NDJSON = "ndjson";
+    public static final String CSV = "csv";
+
+    private static final String CSV_HEADER = "id,title,releaseYear,duration,genres,actors";
+
+    @Autowired
+    private MovieRepository movieRepository;
+    @Autowired
+    private ObjectMapper jacksonObjectMapper;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Value("${movies.export.chunk-size:500}")
+    private int chunkSize;
+
+    //Writes every movie to the output in id order, runs on the thread that streams the response
+    public void exportMovies(String format, OutputStream output) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 64 * 1024);
+        ObjectWriter json = jacksonObjectMapper.writerFor(MovieSummary.class);
+        if (CSV.equals(format)) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+        TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        try {
+            readOnly.executeWithoutResult(status -> {
+                List<MovieRef> chunk = new ArrayList<>(chunkSize);
+                try (Stream<MovieRef> rows = movieRepository.streamAllRefs()) {
+                    Iterator<MovieRef> iterator = rows.iterator();
+                    while (iterator.hasNext()) {
+                        chunk.add(iterator.next());
+                        if (chunk.size() == chunkSize || !iterator.hasNext()) {
+                            List<Long> ids = chunk.stream().map(MovieRef::id).toList();
+                            for (MovieSummary movie : movieRepository.summariesOf(ids, chunk)) {
+                                writer.write(CSV.equals(format) ? csvLine(movie) : json.writeValueAsString(movie));
+                                writer.write('\n');
+                            }
+                            writer.flush(); //Sends the chunk on its way, the client sees rows while the export runs
+                            chunk.clear();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); //The client went away, the read-only transaction is rolled back
+        }
+        writer.flush();
+    }
+
+    //Genres and actors are listed by name, separated by |
+    private static String csvLine(MovieSummary movie) {
+        return movie.id() + ","
+                + csvField(movie.title()) + ","
+                + movie.releaseYear() + ","
+                + movie.duration() + ","
+                + csvField(movie.genres().stream().map(GenreRef::name).collect(Collectors.joining("|"))) + ","
+                + csvField(movie.actors().stream().map(ActorRef::name).collect(Collectors.joining("|")));
+    }
+
+    //Quotes a field that contains a separator, quote or line break, as in RFC 4180
+    private static String csvField(String value) {
+        if (value.contains(",") || value.contains("\"") || value.contains("\n") || value.contains("\r")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
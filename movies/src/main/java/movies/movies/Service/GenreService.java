@@ -3,19 +3,33 @@ package movies.movies.Service;
 import movies.movies.Entity.Genre;
 import movies.movies.Entity.Movie;
 
+import movies.movies.Dto.Cursor;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.Job;
+import movies.movies.Dto.GenreSummary;
+
 import movies.movies.Repository.GenreRepository;
 import movies.movies.Repository.MovieRepository;
 
 import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Search.FilterIndex;
+import movies.movies.Search.SearchIndex;
+import movies.movies.Service.CatalogVersions.Table;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
 import java.util.*;
 
 
@@ -27,41 +41,90 @@ public class GenreService {
     private MovieRepository movieRepository;
     @Autowired
     private ObjectMapper jacksonObjectMapper; //Using objectmapper in the update method
+    @Autowired
+    private ReferenceResolver referenceResolver;
+    @Autowired
+    private CatalogCache catalogCache;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private FilterIndex filterIndex;
+    @Autowired
+    private JobService jobService;
+    @Autowired
+    private CatalogStats catalogStats;
+    @Autowired
+    private CatalogVersions catalogVersions;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
 
     //Creates a new Genre and links it with existing movies if provided
     @Transactional
     public Genre createGenre (Genre genre) {
         if (!genre.getMovies().isEmpty()) { // Check that each associated movie exists and update their genre references
-            Set<Movie> existingMovies = new HashSet<>();
-            for (Movie movie : genre.getMovies()) {
-                Movie existingMovie = movieRepository.findById(movie.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + movie.getId()));
-                existingMovies.add(existingMovie); //Adds the movie to the new set
-                existingMovie.getGenres().add(genre); ///Link this genre to the movie
-            }
-            genre.setMovies(existingMovies); //Sets the movies to the genre
+            Set<Movie> existingMovies = referenceResolver.resolve(movieRepository, genre.getMovies(), Movie::getId, "Movie");
+            genre.setMovies(existingMovies); //Sets the movies to the genre, the links are inserted once it's saved
         }
         genre.setName(genre.getName().trim()); // Trim blank spaces in front and back of the name
-        return genreRepository.save(genre); // Save to database
+        catalogCache.evictMovies(CatalogCache.idsOf(genre.getMovies(), Movie::getId)); //The cached movies now list this genre
+        Genre savedGenre = genreRepository.save(genre); // Save to database
+        //The movies own the links: one bulk insert instead of loading the genres of every movie to add this one
+        Set<Long> movieIds = CatalogCache.idsOf(savedGenre.getMovies(), Movie::getId);
+        if (!movieIds.isEmpty()) {
+            genreRepository.linkMovies(savedGenre.getId(), movieIds);
+            movieRepository.touchByIdIn(movieIds, Instant.now());
+        }
+        searchIndex.putGenre(savedGenre.getId(), savedGenre.getName());
+        filterIndex.genreMovies(savedGenre.getId(), CatalogCache.idsOf(savedGenre.getMovies(), Movie::getId));
+        catalogStats.genreSaved(savedGenre.getId(), savedGenre.getName());
+        catalogVersions.changed(Table.GENRES, Table.MOVIES);
+        catalogStats.genreLinksChanged(savedGenre.getId(), savedGenre.getMovies().size(),
+                CatalogStats.totalDuration(savedGenre.getMovies()));
+        return savedGenre;
     }
 
     //Method to get all genres with pagination
-    public Page<Genre> getAllGenres(Pageable pageable) {
-        return genreRepository.findAll(pageable);
+    @Transactional(readOnly = true)
+    public Page<GenreSummary> getAllGenres(Pageable pageable) {
+        return genreRepository.findAllSummaries(pageable);
+    }
+
+    //Cursor mode of the genre listing: the genres after the cursor sorted by name and id, without a count query
+    @Transactional(readOnly = true)
+    public Slice<GenreSummary> getGenresAfter(Cursor after, int size) {
+        return genreRepository.slice(genreRepository.findIdsAfter(after.key(), after.id(), Limit.of(size + 1)), size);
+    }
+
+    @Transactional(readOnly = true)
+    public long countGenres() {
+        return genreRepository.count();
     }
 
     //Method to get a genre by ID and throw an exception if not found
-    public Optional<Genre> getGenreById(Long id) {
-        return Optional.ofNullable(genreRepository.findById(id)
+    @Cacheable(cacheNames = CatalogCache.GENRES, key = "#id")
+    @Transactional(readOnly = true)
+    public Optional<GenreSummary> getGenreById(Long id) {
+        return Optional.ofNullable(genreRepository.findSummaryById(id)
             .orElseThrow(() -> new ResourceNotFoundException("Genre not found with id: " + id)));
     }
 
+    //Version of a genre for the conditional GET, empty if there's no such genre
+    @Transactional(readOnly = true)
+    public Optional<EntityVersion> getGenreVersion(Long id) {
+        return genreRepository.findVersionById(id);
+    }
+
     //Method to update an existing actor and throw an exception if not found
+    //expectedVersion comes from an If-Match header, the update fails if the genre has a newer version
     @Transactional
-    public Optional<Genre> updateGenre(Long id, Map<String, Object> updates){
+    public Optional<Genre> updateGenre(Long id, Map<String, Object> updates, Long expectedVersion){
      Genre existingGenre = genreRepository.findById(id)
              .orElseThrow(() -> new ResourceNotFoundException("Genre not found with id: " + id));
-
+     CatalogVersions.checkVersion("Genre", id, expectedVersion, existingGenre.getVersion());
+     //Movies linked before the update show this genre in their cached lists
+     Set<Long> affectedMovieIds = CatalogCache.idsOf(existingGenre.getMovies(), Movie::getId);
+     int moviesBefore = affectedMovieIds.size();
+     long durationBefore = CatalogStats.totalDuration(existingGenre.getMovies());
 
     // Convert incoming raw map to Genre object (used for extracting updated fields)
      Genre updatedGenre = jacksonObjectMapper.convertValue(updates, Genre.class);
@@ -75,19 +138,16 @@ public class GenreService {
          * If "movies" field exists and is empty → clear all associations.
          * Else → validate and update new movie associations.
          */   
+        boolean unlinkAll = false;
         if (updates.containsKey("movies") && updatedGenre.getMovies().isEmpty()) { //If the "movies" field exists in the given JSON body and it is empty then it clears the associations
+            //Genre.movies is the inverse side, clearing it doesn't delete any link, so they go with one delete after the save
             existingGenre.getMovies().clear();
+            unlinkAll = true;
         }
         else if (!updatedGenre.getMovies().isEmpty()) {
              //If the "movies" field isnt empty in the JSON body then checks if the movies exist
-         Set<Movie> updatedMovies = new HashSet<>();
-
-         for (Movie movie : updatedGenre.getMovies()) { 
-            //Check if the given associated movies exist and throw an exception if not
-             Movie existingMovie = movieRepository.findById(movie.getId())
-                     .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + movie.getId()));
-             updatedMovies.add(existingMovie);
-         }
+         //Check if the given associated movies exist and throw an exception if not
+         Set<Movie> updatedMovies = referenceResolver.resolve(movieRepository, updatedGenre.getMovies(), Movie::getId, "Movie");
 
          // Remove this genre from movies that are no longer associated         
          for (Movie movie : existingGenre.getMovies()) {
@@ -104,13 +164,99 @@ public class GenreService {
          //Update the genre's movie list
          existingGenre.setMovies(updatedMovies);
      }
+     //Marks the genre row changed when only its movies changed, so its version is bumped too
+     if (updates.containsKey("movies")) {
+         existingGenre.setLastModified(Instant.now());
+     }
+     //Evicts the genre and its movies as they were before and after the update
+     affectedMovieIds.addAll(CatalogCache.idsOf(existingGenre.getMovies(), Movie::getId));
+     catalogCache.evictGenres(List.of(id));
+     catalogCache.evictMovies(affectedMovieIds);
+
      Genre savedGenre = genreRepository.save(existingGenre);
+     int moviesChange = savedGenre.getMovies().size() - moviesBefore;
+     long durationChange = CatalogStats.totalDuration(savedGenre.getMovies()) - durationBefore;
+     if (unlinkAll) {
+         moviesChange = -genreRepository.unlinkAllMovies(id);
+         if (!affectedMovieIds.isEmpty()) {
+             movieRepository.touchByIdIn(affectedMovieIds, Instant.now()); //The movies that listed the genre
+         }
+     }
+     searchIndex.putGenre(id, savedGenre.getName());
+     filterIndex.genreMovies(id, CatalogCache.idsOf(savedGenre.getMovies(), Movie::getId));
+     catalogStats.genreSaved(id, savedGenre.getName());
+     catalogStats.genreLinksChanged(id, moviesChange, durationChange);
+     catalogVersions.changed(Table.GENRES, Table.MOVIES);
      return Optional.of(savedGenre);
     }
 
-        //Method to find actors by name (case-insensitive and partial match)
-    public Page<Genre> findByName(String name, Pageable pageable) {
-        Page<Genre> genre = genreRepository.findByNameContainingIgnoreCase(name, pageable);
+        //Links the given movies to the genre with one bulk insert, movies already linked are skipped
+    //Returns how many links were added
+    @Transactional
+    public int linkMovies(Long id, List<Long> movieIds) {
+        Set<Long> ids = requireMovies(id, movieIds);
+        //The duration of the movies that weren't linked yet, read before the insert
+        long duration = movieRepository.sumDurationByIdIn(ids) - movieRepository.sumDurationByGenresIdAndIdIn(id, ids);
+        int linked = genreRepository.linkMovies(id, ids);
+        if (linked > 0) {
+            touch(id, ids);
+        }
+        catalogStats.genreLinksChanged(id, linked, duration);
+        filterIndex.genreLinked(id, ids);
+        catalogCache.evictGenres(List.of(id));
+        catalogCache.evictMovies(ids);
+        return linked;
+    }
+
+    //Unlinks the given movies from the genre with one bulk delete, returns how many links were removed
+    @Transactional
+    public int unlinkMovies(Long id, List<Long> movieIds) {
+        Set<Long> ids = requireMovies(id, movieIds);
+        long duration = movieRepository.sumDurationByGenresIdAndIdIn(id, ids);
+        int unlinked = genreRepository.unlinkMovies(id, ids);
+        if (unlinked > 0) {
+            touch(id, ids);
+        }
+        catalogStats.genreLinksChanged(id, -unlinked, -duration);
+        filterIndex.genreUnlinked(id, ids);
+        catalogCache.evictGenres(List.of(id));
+        catalogCache.evictMovies(ids);
+        return unlinked;
+    }
+
+    //Bulk link changes bypass the entities, so both sides get their new version here
+    private void touch(Long id, Set<Long> movieIds) {
+        Instant now = Instant.now();
+        genreRepository.touchByIdIn(List.of(id), now);
+        movieRepository.touchByIdIn(movieIds, now);
+        catalogVersions.changed(Table.GENRES, Table.MOVIES);
+    }
+
+    //Checks the genre and every movie exist, the movies with a single query
+    private Set<Long> requireMovies(Long id, List<Long> movieIds) {
+        if (!genreRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Genre not found with id: " + id);
+        }
+        if (movieIds == null || movieIds.isEmpty()) {
+            throw new IllegalStateException("Movie ids must not be empty");
+        }
+        return referenceResolver.requireIds(movieIds, movieRepository::findExistingIds, "Movie");
+    }
+
+    //Method to find actors by name (case-insensitive and partial match)
+    //Results come from the search index ranked by relevance, the database query is only used until the index is built
+    //Returns an empty page when nothing matches
+    @Transactional(readOnly = true)
+    public Page<GenreSummary> searchByName(String name, boolean fuzzy, Pageable pageable) {
+        return searchIndex.isReady()
+                ? genreRepository.summaries(searchIndex.searchGenres(name, fuzzy, pageable))
+                : genreRepository.findSummariesByNameContainingIgnoreCase(name, pageable);
+    }
+
+    //Same search but throws an exception if no genres are found
+    @Transactional(readOnly = true)
+    public Page<GenreSummary> findByName(String name, boolean fuzzy, Pageable pageable) {
+        Page<GenreSummary> genre = searchByName(name, fuzzy, pageable);
         if (genre.isEmpty()) {
             throw new ResourceNotFoundException("No genres found with name containing: " + name);
         }
@@ -118,20 +264,37 @@ public class GenreService {
     }
 
     //Method to delete a genre and throw an exception if it isn't found or it has associated movies
+    //Same delete as a background job, for genres with very many links
+    //Checks the genre exists first so a wrong id still gets a 404 right away
+    public Job deleteGenreInBackground(Long id, boolean force) {
+        if (!genreRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Genre not found with id: " + id);
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        return jobService.submit("Delete genre " + id, () -> transaction.executeWithoutResult(status -> deleteGenre(id, force)));
+    }
+
     @Transactional
     public void deleteGenre(Long id, boolean force) {
         Genre genre = genreRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Genre not found with id: " + id));
-        if (!force && !genre.getMovies().isEmpty()) {
-            throw new IllegalStateException("Cannot delete genre '" + genre.getName() + "' because it has " + genre.getMovies().size() + " associated movie(s).");
+        //Only the ids of the linked movies are read, the collection is never loaded
+        List<Long> movieIds = movieRepository.findAllIdsByGenresId(id);
+        if (!force && !movieIds.isEmpty()) {
+            throw new IllegalStateException("Cannot delete genre '" + genre.getName() + "' because it has " + movieIds.size() + " associated movie(s).");
         }
-        if (force) { //If force=true then remove the genre from all associated movies
-            for (Movie movie : genre.getMovies()) {
-                movie.getGenres().remove(genre);
-            }
-            genre.getMovies().clear();
+        catalogCache.evictGenres(List.of(id));
+        catalogCache.evictMovies(movieIds);
+        searchIndex.removeGenre(id);
+        filterIndex.genreRemoved(id);
+        catalogStats.genreRemoved(id);
+        catalogVersions.changed(Table.GENRES, Table.MOVIES);
+        //If force=true the links go with one delete on the join table, then the genre row
+        genreRepository.unlinkAllMovies(id);
+        genreRepository.deleteRowById(id);
+        if (!movieIds.isEmpty()) {
+            movieRepository.touchByIdIn(movieIds, Instant.now()); //The movies that listed the genre
         }
-        genreRepository.delete(genre);
     }
 
 
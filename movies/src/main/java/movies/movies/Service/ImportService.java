@@ -0,0 +1,445 @@
+package movies.movies.Service;
+
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+
+import movies.movies.Dto.ImportResult;
+
+import movies.movies.Repository.ActorRepository;
+import movies.movies.Repository.GenreRepository;
+
+import movies.movies.Search.ActorGraph;
+import movies.movies.Search.FilterIndex;
+import movies.movies.Search.SearchIndex;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Date;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+ * Bulk import of a catalog from a streamed body.
+ * The body is either NDJSON (one record per line) or a JSON array of records, every record has a "type"
+ * of genre, actor or movie and the same fields as the matching POST endpoint. Movies link genres and actors
+ * by id ({"id": 3}) or by name ({"name": "Drama"}), so one file can link the genres and actors it creates
+ * as long as they come before the movies, or in the same chunk.
+ *
+ * Records are parsed one at a time and written in chunks of movies.import.commit-interval rows,
+ * each chunk in its own transaction with plain JDBC batches, so memory use doesn't grow with the file.
+ * A record that is invalid, a duplicate or links something missing is reported and skipped,
+ * the rest of its chunk is still imported. Chunks that were committed stay committed if the body is cut off.
+ */
+@Service
+public class ImportService {
+
+    @Autowired
+    private ObjectMapper jacksonObjectMapper;
+    @Autowired
+    private Validator validator;
+    @Autowired
+    private NamedParameterJdbcTemplate jdbc;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private CatalogCache catalogCache;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private FilterIndex filterIndex;
+    @Autowired
+    private ActorGraph actorGraph;
+    @Autowired
+    private CatalogStats catalogStats;
+    @Autowired
+    private CatalogVersions catalogVersions;
+    @Autowired
+    private GenreRepository genreRepository;
+    @Autowired
+    private ActorRepository actorRepository;
+
+    //Rows per transaction
+    @Value("${movies.import.commit-interval:1000}")
+    private int commitInterval;
+    //Rows per JDBC batch inside a transaction
+    @Value("${movies.import.batch-size:100}")
+    private int batchSize;
+    //How many row errors the result lists
+    @Value("${movies.import.max-errors:1000}")
+    private int maxErrors;
+
+    //One parsed record and its position in the body
+    private record Row(long number, Object entity) {
+    }
+
+    public ImportResult importCatalog(InputStream body) throws IOException {
+        Report report = new Report();
+        List<Row> chunk = new ArrayList<>(commitInterval);
+        try (JsonParser parser = jacksonObjectMapper.createParser(body)) {
+            JsonToken token = parser.nextToken();
+            boolean array = token == JsonToken.START_ARRAY;
+            if (array) {
+                token = parser.nextToken();
+            }
+            while (token != null && token != JsonToken.END_ARRAY) {
+                long number = ++report.rows;
+                JsonNode node = parser.readValueAsTree();
+                try {
+                    chunk.add(new Row(number, toEntity(node)));
+                } catch (IllegalArgumentException e) {
+                    report.fail(number, e.getMessage());
+                }
+                if (chunk.size() == commitInterval) {
+                    write(chunk, report);
+                    chunk.clear();
+                }
+                token = parser.nextToken();
+            }
+        } catch (JsonProcessingException e) {
+            //The parser can't find the start of the next record after a syntax error, so the import stops here
+            report.fail(report.rows, "Malformed JSON, import stopped: " + e.getOriginalMessage());
+        }
+        write(chunk, report);
+        return report.toResult();
+    }
+
+    //Maps one record to its entity and checks the same constraints as the POST endpoints
+    private Object toEntity(JsonNode node) {
+        if (!node.isObject()) {
+            throw new IllegalArgumentException("Record must be a JSON object");
+        }
+        String type = node.path("type").asText(null);
+        Object entity;
+        try {
+            entity = switch (type == null ? "" : type) {
+                case "movie" -> jacksonObjectMapper.convertValue(node, Movie.class);
+                case "actor" -> jacksonObjectMapper.convertValue(node, Actor.class);
+                case "genre" -> jacksonObjectMapper.convertValue(node, Genre.class);
+                default -> throw new IllegalStateException("Unknown type: " + type + ", expected movie, actor or genre");
+            };
+        } catch (IllegalStateException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid " + fieldOf(e) + ": value has the wrong type or format");
+        }
+        Set<ConstraintViolation<Object>> violations = validator.validate(entity);
+        if (!violations.isEmpty()) {
+            throw new IllegalArgumentException(violations.stream()
+                    .map(violation -> "invalid " + violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+        }
+        if (entity instanceof Movie movie) {
+            //A null in the genres or actors array can't be linked, so only this row is rejected
+            if (movie.getGenres() == null || movie.getGenres().contains(null)) {
+                throw new IllegalArgumentException("invalid genres: must be an array of genre references");
+            }
+            if (movie.getActors() == null || movie.getActors().contains(null)) {
+                throw new IllegalArgumentException("invalid actors: must be an array of actor references");
+            }
+        }
+        return entity;
+    }
+
+    //Path of the field Jackson couldn't read, like birthDate or genres[0].id
+    private static String fieldOf(IllegalArgumentException e) {
+        if (!(e.getCause() instanceof JsonMappingException mapping)) {
+            return "record";
+        }
+        StringBuilder field = new StringBuilder();
+        for (JsonMappingException.Reference reference : mapping.getPath()) {
+            if (reference.getFieldName() != null) {
+                field.append(field.isEmpty() ? "" : ".").append(reference.getFieldName());
+            } else {
+                field.append('[').append(reference.getIndex()).append(']');
+            }
+        }
+        return field.isEmpty() ? "record" : field.toString();
+    }
+
+    //Writes a chunk in one transaction, if the database still rejects it (say a concurrent insert
+    //took one of the names) the rows are retried one transaction each to find the ones that fail
+    private void write(List<Row> chunk, Report report) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        try {
+            report.add(transaction.execute(status -> writeChunk(chunk)));
+        } catch (DataAccessException e) {
+            for (Row row : chunk) {
+                try {
+                    report.add(transaction.execute(status -> writeChunk(List.of(row))));
+                } catch (DataAccessException rowException) {
+                    report.fail(row.number(), "A database error occurred: " + rowException.getMostSpecificCause().getMessage());
+                }
+            }
+        }
+    }
+
+    //Genres and actors go first, so movies of the same chunk can link them by name
+    private Report writeChunk(List<Row> chunk) {
+        Report report = new Report();
+        report.genres = insertGenres(rowsOf(chunk, Genre.class), report);
+        report.actors = insertActors(rowsOf(chunk, Actor.class), report);
+        report.movies = insertMovies(rowsOf(chunk, Movie.class), report);
+        catalogVersions.changed(CatalogVersions.Table.values());
+        catalogCache.evictSecondLevelCache();
+        return report;
+    }
+
+    private int insertGenres(Map<Long, Genre> rows, Report report) {
+        Map<Long, Genre> unique = withoutDuplicates(rows, Genre::getName, "tbl_genre", "name", "Genre with the given name already exists.", report);
+        batchInsert("insert into tbl_genre (name) values (:name)", unique.values(),
+                genre -> Map.of("name", genre.getName()));
+        Map<String, Long> ids = idsByKey("tbl_genre", "name", names(unique.values(), Genre::getName));
+        ids.forEach((name, id) -> {
+            searchIndex.putGenre(id, name);
+            catalogStats.genreSaved(id, name);
+        });
+        return unique.size();
+    }
+
+    private int insertActors(Map<Long, Actor> rows, Report report) {
+        Map<Long, Actor> unique = withoutDuplicates(rows, Actor::getName, "tbl_actor", "name", "Actor with the given name already exists.", report);
+        batchInsert("insert into tbl_actor (name, birth_date) values (:name, :birthDate)", unique.values(),
+                actor -> Map.of("name", actor.getName(), "birthDate", Date.valueOf(actor.getBirthDate())));
+        Map<String, Long> ids = idsByKey("tbl_actor", "name", names(unique.values(), Actor::getName));
+        ids.forEach((name, id) -> {
+            searchIndex.putActor(id, name);
+            catalogStats.actorSaved(id, name);
+        });
+        return unique.size();
+    }
+
+    private int insertMovies(Map<Long, Movie> rows, Report report) {
+        Map<Long, Movie> unique = withoutDuplicates(rows, Movie::getTitle, "tbl_movie", "title", "Movie with the given title already exists.", report);
+
+        //Resolves every linked genre and actor of the chunk with one query per table
+        Links genres = new Links("Genre", "tbl_genre");
+        Links actors = new Links("Actor", "tbl_actor");
+        for (Movie movie : unique.values()) {
+            movie.getGenres().forEach(genre -> genres.want(genre.getId(), genre.getName()));
+            movie.getActors().forEach(actor -> actors.want(actor.getId(), actor.getName()));
+        }
+        genres.resolve();
+        actors.resolve();
+
+        Map<Movie, Set<Long>> genreIds = new HashMap<>();
+        Map<Movie, Set<Long>> actorIds = new HashMap<>();
+        Iterator<Map.Entry<Long, Movie>> iterator = unique.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, Movie> row = iterator.next();
+            Movie movie = row.getValue();
+            try {
+                genreIds.put(movie, genres.idsOf(movie.getGenres(), Genre::getId, Genre::getName));
+                actorIds.put(movie, actors.idsOf(movie.getActors(), Actor::getId, Actor::getName));
+            } catch (IllegalArgumentException e) {
+                report.fail(row.getKey(), e.getMessage());
+                iterator.remove();
+            }
+        }
+
+        batchInsert("insert into tbl_movie (title, release_year, duration) values (:title, :releaseYear, :duration)", unique.values(),
+                movie -> Map.of("title", movie.getTitle(), "releaseYear", movie.getReleaseYear(), "duration", movie.getDuration()));
+        Map<String, Long> movieIds = idsByKey("tbl_movie", "title", names(unique.values(), Movie::getTitle));
+
+        List<Map<String, Object>> genreLinks = new ArrayList<>();
+        List<Map<String, Object>> actorLinks = new ArrayList<>();
+        for (Movie movie : unique.values()) {
+            Long movieId = movieIds.get(movie.getTitle());
+            genreIds.get(movie).forEach(genreId -> genreLinks.add(Map.of("movieId", movieId, "linkId", genreId)));
+            actorIds.get(movie).forEach(actorId -> actorLinks.add(Map.of("movieId", movieId, "linkId", actorId)));
+            searchIndex.putMovie(movieId, movie.getTitle());
+            CatalogStats.MovieFacts facts = new CatalogStats.MovieFacts(movie.getReleaseYear(), movie.getDuration(),
+                    genreIds.get(movie), actorIds.get(movie));
+            catalogStats.movieAdded(facts);
+            filterIndex.movieAdded(movieId, facts);
+            actorGraph.movieCast(movieId, facts.actorIds());
+        }
+        batchInsert("insert into movie_genres (movie_id, genre_id) values (:movieId, :linkId)", genreLinks, link -> link);
+        batchInsert("insert into movie_actors (movie_id, actor_id) values (:movieId, :linkId)", actorLinks, link -> link);
+
+        //The cached genres and actors now list more movies
+        catalogCache.evictGenres(genres.linked);
+        catalogCache.evictActors(actors.linked);
+        //and get a new version and Last-Modified, for conditional requests
+        Instant now = Instant.now();
+        if (!genres.linked.isEmpty()) {
+            genreRepository.touchByIdIn(genres.linked, now);
+        }
+        if (!actors.linked.isEmpty()) {
+            actorRepository.touchByIdIn(actors.linked, now);
+        }
+        return unique.size();
+    }
+
+    //Reports the rows whose unique key is already in the table or earlier in the chunk, and returns the others
+    private <T> Map<Long, T> withoutDuplicates(Map<Long, T> rows, Function<T, String> keyOf, String table, String column,
+                                               String message, Report report) {
+        Set<String> taken = new HashSet<>(idsByKey(table, column, names(rows.values(), keyOf)).keySet());
+        Map<Long, T> unique = new LinkedHashMap<>();
+        rows.forEach((number, entity) -> {
+            if (taken.add(keyOf.apply(entity))) {
+                unique.put(number, entity);
+            } else {
+                report.fail(number, message);
+            }
+        });
+        return unique;
+    }
+
+    //Id of every row whose key column is one of the given values
+    private Map<String, Long> idsByKey(String table, String column, Collection<String> keys) {
+        Map<String, Long> ids = new HashMap<>();
+        if (!keys.isEmpty()) {
+            jdbc.query("select id, " + column + " from " + table + " where " + column + " in (:keys)", Map.of("keys", keys),
+                    resultSet -> {
+                        ids.put(resultSet.getString(2), resultSet.getLong(1));
+                    });
+        }
+        return ids;
+    }
+
+    private <T> void batchInsert(String sql, Collection<T> rows, Function<T, Map<String, Object>> parametersOf) {
+        List<Map<String, Object>> batch = new ArrayList<>(batchSize);
+        for (T row : rows) {
+            batch.add(parametersOf.apply(row));
+            if (batch.size() == batchSize) {
+                jdbc.batchUpdate(sql, batch.toArray(Map[]::new));
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            jdbc.batchUpdate(sql, batch.toArray(Map[]::new));
+        }
+    }
+
+    //Trims the unique key the same way the create methods do
+    private static <T> Map<Long, T> rowsOf(List<Row> chunk, Class<T> type) {
+        Map<Long, T> rows = new LinkedHashMap<>();
+        for (Row row : chunk) {
+            if (type.isInstance(row.entity())) {
+                T entity = type.cast(row.entity());
+                if (entity instanceof Movie movie) {
+                    movie.setTitle(movie.getTitle().trim());
+                } else if (entity instanceof Actor actor) {
+                    actor.setName(actor.getName().trim());
+                } else if (entity instanceof Genre genre) {
+                    genre.setName(genre.getName().trim());
+                }
+                rows.put(row.number(), entity);
+            }
+        }
+        return rows;
+    }
+
+    private static <T> List<String> names(Collection<T> entities, Function<T, String> keyOf) {
+        return entities.stream().map(keyOf).distinct().toList();
+    }
+
+    //The genres or actors the movies of one chunk link, by id or by name
+    private class Links {
+        private final String entityName;
+        private final String table;
+        private final Set<Long> wantedIds = new HashSet<>();
+        private final Set<String> wantedNames = new HashSet<>();
+        private final Set<Long> foundIds = new HashSet<>();
+        private Map<String, Long> idsByName = Map.of();
+        private final Set<Long> linked = new HashSet<>();
+
+        Links(String entityName, String table) {
+            this.entityName = entityName;
+            this.table = table;
+        }
+
+        void want(Long id, String name) {
+            if (id != null) {
+                wantedIds.add(id);
+            } else if (name != null) {
+                wantedNames.add(name.trim());
+            }
+        }
+
+        void resolve() {
+            if (!wantedIds.isEmpty()) {
+                foundIds.addAll(jdbc.queryForList("select id from " + table + " where id in (:ids)", Map.of("ids", wantedIds), Long.class));
+            }
+            idsByName = idsByKey(table, "name", wantedNames);
+        }
+
+        //Ids of one movie's links, throws with the first one that doesn't exist
+        <T> Set<Long> idsOf(Collection<T> references, Function<T, Long> idOf, Function<T, String> nameOf) {
+            Set<Long> ids = new LinkedHashSet<>();
+            for (T reference : references) {
+                Long id = idOf.apply(reference);
+                String name = nameOf.apply(reference);
+                if (id == null && name != null) {
+                    id = idsByName.get(name.trim());
+                    if (id == null) {
+                        throw new IllegalArgumentException(entityName + " not found with name: " + name);
+                    }
+                } else if (id == null || !foundIds.contains(id)) {
+                    throw new IllegalArgumentException(entityName + " not found with id: " + id);
+                }
+                ids.add(id);
+            }
+            linked.addAll(ids);
+            return ids;
+        }
+    }
+
+    //Counts and errors of an import, or of one chunk until its transaction commits
+    //Only the first maxErrors errors are kept, so a file full of bad rows doesn't fill the memory
+    private class Report {
+        private long rows;
+        private long movies;
+        private long actors;
+        private long genres;
+        private long failed;
+        private final List<ImportResult.RowError> errors = new ArrayList<>();
+
+        void fail(long row, String error) {
+            failed++;
+            if (errors.size() < maxErrors) {
+                errors.add(new ImportResult.RowError(row, error));
+            }
+        }
+
+        void add(Report chunk) {
+            movies += chunk.movies;
+            actors += chunk.actors;
+            genres += chunk.genres;
+            failed += chunk.failed;
+            for (ImportResult.RowError error : chunk.errors) {
+                if (errors.size() < maxErrors) {
+                    errors.add(error);
+                }
+            }
+        }
+
+        ImportResult toResult() {
+            errors.sort(Comparator.comparingLong(ImportResult.RowError::row));
+            return new ImportResult(rows, movies, actors, genres, failed, errors);
+        }
+    }
+}
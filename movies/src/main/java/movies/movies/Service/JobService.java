@@ -0,0 +1,73 @@
+package movies.movies.Service;
+
+import movies.movies.Dto.Job;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+//Runs long writes in the background and keeps their status for movies.jobs.retention so clients can poll it
+@Service
+public class JobService {
+
+    private static final Logger log = LoggerFactory.getLogger(JobService.class);
+
+    @Autowired
+    private ExecutorService jobExecutor;
+
+    private final Cache<String, Job> jobs;
+
+    public JobService(@Value("${movies.jobs.retention:1h}") Duration retention) {
+        jobs = Caffeine.newBuilder()
+                .expireAfterWrite(retention)
+                .maximumSize(10_000)
+                .build();
+    }
+
+    //Queues the work and returns its job right away, the work runs in its own transaction(s)
+    public Job submit(String description, Runnable work) {
+        Job job = create(description);
+        jobExecutor.execute(() -> run(job, work));
+        return job;
+    }
+
+    //For work that is queued and run elsewhere (see MovieWriteQueue): a pending job whose status the caller keeps up to date
+    public Job create(String description) {
+        Job job = Job.pending(UUID.randomUUID().toString(), description);
+        jobs.put(job.id(), job);
+        return job;
+    }
+
+    public void update(Job job) {
+        jobs.put(job.id(), job);
+    }
+
+    //Forgets a job that was never queued
+    public void remove(Job job) {
+        jobs.invalidate(job.id());
+    }
+
+    public Optional<Job> getJob(String id) {
+        return Optional.ofNullable(jobs.getIfPresent(id));
+    }
+
+    private void run(Job job, Runnable work) {
+        jobs.put(job.id(), job.running());
+        try {
+            work.run();
+            jobs.put(job.id(), job.succeeded());
+        } catch (RuntimeException e) {
+            log.warn("Job {} ({}) failed", job.id(), job.description(), e);
+            jobs.put(job.id(), job.failed(e.getMessage()));
+        }
+    }
+}
@@ -4,20 +4,43 @@ import movies.movies.Entity.Genre;
 import movies.movies.Entity.Movie;
 import movies.movies.Entity.Actor;
 
+import movies.movies.Dto.ActorSummary;
+import movies.movies.Dto.Cursor;
+import movies.movies.Dto.EntityVersion;
+import movies.movies.Dto.Job;
+import movies.movies.Dto.MovieFacets;
+import movies.movies.Dto.MovieFacets.Facet;
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Dto.MovieSummary;
+
 import movies.movies.Repository.GenreRepository;
 import movies.movies.Repository.ActorRepository;
 import movies.movies.Repository.MovieRepository;
+import movies.movies.Repository.MovieSpecifications;
 
 import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Search.ActorGraph;
+import movies.movies.Search.FilterIndex;
+import movies.movies.Search.SearchIndex;
+import movies.movies.Search.TextIndex;
+import movies.movies.Service.CatalogVersions.Table;
 
 
 import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.transaction.Transactional;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.annotation.Cacheable;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
+import java.time.Instant;
 import java.util.*;
 
 @Service
@@ -30,70 +53,205 @@ public class MovieService {
     private ActorRepository actorRepository;
     @Autowired
     private ObjectMapper jacksonObjectMapper; //Using objectmapper in the update method
+    @Autowired
+    private ReferenceResolver referenceResolver;
+    @Autowired
+    private CatalogCache catalogCache;
+    @Autowired
+    private SearchIndex searchIndex;
+    @Autowired
+    private FilterIndex filterIndex;
+    @Autowired
+    private ActorGraph actorGraph;
+    @Autowired
+    private JobService jobService;
+    @Autowired
+    private CatalogStats catalogStats;
+    @Autowired
+    private CatalogVersions catalogVersions;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    //How many actors the facets list, the ones in most of the matching movies
+    @Value("${movies.facets.top-actors:10}")
+    private int topActors;
 
     //Method to create a movie with it's associated actors/genres
     @Transactional
     public Movie createMovie (Movie movie){
         if (!movie.getActors().isEmpty()) { //Checks if the associated actors exist and throws an exception if not
-            Set<Actor> existingActors = new HashSet<>();
-            for (Actor actor : movie.getActors()) {
-                Actor existingActor = actorRepository.findById(actor.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Actor not found with id: " + actor.getId()));
-                existingActors.add(existingActor); //If actor is found then it's added to the new set
-                existingActor.getMovies().add(movie); //Adds the new movie to the existing actor
-            }
-            movie.setActors(existingActors); 
-            //Sets the actors to the new movie
+            Set<Actor> existingActors = referenceResolver.resolve(actorRepository, movie.getActors(), Actor::getId, "Actor");
+            //The movie owns the links, so only its side is set: the movie lists of the actors are never loaded
+            movie.setActors(existingActors);
         }
         if (!movie.getGenres().isEmpty()) {
             //Checks if the associated genres exist and throws an exception if not
-            Set<Genre> existingGenres = new HashSet<>();
-            for (Genre genre : movie.getGenres()) {
-                Genre existingGenre = genreRepository.findById(genre.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Genre not found with id: " + genre.getId()));
-                existingGenres.add(existingGenre); //If genre is found then it's added to the new set
-                existingGenre.getMovies().add(movie); //Add the new movie to the existing genre
-            }
-            movie.setGenres(existingGenres); //Sets the genres to the new movie
+            Set<Genre> existingGenres = referenceResolver.resolve(genreRepository, movie.getGenres(), Genre::getId, "Genre");
+            movie.setGenres(existingGenres); //Sets the genres to the new movie, same as the actors
         }
         movie.setTitle(movie.getTitle().trim()); //Trim blank spaces in front and back of the title
-        return movieRepository.save(movie);
+        //The cached actors and genres now have one more movie in their lists
+        catalogCache.evictActors(CatalogCache.idsOf(movie.getActors(), Actor::getId));
+        catalogCache.evictGenres(CatalogCache.idsOf(movie.getGenres(), Genre::getId));
+        Movie savedMovie = movieRepository.save(movie);
+        searchIndex.putMovie(savedMovie.getId(), savedMovie.getTitle());
+        CatalogStats.MovieFacts facts = CatalogStats.MovieFacts.of(savedMovie);
+        catalogStats.movieAdded(facts);
+        filterIndex.movieAdded(savedMovie.getId(), facts);
+        actorGraph.movieCast(savedMovie.getId(), facts.actorIds());
+        catalogVersions.changed(Table.MOVIES, Table.GENRES, Table.ACTORS);
+        return savedMovie;
     }
 
     //Method to get all movies with pagination
-    public Page<Movie> getAllMovies (Pageable pageable) {
-        return movieRepository.findAll(pageable);
+    //Reads return projections in a read-only transaction, genres and actors are loaded together with the page
+    @Transactional(readOnly = true)
+    public Page<MovieSummary> getAllMovies (Pageable pageable) {
+        return movieRepository.findAllSummaries(pageable);
     }
 
-    //Method to get a movie by ID and throw an exception if not found
-    public Optional<Movie> getMovieById(Long id) {
-        return Optional.ofNullable(movieRepository.findById(id)
-                .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + id)));
+    //Movies matching any mix of filters, one page in the order of the pageable
+    //Sorted by id (the default) the matches and the total come from the filter index and only the page is read from the database
+    //Other sort orders, and the time until the index is built, use the queries: their own for a single genre, year or actor,
+    //a query built from the filter for a combination
+    @Transactional(readOnly = true)
+    public Page<MovieSummary> getMovies(MovieFilter filter, Pageable pageable) {
+        Page<Long> ids;
+        if (filterIndex.isReady() && FilterIndex.isIdOrder(pageable.getSort())) {
+            ids = filterIndex.movies(filter, pageable);
+        } else if (filter.singleGenre() != null) {
+            ids = movieRepository.findIdsByGenresId(filter.singleGenre(), pageable);
+        } else if (filter.singleYear() != null) {
+            ids = movieRepository.findIdsByReleaseYear(filter.singleYear(), pageable);
+        } else if (filter.singleActor() != null) {
+            ids = movieRepository.findIdsByActorsId(filter.singleActor(), pageable);
+        } else {
+            ids = movieRepository.findAll(MovieSpecifications.matching(filter), pageable).map(Movie::getId);
+        }
+        if (ids.isEmpty()) {
+            throw noMoviesFound(filter);
+        }
+        return movieRepository.summaries(ids);
     }
 
-    //Method to get all movies by genre ID and with pagination
-    public Page<Movie> getMoviesByGenreId(Long genre, Pageable pageable) {
-        Page<Movie> movies = movieRepository.findByGenresId(genre, pageable);
-        if (movies.isEmpty()) {
-            throw new ResourceNotFoundException("Movies not found with genre id: " + genre);
+    //The 404 of an empty listing, with the messages the single genre, year and actor listings had
+    //An actor that doesn't exist is reported as such, the database is only asked once nothing matched
+    private ResourceNotFoundException noMoviesFound(MovieFilter filter) {
+        for (Long actor : filter.actors()) {
+            if (!actorRepository.existsById(actor)) {
+                return new ResourceNotFoundException("Actor not found with id: " + actor);
+            }
         }
-        return movies;
+        if (filter.singleGenre() != null) {
+            return new ResourceNotFoundException("Movies not found with genre id: " + filter.singleGenre());
+        } else if (filter.singleYear() != null) {
+            return new ResourceNotFoundException("Movies not found with release year: " + filter.singleYear());
+        } else if (filter.singleActor() != null) {
+            return new ResourceNotFoundException("No associated movies found for actor with id: " + filter.singleActor());
+        }
+        return new ResourceNotFoundException("No movies found with the given filters");
     }
-    //Method to get all movies by release year and with pagination
-    public Page<Movie> getMoviesByReleaseYear(int releaseYear, Pageable pageable) {
-        Page<Movie> movies = movieRepository.findByReleaseYear(releaseYear, pageable);
-        if (movies.isEmpty()) {
-            throw new ResourceNotFoundException("Movies not found with release year: " + releaseYear);
+
+    //Cursor mode of the movie listing: the movies after the cursor sorted by id, with the same filters
+    //Fetches one id more than asked for to know if there's a next slice, and never counts the matches
+    @Transactional(readOnly = true)
+    public Slice<MovieSummary> getMoviesAfter(MovieFilter filter, Cursor after, int size) {
+        Limit limit = Limit.of(size + 1);
+        List<Long> ids;
+        if (filterIndex.isReady()) {
+            ids = filterIndex.moviesAfter(filter, after.id(), size + 1);
+        } else if (filter.isEmpty()) {
+            ids = movieRepository.findIdsAfter(after.id(), limit);
+        } else if (filter.singleGenre() != null) {
+            ids = movieRepository.findIdsByGenresIdAfter(filter.singleGenre(), after.id(), limit);
+        } else if (filter.singleYear() != null) {
+            ids = movieRepository.findIdsByReleaseYearAfter(filter.singleYear(), after.id(), limit);
+        } else if (filter.singleActor() != null) {
+            ids = movieRepository.findIdsByActorsIdAfter(filter.singleActor(), after.id(), limit);
+        } else {
+            ids = movieRepository.findBy(MovieSpecifications.matching(filter).and(MovieSpecifications.idAfter(after.id())),
+                    query -> query.sortBy(Sort.by("id")).limit(size + 1).all()).stream().map(Movie::getId).toList();
         }
-        return movies;
+        return movieRepository.slice(ids, size);
+    }
+
+    //The count that the cursor mode leaves out, for the same filters, or of a title search
+    @Transactional(readOnly = true)
+    public long countMovies(MovieFilter filter, String title) {
+        if (!filter.isEmpty()) {
+            if (filterIndex.isReady()) {
+                return filterIndex.count(filter);
+            } else if (filter.singleGenre() != null) {
+                return movieRepository.countByGenresId(filter.singleGenre());
+            } else if (filter.singleYear() != null) {
+                return movieRepository.countByReleaseYear(filter.singleYear());
+            } else if (filter.singleActor() != null) {
+                return movieRepository.countByActorsId(filter.singleActor());
+            }
+            return movieRepository.count(MovieSpecifications.matching(filter));
+        } else if (title != null) {
+            return searchIndex.isReady() ? searchIndex.countMovies(title) : movieRepository.countByTitleContainingIgnoreCase(title);
+        }
+        return filterIndex.isReady() ? filterIndex.count(filter) : movieRepository.count();
+    }
+
+    //Facets of the movie listing with these filters, counted on the filter index
+    //Null until the index is built, the listing is then answered without them
+    @Transactional(readOnly = true)
+    public MovieFacets getFacets(MovieFilter filter) {
+        return filterIndex.isReady() ? named(filterIndex.facets(filter, topActors)) : null;
+    }
+
+    //Facets of every movie a title search matches, not just of the page shown
+    @Transactional(readOnly = true)
+    public MovieFacets getTitleFacets(String title, boolean fuzzy) {
+        if (!filterIndex.isReady() || !searchIndex.isReady()) {
+            return null;
+        }
+        return named(filterIndex.facets(searchIndex.movieMatches(title, fuzzy), topActors));
+    }
+
+    //Fills in the genre and actor names, one query for each side
+    private MovieFacets named(MovieFacets facets) {
+        Map<Long, String> genreNames = new HashMap<>();
+        if (!facets.genres().isEmpty()) {
+            genreRepository.findRefsByIdIn(CatalogCache.idsOf(facets.genres(), Facet::id))
+                    .forEach(genre -> genreNames.put(genre.id(), genre.name()));
+        }
+        Map<Long, String> actorNames = new HashMap<>();
+        if (!facets.actors().isEmpty()) {
+            actorRepository.findRefsByIdIn(CatalogCache.idsOf(facets.actors(), Facet::id))
+                    .forEach(actor -> actorNames.put(actor.id(), actor.name()));
+        }
+        return new MovieFacets(named(facets.genres(), genreNames), facets.decades(), facets.durations(),
+                named(facets.actors(), actorNames));
+    }
+
+    private static List<Facet> named(List<Facet> facets, Map<Long, String> names) {
+        List<Facet> result = new ArrayList<>(facets.size());
+        for (Facet facet : facets) {
+            result.add(new Facet(facet.id(), names.get(facet.id()), facet.from(), facet.to(), facet.count()));
+        }
+        return result;
+    }
+
+    //Method to get a movie by ID and throw an exception if not found
+    //Served from the cache when possible, a not found movie is never cached
+    @Cacheable(cacheNames = CatalogCache.MOVIES, key = "#id")
+    @Transactional(readOnly = true)
+    public Optional<MovieSummary> getMovieById(Long id) {
+        return Optional.ofNullable(movieRepository.findSummaryById(id)
+                .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + id)));
     }
+
     //Method to get all the actors in a specific movie with pagination
-    public Page<Actor> getAllActorsInMovie(Long movieId, Pageable pageable) {
+    @Transactional(readOnly = true)
+    public Page<ActorSummary> getAllActorsInMovie(Long movieId, Pageable pageable) {
         if (!movieRepository.existsById(movieId)) {
      //Firstly checks if the movie exists in the movie repository
             throw new ResourceNotFoundException("Movie not found with id: " + movieId);
         }
-        Page<Actor> actors = actorRepository.findByMoviesId(movieId, pageable); 
+        Page<ActorSummary> actors = actorRepository.findSummariesByMoviesId(movieId, pageable); 
     //If movie exists then calls the actor list from the actor repository
         if (actors.isEmpty()) { 
     //Throws an exception if no actors have been associated with the given movie
@@ -102,13 +260,24 @@ public class MovieService {
         return actors;
     }
 
+    //Version of a movie for the conditional GET, empty if there's no such movie
+    @Transactional(readOnly = true)
+    public Optional<EntityVersion> getMovieVersion(Long id) {
+        return movieRepository.findVersionById(id);
+    }
+
     //Method to update an existing movie and throw an exception if not found
+    //expectedVersion comes from an If-Match header, the update fails if the movie has a newer version
     @Transactional
-    public Optional<Movie> updateMovie(Long id, Map<String, Object> updates) {
+    public Optional<Movie> updateMovie(Long id, Map<String, Object> updates, Long expectedVersion) {
         Movie existingMovie = movieRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + id));
+        CatalogVersions.checkVersion("Movie", id, expectedVersion, existingMovie.getVersion());
 
-        
+        //Actors and genres linked before the update also show this movie in their cached lists
+        Set<Long> affectedActorIds = CatalogCache.idsOf(existingMovie.getActors(), Actor::getId);
+        Set<Long> affectedGenreIds = CatalogCache.idsOf(existingMovie.getGenres(), Genre::getId);
+        CatalogStats.MovieFacts before = CatalogStats.MovieFacts.of(existingMovie);
     
         // Convert incoming raw map to Movie object (used for extracting updated fields)
 
@@ -131,12 +300,8 @@ public class MovieService {
             existingMovie.getGenres().clear();
         }
          else if (!updatedMovie.getGenres().isEmpty()) {
-            Set<Genre> updatedGenres = new HashSet<>();
-            for (Genre genre : updatedMovie.getGenres()) { //Checks if the given genres exist
-                Genre existingGenre = genreRepository.findById(genre.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Genre not found with id: " + genre.getId()));
-                updatedGenres.add(existingGenre);
-            }
+            //Checks if the given genres exist
+            Set<Genre> updatedGenres = referenceResolver.resolve(genreRepository, updatedMovie.getGenres(), Genre::getId, "Genre");
             existingMovie.getGenres().clear(); //Clears the previous genres and adds all the new genres
             existingMovie.getGenres().addAll(updatedGenres);
         }
@@ -147,43 +312,101 @@ public class MovieService {
             existingMovie.getActors().clear();
         }
         if (!updatedMovie.getActors().isEmpty()) {
-            Set<Actor> updatedActors = new HashSet<>();
-            for (Actor actor : updatedMovie.getActors()) { //Checks if the given actors exist
-                Actor existingActor = actorRepository.findById(actor.getId())
-                        .orElseThrow(() -> new ResourceNotFoundException("Actor not found with id: " + actor.getId()));
-                updatedActors.add(existingActor);
-            }
+            //Checks if the given actors exist
+            Set<Actor> updatedActors = referenceResolver.resolve(actorRepository, updatedMovie.getActors(), Actor::getId, "Actor");
             existingMovie.getActors().clear(); //Clears all the previous actors and add all the new actors
             existingMovie.getActors().addAll(updatedActors);
         }
+
+        //Evicts the movie and both sides of its links as they were before and after the update
+        affectedActorIds.addAll(CatalogCache.idsOf(existingMovie.getActors(), Actor::getId));
+        affectedGenreIds.addAll(CatalogCache.idsOf(existingMovie.getGenres(), Genre::getId));
+        catalogCache.evictMovies(List.of(id));
+        catalogCache.evictActors(affectedActorIds);
+        catalogCache.evictGenres(affectedGenreIds);
+        searchIndex.putMovie(id, existingMovie.getTitle());
+        CatalogStats.MovieFacts after = CatalogStats.MovieFacts.of(existingMovie);
+        catalogStats.movieUpdated(before, after);
+        filterIndex.movieUpdated(id, before, after);
+        actorGraph.movieCast(id, after.actorIds());
+        catalogVersions.changed(Table.MOVIES, Table.GENRES, Table.ACTORS);
         return Optional.of(existingMovie);
     }
 
     
     //Method to delete a movie and throw an exception if movie isn't found or it has associated genres or actors
+    //Same delete as a background job, for movies with very many links
+    //Checks the movie exists first so a wrong id still gets a 404 right away
+    public Job deleteMovieInBackground(Long id, boolean force) {
+        if (!movieRepository.existsById(id)) {
+            throw new ResourceNotFoundException("Movie not found with id: " + id);
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        return jobService.submit("Delete movie " + id, () -> transaction.executeWithoutResult(status -> deleteMovie(id, force)));
+    }
+
     @Transactional
     public void deleteMovie(Long id, boolean force) {
         Movie movie = movieRepository.findById(id)
                 .orElseThrow(() -> new ResourceNotFoundException("Movie not found with id: " + id));
-        if (!force && (!movie.getGenres().isEmpty() || !movie.getActors().isEmpty())) {
+        //Only the ids of the linked genres and actors are read, the collections are never loaded
+        List<Long> genreIds = movieRepository.findGenreIdsById(id);
+        List<Long> actorIds = movieRepository.findActorIdsById(id);
+        if (!force && (!genreIds.isEmpty() || !actorIds.isEmpty())) {
             throw new IllegalStateException("Unable to delete movie '" + movie.getTitle() + "' because it has associated genre(s) or actor(s)");
         }
-        if (force) { //If force=true then removes the movie from all the associated genres and actors
-            for (Genre genre : movie.getGenres()) {
-                genre.getMovies().remove(movie);
-            }
-            for (Actor actor : movie.getActors()) {
-                actor.getMovies().remove(movie);
-            }
-            movie.getGenres().clear();
-            movie.getActors().clear();
+        catalogCache.evictMovies(List.of(id));
+        catalogCache.evictActors(actorIds);
+        catalogCache.evictGenres(genreIds);
+        searchIndex.removeMovie(id);
+        CatalogStats.MovieFacts facts = new CatalogStats.MovieFacts(movie.getReleaseYear(), movie.getDuration(),
+                Set.copyOf(genreIds), Set.copyOf(actorIds));
+        catalogStats.movieRemoved(facts);
+        filterIndex.movieRemoved(id, facts);
+        actorGraph.movieRemoved(id);
+        catalogVersions.changed(Table.MOVIES, Table.GENRES, Table.ACTORS);
+        //If force=true the links go with one delete per join table, then the movie row
+        //The genres and actors that listed the movie get a new version
+        movieRepository.unlinkAllGenres(id);
+        movieRepository.unlinkAllActors(id);
+        movieRepository.deleteRowById(id);
+        if (!genreIds.isEmpty()) {
+            genreRepository.touchByIdIn(genreIds, Instant.now());
+        }
+        if (!actorIds.isEmpty()) {
+            actorRepository.touchByIdIn(actorIds, Instant.now());
         }
-        movieRepository.delete(movie);
     }
 
     //Method to find movies by title (case-insensitive and partial match)
-    public Page<Movie> findByTitle (String title, Pageable pageable) {
-        Page<Movie> movies = movieRepository.findByTitleContainingIgnoreCase(title, pageable);
+    //Results come from the search index ranked by relevance, the database query is only used until the index is built
+    //With fuzzy=true titles with misspelled words match too, the database query doesn't do that
+    //Returns an empty page when nothing matches
+    @Transactional(readOnly = true)
+    public Page<MovieSummary> searchByTitle (String title, boolean fuzzy, Pageable pageable) {
+        return searchIndex.isReady()
+                ? movieRepository.summaries(searchIndex.searchMovies(title, fuzzy, pageable))
+                : movieRepository.findSummariesByTitleContainingIgnoreCase(title, pageable);
+    }
+
+    //Cursor mode of the title search: sorted by lowercase title and id instead of by relevance
+    @Transactional(readOnly = true)
+    public Slice<MovieSummary> searchByTitleAfter(String title, Cursor after, int size) {
+        List<Long> ids = searchIndex.isReady()
+                ? searchIndex.movieMatchesAfter(title, after.key(), after.id(), size + 1)
+                : movieRepository.findIdsByTitleContainingIgnoreCaseAfter(title, after.key(), after.id(), Limit.of(size + 1));
+        return movieRepository.slice(ids, size);
+    }
+
+    //Cursor pointing right after the given movie in the title search
+    public static Cursor titleCursor(MovieSummary movie) {
+        return new Cursor(TextIndex.normalize(movie.title()), movie.id());
+    }
+
+    //Same search but throws an exception if no movies are found
+    @Transactional(readOnly = true)
+    public Page<MovieSummary> findByTitle (String title, boolean fuzzy, Pageable pageable) {
+        Page<MovieSummary> movies = searchByTitle(title, fuzzy, pageable);
         if (movies.isEmpty()) {
             throw new ResourceNotFoundException("No movies found with title containing: " + title);
         }
@@ -0,0 +1,182 @@
+package movies.movies.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import movies.movies.Dto.Job;
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import movies.movies.Exception.TooManyRequestsException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Write-behind for POST /api/movies?async=true.
+ * The request only queues the movie and gets a job back. A single writer thread takes the queued
+ * movies in order and creates up to batch-size of them in one transaction, so a burst of creates
+ * costs a few commits instead of one each, and request threads don't wait on the SQLite write lock.
+ * If a transaction fails, its movies are created again one transaction each, so only the movies
+ * that fail get a failed job. When the queue is full new movies are rejected with 429.
+ *
+ * On shutdown the queue stops taking movies and the writer creates the ones already queued before
+ * the database is closed. The queue is in memory: movies still queued when the process is killed are lost.
+ */
+@Service
+public class MovieWriteQueue {
+
+    private static final Logger log = LoggerFactory.getLogger(MovieWriteQueue.class);
+
+    @Autowired
+    private MovieService movieService;
+    @Autowired
+    private JobService jobService;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    //Movies created in one transaction at most
+    @Value("${movies.write-queue.batch-size:100}")
+    private int batchSize;
+
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer = Thread.ofPlatform().name("movie-writer").daemon().unstarted(this::drain);
+    private volatile boolean accepting = true;
+
+    //What the request asked for, a new entity is built from it for every attempt
+    private record NewMovie(String title, Integer releaseYear, Integer duration, List<Long> genreIds, List<Long> actorIds) {}
+
+    private record Pending(Job job, NewMovie movie) {}
+
+    public MovieWriteQueue(@Value("${movies.write-queue.capacity:10000}") int capacity) {
+        queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @PostConstruct
+    void start() {
+        meterRegistry.gaugeCollectionSize("movies.write.queue.size", Tags.empty(), queue);
+        writer.start();
+    }
+
+    //Queues a validated movie and returns its job, throws TooManyRequestsException if the queue is full
+    public Job submit(Movie movie) {
+        NewMovie newMovie = new NewMovie(movie.getTitle(), movie.getReleaseYear(), movie.getDuration(),
+                movie.getGenres().stream().map(Genre::getId).toList(), movie.getActors().stream().map(Actor::getId).toList());
+        //The job is stored first, the writer may finish it before offer() returns
+        Job job = jobService.create("Create movie '" + movie.getTitle() + "'");
+        if (!accepting || !queue.offer(new Pending(job, newMovie))) {
+            jobService.remove(job);
+            meterRegistry.counter("movies.write.queue.rejected").increment();
+            throw new TooManyRequestsException("Too many movies are waiting to be written, please try again later");
+        }
+        return job;
+    }
+
+    //Stops taking movies and waits for the writer to create the queued ones
+    //The writer isn't interrupted, that could break the connection it is writing with
+    @PreDestroy
+    void stop() throws InterruptedException {
+        accepting = false;
+        writer.join();
+    }
+
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (accepting || !queue.isEmpty()) {
+            Pending first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS); //Wakes up now and then to see if it should stop
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first == null) {
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, batchSize - 1);
+            write(batch);
+            batch.clear();
+        }
+    }
+
+    //All movies of the batch in one transaction, then one transaction each if that fails
+    private void write(List<Pending> batch) {
+        for (Pending pending : batch) {
+            jobService.update(pending.job().running());
+        }
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        try {
+            List<Movie> created = transaction.execute(status -> {
+                List<Movie> movies = new ArrayList<>(batch.size());
+                for (Pending pending : batch) {
+                    movies.add(movieService.createMovie(toEntity(pending.movie())));
+                }
+                return movies;
+            });
+            for (int i = 0; i < batch.size(); i++) {
+                succeeded(batch.get(i), created.get(i));
+            }
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                failed(batch.get(0), e);
+                return;
+            }
+            for (Pending pending : batch) {
+                try {
+                    succeeded(pending, transaction.execute(status -> movieService.createMovie(toEntity(pending.movie()))));
+                } catch (RuntimeException movieException) {
+                    failed(pending, movieException);
+                }
+            }
+        }
+    }
+
+    private void succeeded(Pending pending, Movie movie) {
+        jobService.update(pending.job().succeeded("/api/movies/" + movie.getId()));
+    }
+
+    private void failed(Pending pending, RuntimeException e) {
+        String error = e instanceof DataAccessException dataAccessException
+                ? "A database error occurred: " + dataAccessException.getMostSpecificCause().getMessage()
+                : e.getMessage();
+        log.debug("Job {} ({}) failed", pending.job().id(), pending.job().description(), e);
+        jobService.update(pending.job().failed(error));
+    }
+
+    //Genres and actors only carry their ids, as in the request body, createMovie loads them
+    private static Movie toEntity(NewMovie newMovie) {
+        Movie movie = new Movie();
+        movie.setTitle(newMovie.title());
+        movie.setReleaseYear(newMovie.releaseYear());
+        movie.setDuration(newMovie.duration());
+        movie.setGenres(new HashSet<>());
+        for (Long id : newMovie.genreIds()) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            movie.getGenres().add(genre);
+        }
+        movie.setActors(new HashSet<>());
+        for (Long id : newMovie.actorIds()) {
+            Actor actor = new Actor();
+            actor.setId(id);
+            movie.getActors().add(actor);
+        }
+        return movie;
+    }
+}
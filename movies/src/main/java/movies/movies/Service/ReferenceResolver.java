@@ -0,0 +1,62 @@
+package movies.movies.Service;
+
+import movies.movies.Exception.ResourceNotFoundException;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Component
+public class ReferenceResolver {
+
+    //Loads every referenced entity with one findAllById query instead of one findById per reference
+    //Throws a single exception that lists all the ids that were not found
+    public <T> Set<T> resolve(JpaRepository<T, Long> repository, Collection<T> references,
+                              Function<T, Long> idOf, String entityName) {
+        Set<Long> ids = new LinkedHashSet<>(); //Keeps the order the ids were given in for the error message
+        boolean hasMissingId = false;
+        for (T reference : references) {
+            Long id = idOf.apply(reference);
+            if (id == null) {
+                hasMissingId = true;
+            } else {
+                ids.add(id);
+            }
+        }
+
+        List<T> found = ids.isEmpty() ? List.of() : repository.findAllById(ids);
+        throwIfMissing(hasMissingId, ids, found.stream().map(idOf).collect(Collectors.toSet()), entityName);
+        return new HashSet<>(found);
+    }
+
+    //Same check for callers that only need to know the ids exist, existingIds looks up which of them are in the table
+    public Set<Long> requireIds(Collection<Long> references, Function<Collection<Long>, Collection<Long>> existingIds,
+                                String entityName) {
+        Set<Long> ids = new LinkedHashSet<>(references);
+        boolean hasMissingId = ids.remove(null);
+        throwIfMissing(hasMissingId, ids, ids.isEmpty() ? Set.of() : new HashSet<>(existingIds.apply(ids)), entityName);
+        return ids;
+    }
+
+    //Collects every id that did not come back from the database
+    private static void throwIfMissing(boolean hasMissingId, Set<Long> ids, Set<Long> foundIds, String entityName) {
+        List<String> missing = new ArrayList<>();
+        if (hasMissingId) {
+            missing.add("null");
+        }
+        for (Long id : ids) {
+            if (!foundIds.contains(id)) {
+                missing.add(String.valueOf(id));
+            }
+        }
+        if (missing.size() == 1) {
+            throw new ResourceNotFoundException(entityName + " not found with id: " + missing.get(0));
+        }
+        if (!missing.isEmpty()) {
+            throw new ResourceNotFoundException(entityName + " not found with ids: " + String.join(", ", missing));
+        }
+    }
+}
@@ -0,0 +1,45 @@
+-- The catalog tables on PostgreSQL, with the version columns that V2 adds on SQLite.
+-- Ids come from sequences in blocks of 50 (see META-INF/orm-postgres.xml); the defaults are for the plain
+-- JDBC inserts of the bulk import, a value they take is never handed out to Hibernate.
+create sequence tbl_genre_seq start with 1 increment by 50;
+create sequence tbl_actor_seq start with 1 increment by 50;
+create sequence tbl_movie_seq start with 1 increment by 50;
+
+create table tbl_genre (
+    id bigint not null default nextval('tbl_genre_seq'),
+    name varchar(20) not null unique,
+    version bigint default 0,
+    last_modified timestamp(6) with time zone,
+    primary key (id)
+);
+
+create table tbl_actor (
+    id bigint not null default nextval('tbl_actor_seq'),
+    birth_date date not null,
+    name varchar(50) not null unique,
+    version bigint default 0,
+    last_modified timestamp(6) with time zone,
+    primary key (id)
+);
+
+create table tbl_movie (
+    id bigint not null default nextval('tbl_movie_seq'),
+    duration integer not null check ((duration>=1) and (duration<=1000)),
+    release_year integer not null check ((release_year<=2100) and (release_year>=1900)),
+    title varchar(100) not null unique,
+    version bigint default 0,
+    last_modified timestamp(6) with time zone,
+    primary key (id)
+);
+
+create table movie_genres (
+    movie_id bigint not null references tbl_movie (id),
+    genre_id bigint not null references tbl_genre (id),
+    primary key (movie_id, genre_id)
+);
+
+create table movie_actors (
+    movie_id bigint not null references tbl_movie (id),
+    actor_id bigint not null references tbl_actor (id),
+    primary key (movie_id, actor_id)
+);
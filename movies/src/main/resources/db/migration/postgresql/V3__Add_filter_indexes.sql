@@ -0,0 +1,15 @@
+-- Same indexes as on SQLite, see db/migration/sqlite
+create index idx_movie_genres_genre_movie on movie_genres (genre_id, movie_id);
+create index idx_movie_actors_actor_movie on movie_actors (actor_id, movie_id);
+
+create index idx_movie_release_year on tbl_movie (release_year, id);
+
+create index idx_movie_title_lower on tbl_movie (lower(title), id);
+create index idx_genre_name_lower on tbl_genre (lower(name));
+create index idx_actor_name_lower on tbl_actor (lower(name));
+
+-- Trigram indexes for the ContainingIgnoreCase searches, lower(x) like '%...%' can't use a b-tree
+create extension if not exists pg_trgm;
+create index idx_movie_title_trgm on tbl_movie using gin (lower(title) gin_trgm_ops);
+create index idx_genre_name_trgm on tbl_genre using gin (lower(name) gin_trgm_ops);
+create index idx_actor_name_trgm on tbl_actor using gin (lower(name) gin_trgm_ops);
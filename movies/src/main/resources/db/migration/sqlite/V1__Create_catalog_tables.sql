@@ -0,0 +1,34 @@
+-- The tables as Hibernate created them with ddl-auto=update, before the schema was managed by migrations.
+-- "if not exists" so databases created back then go through the same history (see spring.flyway.baseline-version).
+create table if not exists tbl_genre (
+    id integer,
+    name varchar(20) not null unique,
+    primary key (id)
+);
+
+create table if not exists tbl_actor (
+    id integer,
+    birth_date date not null,
+    name varchar(50) not null unique,
+    primary key (id)
+);
+
+create table if not exists tbl_movie (
+    id integer,
+    duration integer not null check ((duration>=1) and (duration<=1000)),
+    release_year integer not null check ((release_year<=2100) and (release_year>=1900)),
+    title varchar(100) not null unique,
+    primary key (id)
+);
+
+create table if not exists movie_genres (
+    movie_id bigint not null,
+    genre_id bigint not null,
+    primary key (movie_id, genre_id)
+);
+
+create table if not exists movie_actors (
+    movie_id bigint not null,
+    actor_id bigint not null,
+    primary key (movie_id, actor_id)
+);
@@ -0,0 +1,11 @@
+-- The primary keys of the join tables start with movie_id, so listing the movies of a genre or an actor
+-- scanned the whole join table. These indexes go the other way.
+create index if not exists idx_movie_genres_genre_movie on movie_genres (genre_id, movie_id);
+create index if not exists idx_movie_actors_actor_movie on movie_actors (actor_id, movie_id);
+
+create index if not exists idx_movie_release_year on tbl_movie (release_year, id);
+
+-- Case-insensitive order and ranges on titles and names, as in the cursor mode of the title search
+create index if not exists idx_movie_title_lower on tbl_movie (lower(title), id);
+create index if not exists idx_genre_name_lower on tbl_genre (lower(name));
+create index if not exists idx_actor_name_lower on tbl_actor (lower(name));
@@ -0,0 +1,221 @@
+package movies.movies;
+
+import movies.movies.Dto.ActorPath;
+import movies.movies.Dto.ActorRef;
+import movies.movies.Dto.Costar;
+import movies.movies.Dto.MovieRef;
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Repository.ActorRepository;
+import movies.movies.Repository.MovieRepository;
+import movies.movies.Search.ActorGraph;
+import movies.movies.Service.ActorService;
+import movies.movies.Service.GenreService;
+import movies.movies.Service.MovieService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Co-stars and shortest paths from the actor graph on a small hand-made cast list, checked against
+ * the co-star query the service falls back to, also after writes that change the casts.
+ */
+@SpringBootTest
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ActorGraphTests {
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path database = Files.createTempDirectory("actor-graph").resolve("movies.db");
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + database);
+    }
+
+    private static final Pageable ALL = PageRequest.of(0, 100);
+
+    @Autowired
+    private ActorGraph actorGraph;
+    @Autowired
+    private ActorService actorService;
+    @Autowired
+    private MovieService movieService;
+    @Autowired
+    private GenreService genreService;
+    @Autowired
+    private ActorRepository actorRepository;
+    @Autowired
+    private MovieRepository movieRepository;
+
+    private Long genre;
+    //a and b share two movies, then a chain a - c - d - e, f only plays alone and g in nothing
+    private Long a, b, c, d, e, f, g;
+
+    @BeforeAll
+    void casts() {
+        Genre drama = new Genre();
+        drama.setName("Drama");
+        genre = genreService.createGenre(drama).getId();
+        a = actor("Actor A");
+        b = actor("Actor B");
+        c = actor("Actor C");
+        d = actor("Actor D");
+        e = actor("Actor E");
+        f = actor("Actor F");
+        g = actor("Actor G");
+        movie("One", a, b, c);
+        movie("Two", a, b);
+        movie("Three", c, d);
+        movie("Four", d, e);
+        movie("Five", f);
+        assertTrue(actorGraph.isReady());
+    }
+
+    @Test
+    void pathToItself() {
+        ActorPath path = actorService.getPath(a, a, ActorGraph.MAX_DEGREES);
+        assertEquals(0, path.degrees());
+        assertEquals(List.of(a), path.actors().stream().map(ActorRef::id).toList());
+        assertEquals(List.of(), path.movies());
+    }
+
+    @Test
+    void pathBetweenCostars() {
+        ActorPath path = actorService.getPath(a, b, ActorGraph.MAX_DEGREES);
+        assertEquals(1, path.degrees());
+        assertEquals(List.of(a, b), path.actors().stream().map(ActorRef::id).toList());
+        assertChained(path);
+    }
+
+    @Test
+    void pathOverSeveralMovies() {
+        ActorPath path = actorService.getPath(a, e, ActorGraph.MAX_DEGREES);
+        assertEquals(3, path.degrees());
+        assertEquals(List.of(a, c, d, e), path.actors().stream().map(ActorRef::id).toList());
+        assertChained(path);
+        //The other way round it's the same chain reversed
+        assertEquals(List.of(e, d, c, a), actorService.getPath(e, a, ActorGraph.MAX_DEGREES).actors().stream().map(ActorRef::id).toList());
+        //Longer than allowed
+        assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(a, e, 2));
+    }
+
+    @Test
+    void unreachableActors() {
+        ResourceNotFoundException noPath = assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(a, f, ActorGraph.MAX_DEGREES));
+        assertEquals("No path between actors " + a + " and " + f + " within " + ActorGraph.MAX_DEGREES + " degrees", noPath.getMessage());
+        assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(g, a, ActorGraph.MAX_DEGREES));
+        assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(a, 999999L, ActorGraph.MAX_DEGREES));
+    }
+
+    @Test
+    void costarsByMostSharedMoviesThenId() {
+        assertEquals(List.of(new Costar(b, "Actor B", 2), new Costar(c, "Actor C", 1)), actorService.getCostars(a, ALL).getContent());
+        assertEquals(List.of(a, b, d), actorService.getCostars(c, ALL).map(Costar::id).getContent());
+        assertEquals(List.of(b), actorService.getCostars(a, PageRequest.of(0, 1)).map(Costar::id).getContent());
+        assertEquals(List.of(c), actorService.getCostars(a, PageRequest.of(1, 1)).map(Costar::id).getContent());
+        assertEquals(2, actorService.getCostars(a, PageRequest.of(0, 1)).getTotalElements());
+        assertEquals(List.of(), actorService.getCostars(f, ALL).getContent());
+        for (Long actor : List.of(a, b, c, d, e, f, g)) {
+            assertSameAsQuery(actor);
+        }
+    }
+
+    @Test
+    void linkAndUnlinkMovies() {
+        Long p = actor("Actor P");
+        Long q = actor("Actor Q");
+        Long r = actor("Actor R");
+        Long together = movie("Together", p, q);
+        Long apart = movie("Apart", r);
+        assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(p, r, ActorGraph.MAX_DEGREES));
+
+        actorService.linkMovies(r, List.of(together));
+        assertEquals(1, actorService.getPath(p, r, ActorGraph.MAX_DEGREES).degrees());
+        assertEquals(List.of(q, r), actorService.getCostars(p, ALL).map(Costar::id).getContent());
+        //Linking again changes nothing
+        actorService.linkMovies(p, List.of(together, apart));
+        assertEquals(List.of(new Costar(r, "Actor R", 2), new Costar(q, "Actor Q", 1)), actorService.getCostars(p, ALL).getContent());
+
+        actorService.unlinkMovies(q, List.of(together));
+        assertEquals(List.of(), actorService.getCostars(q, ALL).getContent());
+        assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(p, q, ActorGraph.MAX_DEGREES));
+        for (Long actor : List.of(p, q, r)) {
+            assertSameAsQuery(actor);
+        }
+    }
+
+    @Test
+    void deletedMovieLeavesTheGraph() {
+        Long x = actor("Actor X");
+        Long y = actor("Actor Y");
+        Long z = actor("Actor Z");
+        Long first = movie("First", x, y);
+        movie("Second", y, z);
+        assertEquals(2, actorService.getPath(x, z, ActorGraph.MAX_DEGREES).degrees());
+
+        movieService.deleteMovie(first, true);
+        assertEquals(List.of(), actorService.getCostars(x, ALL).getContent());
+        assertEquals(List.of(z), actorService.getCostars(y, ALL).map(Costar::id).getContent());
+        assertThrows(ResourceNotFoundException.class, () -> actorService.getPath(x, z, ActorGraph.MAX_DEGREES));
+        for (Long actor : List.of(x, y, z)) {
+            assertSameAsQuery(actor);
+        }
+        //A rebuild from the join table gives the same graph
+        actorGraph.rebuild();
+        assertEquals(List.of(z), actorService.getCostars(y, ALL).map(Costar::id).getContent());
+        assertSameAsQuery(a);
+    }
+
+    //Every movie of the path has both the actor before it and the one after it
+    private void assertChained(ActorPath path) {
+        for (int i = 0; i < path.movies().size(); i++) {
+            MovieRef movie = path.movies().get(i);
+            List<Long> cast = movieRepository.findActorIdsById(movie.id());
+            assertTrue(cast.contains(path.actors().get(i).id()), movie.title());
+            assertTrue(cast.contains(path.actors().get(i + 1).id()), movie.title());
+        }
+    }
+
+    private void assertSameAsQuery(Long actor) {
+        List<Costar> expected = actorRepository.findCostarsById(actor, ALL)
+                .map(row -> new Costar((Long) row[0], null, ((Number) row[1]).intValue())).getContent();
+        assertEquals(expected, actorGraph.costars(actor, ALL).getContent(), "co-stars of " + actor);
+    }
+
+    private Long actor(String name) {
+        Actor actor = new Actor();
+        actor.setName(name);
+        actor.setBirthDate(LocalDate.of(1970, 1, 1));
+        return actorService.createActor(actor).getId();
+    }
+
+    private Long movie(String title, Long... actorIds) {
+        Movie movie = new Movie();
+        movie.setTitle(title);
+        movie.setReleaseYear(2000);
+        movie.setDuration(100);
+        Genre drama = new Genre();
+        drama.setId(genre);
+        movie.getGenres().add(drama);
+        for (Long id : actorIds) {
+            Actor actor = new Actor();
+            actor.setId(id);
+            movie.getActors().add(actor);
+        }
+        return movieService.createMovie(movie).getId();
+    }
+}
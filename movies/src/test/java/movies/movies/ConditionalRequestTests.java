@@ -0,0 +1,150 @@
+package movies.movies;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ * ETag and Last-Modified of the listings and entities: 304 for a client's current copy, 412 for an update
+ * based on an old or foreign tag, new tags after a change of a linked table, and no validators on errors.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ConditionalRequestTests {
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path database = Files.createTempDirectory("conditional-requests").resolve("movies.db");
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + database);
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private String genre;
+    private String movie;
+
+    @BeforeAll
+    void catalog() throws Exception {
+        genre = create("/api/genres", "{\"name\": \"Noir\"}");
+        String actor = create("/api/actors", "{\"name\": \"Some Actor\", \"birthDate\": \"1950-01-01\"}");
+        movie = create("/api/movies", "{\"title\": \"Some Movie\", \"releaseYear\": 1999, \"duration\": 100, "
+                + "\"genres\": [{\"id\": " + genre + "}], \"actors\": [{\"id\": " + actor + "}]}");
+    }
+
+    @Test
+    void notModifiedForTheSameTag() throws Exception {
+        String etag = mockMvc.perform(get("/api/movies"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/api/movies").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isNotModified())
+                .andExpect(header().string(HttpHeaders.ETAG, etag));
+
+        String movieTag = mockMvc.perform(get("/api/movies/" + movie))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(get("/api/movies/" + movie).header(HttpHeaders.IF_NONE_MATCH, movieTag))
+                .andExpect(status().isNotModified());
+    }
+
+    @Test
+    void notModifiedSinceTheLastChange() throws Exception {
+        String lastModified = mockMvc.perform(get("/api/genres"))
+                .andExpect(status().isOk())
+                .andExpect(header().exists(HttpHeaders.LAST_MODIFIED))
+                .andReturn().getResponse().getHeader(HttpHeaders.LAST_MODIFIED);
+        mockMvc.perform(get("/api/genres").header(HttpHeaders.IF_MODIFIED_SINCE, lastModified))
+                .andExpect(status().isNotModified());
+        mockMvc.perform(get("/api/genres").header(HttpHeaders.IF_MODIFIED_SINCE, "Mon, 01 Jan 2001 00:00:00 GMT"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void errorsHaveNoValidators() throws Exception {
+        mockMvc.perform(get("/api/movies").param("genre", "999999"))
+                .andExpect(status().isNotFound())
+                .andExpect(jsonPath("$.ERROR").value("Movies not found with genre id: 999999"))
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED));
+        mockMvc.perform(get("/api/movies/999999"))
+                .andExpect(status().isNotFound())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG));
+        mockMvc.perform(get("/api/movies/search").param("title", "x").param("after", "x").param("fuzzy", "true"))
+                .andExpect(status().isBadRequest())
+                .andExpect(header().doesNotExist(HttpHeaders.ETAG))
+                .andExpect(header().doesNotExist(HttpHeaders.LAST_MODIFIED));
+    }
+
+    @Test
+    void preconditionFailedForAnOldOrForeignTag() throws Exception {
+        String created = create("/api/genres", "{\"name\": \"Western\"}");
+        String etag = mockMvc.perform(get("/api/genres/" + created))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        String updated = mockMvc.perform(patch("/api/genres/" + created).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"name\": \"Westerns\"}"))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, updated);
+
+        mockMvc.perform(patch("/api/genres/" + created).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"name\": \"Old Westerns\"}"))
+                .andExpect(status().isPreconditionFailed());
+        mockMvc.perform(patch("/api/genres/" + created).header(HttpHeaders.IF_MATCH, "\"not-a-tag\"")
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"name\": \"Old Westerns\"}"))
+                .andExpect(status().isPreconditionFailed())
+                .andExpect(jsonPath("$.ERROR").value("If-Match must be an ETag returned by this API"));
+        mockMvc.perform(get("/api/genres/" + created))
+                .andExpect(jsonPath("$.name").value("Westerns"));
+    }
+
+    //The movie's row doesn't change, but its JSON shows the genre's name
+    @Test
+    void renamedGenreChangesTheMovieTag() throws Exception {
+        MvcResult before = mockMvc.perform(get("/api/movies/" + movie)).andExpect(status().isOk()).andReturn();
+        String etag = before.getResponse().getHeader(HttpHeaders.ETAG);
+        mockMvc.perform(patch("/api/genres/" + genre).contentType(MediaType.APPLICATION_JSON).content("{\"name\": \"Film Noir\"}"))
+                .andExpect(status().isOk());
+
+        String renamed = mockMvc.perform(get("/api/movies/" + movie).header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.genres[0].name").value("Film Noir"))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+        assertNotEquals(etag, renamed);
+        //Still good for an update of the movie, only its own version is compared
+        mockMvc.perform(patch("/api/movies/" + movie).header(HttpHeaders.IF_MATCH, etag)
+                        .contentType(MediaType.APPLICATION_JSON).content("{\"duration\": 101}"))
+                .andExpect(status().isOk());
+    }
+
+    //Posts a JSON body, expects 201 Created and returns the id of the created entity
+    private String create(String path, String json) throws Exception {
+        String body = mockMvc.perform(post(path).contentType(MediaType.APPLICATION_JSON).content(json))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return body.replaceAll("(?s)^\\{\"id\":(\\d+).*$", "$1");
+    }
+}
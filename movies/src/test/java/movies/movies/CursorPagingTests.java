@@ -0,0 +1,195 @@
+package movies.movies;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import movies.movies.Dto.Cursor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import movies.movies.Repository.MovieRepository;
+import movies.movies.Service.GenreService;
+import movies.movies.Service.MovieService;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ * The after tokens of the cursor mode and walking the movie listing with them: every movie exactly once,
+ * in id order, with or without filters, and also when a movie is added halfway through.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class CursorPagingTests {
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path database = Files.createTempDirectory("cursor-paging").resolve("movies.db");
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + database);
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private ObjectMapper objectMapper;
+    @Autowired
+    private MovieService movieService;
+    @Autowired
+    private GenreService genreService;
+    @Autowired
+    private MovieRepository movieRepository;
+
+    private Long drama;
+    private Long comedy;
+
+    @BeforeAll
+    void catalog() {
+        drama = genre("Drama");
+        comedy = genre("Comedy");
+        //Every third movie is a comedy, the others dramas, and every fifth one both
+        for (int i = 0; i < 57; i++) {
+            movie("Movie " + i, 1990 + i % 20, i % 5 == 0 ? List.of(drama, comedy) : i % 3 == 0 ? List.of(comedy) : List.of(drama));
+        }
+    }
+
+    @Test
+    void cursorRoundTrips() {
+        for (Cursor cursor : List.of(new Cursor("", 42), new Cursor("the godfather: part ii", 7), new Cursor("amélie", Long.MAX_VALUE))) {
+            assertEquals(cursor, Cursor.decode(cursor.encode()));
+            assertFalse(cursor.encode().contains("="), "tokens are sent unpadded");
+        }
+        assertEquals(Cursor.START, Cursor.decode(null));
+        assertEquals(Cursor.START, Cursor.decode(" "));
+    }
+
+    @Test
+    void invalidCursorsAreRejected() throws Exception {
+        String noSeparator = Base64.getUrlEncoder().encodeToString("42".getBytes(StandardCharsets.UTF_8));
+        String notANumber = Base64.getUrlEncoder().encodeToString("x:title".getBytes(StandardCharsets.UTF_8));
+        for (String token : List.of("not base64!", noSeparator, notANumber)) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> Cursor.decode(token));
+            assertEquals("Invalid cursor: " + token, e.getMessage());
+        }
+        mockMvc.perform(get("/api/movies").param("after", "not base64!"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.ERROR").value("Invalid cursor: not base64!"));
+    }
+
+    //The cursor only follows the id order, any other sort would silently be ignored
+    @Test
+    void onlyTheIdOrderCanBeCombinedWithAfter() throws Exception {
+        for (String sort : List.of("title", "id,desc", "releaseYear,asc")) {
+            mockMvc.perform(get("/api/movies").param("after", "").param("sort", sort))
+                    .andExpect(status().isBadRequest())
+                    .andExpect(jsonPath("$.ERROR").value("sort can't be combined with after, cursor pages are always sorted by id"));
+        }
+        mockMvc.perform(get("/api/movies").param("after", "").param("sort", "id,asc"))
+                .andExpect(status().isOk());
+        mockMvc.perform(get("/api/movies").param("sort", "title"))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void walksEveryMovieOnce() throws Exception {
+        List<Long> all = movieRepository.findIds(PageRequest.of(0, 1000, Sort.by("id"))).getContent();
+        assertEquals(all, walk("", 10));
+        //One movie per page, and all of them on the first page
+        assertEquals(all, walk("", 1));
+        assertEquals(all, walk("", all.size()));
+    }
+
+    @Test
+    void walksEveryFilteredMovieOnce() throws Exception {
+        assertWalkMatchesListing("genre=" + comedy);
+        assertWalkMatchesListing("genre=" + drama + "," + comedy + "&minYear=1995");
+        assertWalkMatchesListing("genre=" + drama + "," + comedy + "&genreMatch=any&maxYear=2000");
+    }
+
+    //A movie added after the walk started has a higher id than every movie seen so far, so it's still reached once
+    @Test
+    void moviesAddedDuringTheWalkAreReached() throws Exception {
+        List<Long> seen = new ArrayList<>();
+        String after = "";
+        Long added = null;
+        while (after != null) {
+            JsonNode page = page(get("/api/movies").param("genre", String.valueOf(comedy)).param("size", "7").param("after", after));
+            page.get("content").forEach(movie -> seen.add(movie.get("id").asLong()));
+            if (added == null) {
+                added = movie("Added Halfway", 2001, List.of(comedy));
+            }
+            after = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        }
+        assertTrue(seen.contains(added));
+        assertEquals(seen.stream().distinct().sorted().toList(), seen);
+        assertEquals(movieRepository.findIdsByGenresId(comedy, PageRequest.of(0, 1000, Sort.by("id"))).getContent(), seen);
+    }
+
+    //The same filters as one page of the offset listing and walked with the cursor
+    private void assertWalkMatchesListing(String filters) throws Exception {
+        List<Long> expected = new ArrayList<>();
+        page(get("/api/movies?" + filters).param("size", "100")).get("content").forEach(movie -> expected.add(movie.get("id").asLong()));
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, walk(filters, 4));
+    }
+
+    //Follows nextCursor from the start to the last page, the ids in the order they came
+    private List<Long> walk(String filters, int size) throws Exception {
+        List<Long> ids = new ArrayList<>();
+        String after = "";
+        while (after != null) {
+            JsonNode page = page(get("/api/movies?" + filters).param("size", String.valueOf(size)).param("after", after));
+            page.get("content").forEach(movie -> ids.add(movie.get("id").asLong()));
+            assertEquals(page.get("hasNext").asBoolean(), !page.get("nextCursor").isNull());
+            after = page.get("nextCursor").isNull() ? null : page.get("nextCursor").asText();
+        }
+        assertEquals(ids.stream().distinct().sorted().toList(), ids, "every movie once, in id order");
+        return ids;
+    }
+
+    private JsonNode page(MockHttpServletRequestBuilder request) throws Exception {
+        String body = mockMvc.perform(request)
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return objectMapper.readTree(body);
+    }
+
+    private Long genre(String name) {
+        Genre genre = new Genre();
+        genre.setName(name);
+        return genreService.createGenre(genre).getId();
+    }
+
+    private Long movie(String title, int year, List<Long> genreIds) {
+        Movie movie = new Movie();
+        movie.setTitle(title);
+        movie.setReleaseYear(year);
+        movie.setDuration(100);
+        for (Long id : genreIds) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            movie.getGenres().add(genre);
+        }
+        return movieService.createMovie(movie).getId();
+    }
+}
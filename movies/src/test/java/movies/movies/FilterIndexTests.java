@@ -0,0 +1,232 @@
+package movies.movies;
+
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Dto.MovieSummary;
+import movies.movies.Entity.Actor;
+import movies.movies.Entity.Genre;
+import movies.movies.Entity.Movie;
+import movies.movies.Exception.ResourceNotFoundException;
+import movies.movies.Repository.MovieRepository;
+import movies.movies.Repository.MovieSpecifications;
+import movies.movies.Search.FilterIndex;
+import movies.movies.Service.ActorService;
+import movies.movies.Service.CommitGate;
+import movies.movies.Service.GenreService;
+import movies.movies.Service.MovieService;
+import jakarta.persistence.EntityManager;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+/*
+ * Checks the movie filters answered by the bitmap index against the same filters run as a query
+ * (MovieSpecifications, the fallback the listing uses for other sort orders), on a generated catalog.
+ * Runs on the prod profile, so the rebuild reads through a reader connection of a database in WAL mode
+ * while writes commit through the writer.
+ */
+@SpringBootTest
+@ActiveProfiles("prod")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class FilterIndexTests {
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path database = Files.createTempDirectory("filter-index").resolve("movies.db");
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + database);
+    }
+
+    private static final Pageable ALL = PageRequest.of(0, 1000, Sort.by("id"));
+
+    @MockitoSpyBean
+    private CommitGate commitGate;
+    @Autowired
+    private FilterIndex filterIndex;
+    @Autowired
+    private MovieService movieService;
+    @Autowired
+    private GenreService genreService;
+    @Autowired
+    private ActorService actorService;
+    @Autowired
+    private MovieRepository movieRepository;
+
+    private final List<Long> genres = new ArrayList<>();
+    private final List<Long> actors = new ArrayList<>();
+    private final List<Long> movies = new ArrayList<>();
+
+    @BeforeAll
+    void catalog() {
+        Random random = new Random(42);
+        for (int i = 0; i < 6; i++) {
+            genres.add(genre("Genre " + i));
+        }
+        for (int i = 0; i < 15; i++) {
+            actors.add(actor("Actor " + i));
+        }
+        for (int i = 0; i < 150; i++) {
+            movies.add(movie("Movie " + i, 1990 + random.nextInt(20), 60 + random.nextInt(140),
+                    pick(random, genres, 1, 3), pick(random, actors, 0, 5)));
+        }
+        assertTrue(filterIndex.isReady());
+    }
+
+    @Test
+    void genresMatchAllOrAny() {
+        assertSameAsQuery(filter(List.of(genres.get(0), genres.get(1)), "all", null, null, null, null, null, null));
+        assertSameAsQuery(filter(List.of(genres.get(0), genres.get(1)), "any", null, null, null, null, null, null));
+        assertSameAsQuery(filter(List.of(genres.get(2), genres.get(3), genres.get(4)), "any", null, null, null, null, null, null));
+    }
+
+    @Test
+    void actorsWithYearAndDurationRanges() {
+        assertSameAsQuery(filter(null, null, List.of(actors.get(0)), null, 1995, 2004, 90, 150));
+        assertSameAsQuery(filter(null, null, List.of(actors.get(1), actors.get(2)), "any", 2000, null, null, 120));
+        assertSameAsQuery(filter(List.of(genres.get(0)), "all", List.of(actors.get(3), actors.get(4)), "any", null, 2005, 100, null));
+        assertSameAsQuery(filter(null, null, null, null, 1990, 1990, null, null));
+    }
+
+    @Test
+    void pagesAndCursorMatchTheQuery() {
+        MovieFilter filter = filter(List.of(genres.get(0), genres.get(1)), "any", null, null, null, null, null, null);
+        for (Pageable page : List.of(PageRequest.of(1, 7, Sort.by("id")), PageRequest.of(2, 5, Sort.by(Sort.Direction.DESC, "id")))) {
+            assertEquals(movieRepository.findAll(MovieSpecifications.matching(filter), page).map(Movie::getId).getContent(),
+                    movieService.getMovies(filter, page).map(MovieSummary::id).getContent());
+        }
+        Long after = movies.get(40);
+        List<Long> expected = movieRepository.findAll(MovieSpecifications.matching(filter).and(MovieSpecifications.idAfter(after)), ALL)
+                .map(Movie::getId).getContent();
+        assertEquals(expected.subList(0, Math.min(10, expected.size())), filterIndex.moviesAfter(filter, after, 10));
+    }
+
+    @Test
+    void emptyIntersection() {
+        Long only = movies.get(0);
+        Long other = movies.get(1);
+        Long first = genre("Lonely A", only);
+        Long second = genre("Lonely B", other);
+        MovieFilter filter = filter(List.of(first, second), "all", null, null, null, null, null, null);
+        assertEquals(0, movieRepository.count(MovieSpecifications.matching(filter)));
+        assertEquals(0, filterIndex.count(filter));
+        ResourceNotFoundException e = assertThrows(ResourceNotFoundException.class, () -> movieService.getMovies(filter, ALL));
+        assertEquals("No movies found with the given filters", e.getMessage());
+        assertSameAsQuery(filter(List.of(first, second), "any", null, null, null, null, null, null));
+    }
+
+    @Test
+    void unknownIdsGetTheListingMessages() {
+        ResourceNotFoundException actor = assertThrows(ResourceNotFoundException.class,
+                () -> movieService.getMovies(filter(null, null, List.of(999999L), null, null, null, null, null), ALL));
+        assertEquals("Actor not found with id: 999999", actor.getMessage());
+        ResourceNotFoundException genre = assertThrows(ResourceNotFoundException.class,
+                () -> movieService.getMovies(filter(List.of(999999L), null, null, null, null, null, null, null), ALL));
+        assertEquals("Movies not found with genre id: 999999", genre.getMessage());
+        ResourceNotFoundException year = assertThrows(ResourceNotFoundException.class,
+                () -> movieService.getMovies(filter(null, null, null, null, 1800, 1800, null, null), ALL));
+        assertEquals("Movies not found with release year: 1800", year.getMessage());
+    }
+
+    //The writes commit after the rebuild's snapshot, so they must be replayed once, not read and replayed
+    @Test
+    void writeCommittedDuringRebuildIsCountedOnce() {
+        Long movie = movies.get(10);
+        Long actor = actor("Late Actor");
+        Long genre = genres.get(5);
+        AtomicReference<Long> added = new AtomicReference<>();
+        AtomicBoolean written = new AtomicBoolean();
+        doAnswer(invocation -> {
+            invocation.callRealMethod();
+            //Another thread, so the writes have their own transactions and commit while the rebuild reads
+            CompletableFuture.runAsync(() -> {
+                actorService.linkMovies(actor, List.of(movie));
+                added.set(movie("Late Movie", 2001, 111, List.of(genre), List.of(actor, actors.get(0))));
+            }).join();
+            written.set(true);
+            return null;
+        }).when(commitGate).openSnapshot(any(EntityManager.class), any(Runnable.class));
+        filterIndex.rebuild();
+        assertTrue(written.get(), "the rebuild didn't open a snapshot");
+
+        assertEquals(movieRepository.findActorIdsById(movie).size(), filterIndex.castSize(movie));
+        assertEquals(2, filterIndex.castSize(added.get()));
+        assertEquals(2, filterIndex.actorSize(actor));
+        assertSameAsQuery(filter(null, null, List.of(actor), null, null, null, null, null));
+        assertSameAsQuery(filter(List.of(genre), null, List.of(actors.get(0)), null, null, null, null, null));
+        assertEquals(movieRepository.count(), filterIndex.count(filter(null, null, null, null, null, null, null, null)));
+    }
+
+    private void assertSameAsQuery(MovieFilter filter) {
+        List<Long> expected = movieRepository.findAll(MovieSpecifications.matching(filter), ALL).map(Movie::getId).getContent();
+        assertFalse(expected.isEmpty(), "the generated catalog has no match for " + filter);
+        assertEquals(expected, movieService.getMovies(filter, ALL).map(MovieSummary::id).getContent(), filter.toString());
+        assertEquals(expected.size(), filterIndex.count(filter), filter.toString());
+    }
+
+    private static MovieFilter filter(List<Long> genres, String genreMatch, List<Long> actors, String actorMatch,
+                                      Integer minYear, Integer maxYear, Integer minDuration, Integer maxDuration) {
+        return MovieFilter.of(genres, genreMatch, actors, actorMatch, null, minYear, maxYear, minDuration, maxDuration);
+    }
+
+    private Long genre(String name, Long... movieIds) {
+        Genre genre = new Genre();
+        genre.setName(name);
+        for (Long id : movieIds) {
+            Movie movie = new Movie();
+            movie.setId(id);
+            genre.getMovies().add(movie);
+        }
+        return genreService.createGenre(genre).getId();
+    }
+
+    private Long actor(String name) {
+        Actor actor = new Actor();
+        actor.setName(name);
+        actor.setBirthDate(LocalDate.of(1970, 1, 1));
+        return actorService.createActor(actor).getId();
+    }
+
+    private Long movie(String title, int year, int duration, List<Long> genreIds, List<Long> actorIds) {
+        Movie movie = new Movie();
+        movie.setTitle(title);
+        movie.setReleaseYear(year);
+        movie.setDuration(duration);
+        for (Long id : genreIds) {
+            Genre genre = new Genre();
+            genre.setId(id);
+            movie.getGenres().add(genre);
+        }
+        for (Long id : actorIds) {
+            Actor actor = new Actor();
+            actor.setId(id);
+            movie.getActors().add(actor);
+        }
+        return movieService.createMovie(movie).getId();
+    }
+
+    private static List<Long> pick(Random random, List<Long> ids, int min, int max) {
+        List<Long> shuffled = new ArrayList<>(ids);
+        Collections.shuffle(shuffled, random);
+        return shuffled.subList(0, min + random.nextInt(max - min + 1));
+    }
+}
@@ -0,0 +1,191 @@
+package movies.movies;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import movies.movies.Service.ExportService;
+import org.hibernate.Session;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIf;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/*
+ * The application on the postgres profile: migrations, sequence ids, the bulk import, filters and the
+ * duplicate name errors. Runs against the database of -Dmovies.test.postgres.url (user and password in
+ * movies.test.postgres.username and .password, postgres by default), or else against a Postgres container
+ * when Docker is available, and is skipped otherwise.
+ * A local database is not emptied, so every run uses names of its own.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+@ActiveProfiles("postgres")
+@EnabledIf("postgresAvailable")
+class PostgresIntegrationTests {
+
+    private static final String URL = System.getProperty("movies.test.postgres.url");
+
+    private static PostgreSQLContainer<?> container;
+
+    static boolean postgresAvailable() {
+        return URL != null || DockerClientFactory.instance().isDockerAvailable();
+    }
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) {
+        if (URL != null) {
+            registry.add("spring.datasource.url", () -> URL);
+            registry.add("spring.datasource.username", () -> System.getProperty("movies.test.postgres.username", "postgres"));
+            registry.add("spring.datasource.password", () -> System.getProperty("movies.test.postgres.password", "postgres"));
+            return;
+        }
+        if (container == null) {
+            container = new PostgreSQLContainer<>("postgres:16-alpine");
+            container.start(); //Stopped by Testcontainers when the JVM exits
+        }
+        registry.add("spring.datasource.url", container::getJdbcUrl);
+        registry.add("spring.datasource.username", container::getUsername);
+        registry.add("spring.datasource.password", container::getPassword);
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+    @Autowired
+    private JdbcTemplate jdbc;
+    @Autowired
+    private ExportService exportService;
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private final String run = UUID.randomUUID().toString().substring(0, 8);
+
+    @Test
+    void createsEntitiesWithSequenceIds() throws Exception {
+        String genre = create("/api/genres", "{\"name\": \"Noir " + run + "\"}");
+        String actor = create("/api/actors", "{\"name\": \"Actor " + run + "\", \"birthDate\": \"1950-01-01\"}");
+        create("/api/movies", "{\"title\": \"Movie " + run + "\", \"releaseYear\": 1999, \"duration\": 100, "
+                + "\"genres\": [{\"id\": " + genre + "}], \"actors\": [{\"id\": " + actor + "}]}");
+
+        mockMvc.perform(get("/api/movies").param("genre", genre))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content", hasSize(1)))
+                .andExpect(jsonPath("$.content[0].title").value("Movie " + run))
+                .andExpect(jsonPath("$.content[0].actors[0].name").value("Actor " + run));
+    }
+
+    @Test
+    void reportsDuplicateNames() throws Exception {
+        create("/api/genres", "{\"name\": \"Dup " + run + "\"}");
+
+        mockMvc.perform(post("/api/genres").contentType(MediaType.APPLICATION_JSON).content("{\"name\": \"Dup " + run + "\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.ERROR").value("Genre with the given name already exists."));
+    }
+
+    @Test
+    void importsAndSearchesTheCatalog() throws Exception {
+        String catalog = "{\"type\": \"genre\", \"name\": \"Import " + run + "\"}\n"
+                + "{\"type\": \"actor\", \"name\": \"Importer " + run + "\", \"birthDate\": \"1960-02-03\"}\n"
+                + "{\"type\": \"movie\", \"title\": \"Silent Storm " + run + "\", \"releaseYear\": 2001, \"duration\": 90, "
+                + "\"genres\": [{\"name\": \"Import " + run + "\"}], \"actors\": [{\"name\": \"Importer " + run + "\"}]}\n"
+                + "{\"type\": \"movie\", \"title\": \"Winter Storm " + run + "\", \"releaseYear\": 2002, \"duration\": 95, "
+                + "\"genres\": [{\"name\": \"Import " + run + "\"}]}\n";
+        mockMvc.perform(post("/api/import").contentType("application/x-ndjson").content(catalog))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.movies").value(2))
+                .andExpect(jsonPath("$.failed").value(0));
+
+        //The movies created afterwards through Hibernate get ids the import didn't take
+        create("/api/movies", "{\"title\": \"Summer Storm " + run + "\", \"releaseYear\": 2003, \"duration\": 80, "
+                + "\"genres\": [{\"id\": " + jdbc.queryForObject("select id from tbl_genre where name = ?", Long.class, "Import " + run) + "}]}");
+
+        mockMvc.perform(get("/api/movies/count").param("title", "storm " + run))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.totalElements").value(3));
+        mockMvc.perform(get("/api/actors").param("name", "importer " + run))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content[*].name", hasItem("Importer " + run)));
+    }
+
+    //PgJDBC only reads the export's stream in batches of the fetch size with autocommit off
+    @Test
+    void exportsWithAutocommitOff() throws Exception {
+        String genre = create("/api/genres", "{\"name\": \"Export " + run + "\"}");
+        create("/api/movies", "{\"title\": \"Exported " + run + "\", \"releaseYear\": 2004, \"duration\": 85, "
+                + "\"genres\": [{\"id\": " + genre + "}]}");
+
+        //Every chunk is written inside the export's transaction, so the output sees its connection
+        List<Boolean> autoCommit = new ArrayList<>();
+        ByteArrayOutputStream exported = new ByteArrayOutputStream() {
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                entityManager.unwrap(Session.class).doWork(connection -> autoCommit.add(connection.getAutoCommit()));
+                super.write(bytes, offset, length);
+            }
+        };
+        exportService.exportMovies(ExportService.NDJSON, exported);
+        assertFalse(autoCommit.isEmpty());
+        assertFalse(autoCommit.contains(true));
+        assertTrue(exported.toString(StandardCharsets.UTF_8).contains("\"title\":\"Exported " + run + "\""));
+    }
+
+    @Test
+    void containingSearchesCanUseTrigramIndexes() {
+        //Without sequential scans the planner has to show it can answer lower(x) like '%...%' from the index
+        List<String> plan = jdbc.execute((ConnectionCallback<List<String>>) connection -> {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("set local enable_seqscan = off");
+                ResultSet result = statement.executeQuery("explain select id from tbl_movie where lower(title) like '%storm%'");
+                List<String> lines = new ArrayList<>();
+                while (result.next()) {
+                    lines.add(result.getString(1));
+                }
+                return lines;
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        });
+        assertTrue(String.join("\n", plan).contains("idx_movie_title_trgm"), String.join("\n", plan));
+
+        Integer indexes = jdbc.queryForObject("select count(*) from pg_indexes where indexname in "
+                + "('idx_movie_title_trgm', 'idx_actor_name_trgm', 'idx_genre_name_trgm')", Integer.class);
+        assertEquals(3, indexes);
+    }
+
+    //Posts a JSON body, expects 201 Created and returns the id of the created entity
+    private String create(String path, String json) throws Exception {
+        String body = mockMvc.perform(post(path).contentType(MediaType.APPLICATION_JSON).content(json))
+                .andExpect(status().isCreated())
+                .andReturn().getResponse().getContentAsString();
+        return body.replaceAll("(?s)^\\{\"id\":(\\d+).*$", "$1");
+    }
+}
@@ -0,0 +1,132 @@
+package movies.movies;
+
+import movies.movies.Dto.MovieFilter;
+import movies.movies.Metrics.QueryCounter;
+import movies.movies.Repository.ActorRepository;
+import movies.movies.Repository.GenreRepository;
+import movies.movies.Repository.MovieRepository;
+import movies.movies.Repository.MovieSpecifications;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+import org.mockito.ArgumentCaptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.fail;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.verify;
+
+/*
+ * Runs the repository queries that filter or join on a column, on an empty database built by the
+ * migrations, and fails if SQLite's plan for any of their statements scans a whole table or index.
+ * The statements are the ones Hibernate actually sends, caught by spying on the statement inspector.
+ */
+@SpringBootTest
+class RepositoryQueryPlanTests {
+
+    @DynamicPropertySource
+    static void database(DynamicPropertyRegistry registry) throws IOException {
+        Path database = Files.createTempDirectory("query-plans").resolve("movies.db");
+        registry.add("spring.datasource.url", () -> "jdbc:sqlite:" + database);
+    }
+
+    @MockitoSpyBean
+    private QueryCounter queryCounter;
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private MovieRepository movieRepository;
+    @Autowired
+    private GenreRepository genreRepository;
+    @Autowired
+    private ActorRepository actorRepository;
+
+    @TestFactory
+    Stream<DynamicTest> filterQueriesUseIndexes() {
+        PageRequest page = PageRequest.of(0, 10, Sort.by("id"));
+        List<Long> ids = List.of(1L, 2L, 3L);
+        Map<String, Runnable> queries = Map.ofEntries(
+                Map.entry("movies by genre", () -> movieRepository.findIdsByGenresId(1L, page)),
+                Map.entry("movies by actor", () -> movieRepository.findIdsByActorsId(1L, page)),
+                Map.entry("movies by release year", () -> movieRepository.findIdsByReleaseYear(1999, page)),
+                Map.entry("movies by genre after", () -> movieRepository.findIdsByGenresIdAfter(1L, 0L, Limit.of(10))),
+                Map.entry("movies by actor after", () -> movieRepository.findIdsByActorsIdAfter(1L, 0L, Limit.of(10))),
+                Map.entry("movies by release year after", () -> movieRepository.findIdsByReleaseYearAfter(1999, 0L, Limit.of(10))),
+                Map.entry("movie count by genre", () -> movieRepository.countByGenresId(1L)),
+                Map.entry("movie count by actor", () -> movieRepository.countByActorsId(1L)),
+                Map.entry("movie count by release year", () -> movieRepository.countByReleaseYear(1999)),
+                Map.entry("genre ids of a movie", () -> movieRepository.findGenreIdsById(1L)),
+                Map.entry("actor ids of a movie", () -> movieRepository.findActorIdsById(1L)),
+                Map.entry("all movie ids of a genre", () -> movieRepository.findAllIdsByGenresId(1L)),
+                Map.entry("all movie ids of an actor", () -> movieRepository.findAllIdsByActorsId(1L)),
+                Map.entry("movie rows", () -> movieRepository.findRefsByIdIn(ids)),
+                Map.entry("genres of movies", () -> movieRepository.findGenresByMovieIdIn(ids)),
+                Map.entry("actors of movies", () -> movieRepository.findActorsByMovieIdIn(ids)),
+                Map.entry("duration of movies of a genre", () -> movieRepository.sumDurationByGenresIdAndIdIn(1L, ids)),
+                Map.entry("actors of a movie", () -> actorRepository.findIdsByMoviesId(1L, page)),
+                Map.entry("movies of genres", () -> genreRepository.findMoviesByGenreIdIn(ids)),
+                Map.entry("movies of actors", () -> actorRepository.findMoviesByActorIdIn(ids)),
+                Map.entry("genre rows", () -> genreRepository.findRefsByIdIn(ids)),
+                Map.entry("actor rows", () -> actorRepository.findRefsByIdIn(ids)),
+                Map.entry("movies by combined filters", () -> movieRepository.findAll(MovieSpecifications.matching(
+                        MovieFilter.of(ids, "all", List.of(1L), "any", null, 1990, 1999, null, null)), page)));
+        return queries.entrySet().stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(query -> DynamicTest.dynamicTest(query.getKey(), () -> assertNoFullScan(query.getValue())));
+    }
+
+    private void assertNoFullScan(Runnable query) throws SQLException {
+        clearInvocations(queryCounter);
+        query.run();
+        ArgumentCaptor<String> statements = ArgumentCaptor.forClass(String.class);
+        verify(queryCounter, atLeastOnce()).inspect(statements.capture());
+        for (String sql : statements.getAllValues()) {
+            List<String> plan = plan(sql);
+            assertFalse(plan.isEmpty(), "No plan for " + sql);
+            for (String step : plan) {
+                if (step.startsWith("SCAN ")) {
+                    fail("Full scan (" + step + ") in " + sql + "\nPlan: " + plan);
+                }
+            }
+        }
+    }
+
+    //The steps of SQLite's plan for a statement, with every parameter set to 1
+    private List<String> plan(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("explain query plan " + sql)) {
+            int parameters = statement.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                statement.setObject(i, 1);
+            }
+            List<String> plan = new ArrayList<>();
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    plan.add(rows.getString("detail"));
+                }
+            }
+            return plan;
+        }
+    }
+}
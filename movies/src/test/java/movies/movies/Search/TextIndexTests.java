@@ -0,0 +1,136 @@
+package movies.movies.Search;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+ * Unit tests of the typo-tolerant search of TextIndex and of the banded edit distance behind it.
+ * In the index's own package, as the edit distance isn't public.
+ */
+class TextIndexTests {
+
+    @Test
+    void editDistanceWithinTheBand() {
+        assertEquals(0, TextIndex.editDistance("redemption", "redemption", 0));
+        assertEquals(1, TextIndex.editDistance("redemption", "redmption", 0));
+        assertEquals(1, TextIndex.editDistance("redmption", "redemption", 1));
+        assertEquals(1, TextIndex.editDistance("redemption", "redemptiom", 2));
+        assertEquals(2, TextIndex.editDistance("redemption", "redemptoin", 2));
+        assertEquals(3, TextIndex.editDistance("redemption", "rdmpxion", 2));
+        assertEquals(2, TextIndex.editDistance("abc", "abcdef", 1));
+        assertEquals(2, TextIndex.editDistance("", "ab", 2));
+    }
+
+    //The band only skips cells that can't stay under max, so it agrees with the full table up to max + 1
+    @Test
+    void editDistanceMatchesTheFullTable() {
+        Random random = new Random(7);
+        for (int i = 0; i < 5000; i++) {
+            String a = randomWord(random);
+            String b = randomWord(random);
+            int distance = levenshtein(a, b);
+            for (int max = 0; max <= 2; max++) {
+                assertEquals(Math.min(distance, max + 1), TextIndex.editDistance(a, b, max), a + " / " + b + " max " + max);
+            }
+        }
+    }
+
+    @Test
+    void misspelledTitleIsFound() {
+        TextIndex index = index("The Shawshank Redemption", "The Green Mile", "Redemption Road");
+        assertEquals(List.of(1L), ids(index.fuzzySearch("Shawshank Redmption", 10)));
+        assertEquals(List.of(1L), ids(index.fuzzySearch("shawshenk redemptoin", 10)));
+        assertEquals(List.of(), ids(index.search("Shawshank Redmption", 10)));
+    }
+
+    @Test
+    void threeEditsAreTooMany() {
+        TextIndex index = index("The Shawshank Redemption", "The Green Mile");
+        assertEquals(List.of(), ids(index.fuzzySearch("Shawshank Rdmpxion", 10)));
+        assertEquals(0, index.fuzzySearch("Shawshank Rdmpxion", 10).total());
+        //Words under 4 letters have to match as they are
+        assertEquals(List.of(), ids(index.fuzzySearch("Thx Green", 10)));
+    }
+
+    @Test
+    void exactMatchesRankBeforeFuzzyOnes() {
+        TextIndex index = index("The Godfathr", "The Godfather Part II", "Godfather", "The Godfather", "Godfathers Of Soul");
+        TextIndex.Result result = index.fuzzySearch("godfather", 10);
+        assertEquals(5, result.total());
+        List<TextIndex.Hit> hits = result.hits();
+        assertEquals(List.of(3L, 5L, 4L, 2L, 1L), ids(result));
+        //The one fuzzy match is last and scores below every match without edits
+        for (TextIndex.Hit hit : hits.subList(0, 4)) {
+            assertTrue(hit.score() > hits.get(4).score());
+        }
+        assertEquals(List.of(3L, 5L, 4L, 2L), ids(index.search("godfather", 10)));
+    }
+
+    @Test
+    void removedAndUpdatedTitlesAreNotReturned() {
+        TextIndex index = index("The Shawshank Redemption", "Shawshank Redemption Revisited", "The Green Mile");
+        index.remove(2);
+        index.put(1, "Escape From Alcatraz");
+        assertEquals(List.of(), ids(index.fuzzySearch("Shawshank Redmption", 10)));
+        assertEquals(List.of(), ids(index.fuzzySearch("Shawshank", 10)));
+        assertEquals(List.of(1L), ids(index.fuzzySearch("Alcatrax", 10)));
+        assertEquals(2, index.size());
+
+        index.put(2, "Shawshank Redemption Revisited");
+        assertEquals(List.of(2L), ids(index.fuzzySearch("Shawshank Redmption", 10)));
+    }
+
+    //Freed slots are dropped once they outnumber the live ones, the words they had must go with them
+    @Test
+    void compactionKeepsOnlyTheLiveTitles() {
+        TextIndex index = new TextIndex();
+        for (long id = 1; id <= 3000; id++) {
+            index.put(id, "Shawshank Redemption " + id);
+        }
+        for (long id = 1; id <= 3000; id++) {
+            index.put(id, "Green Mile " + id);
+        }
+        index.put(7, "The Shawshank Redemption");
+        assertEquals(List.of(7L), ids(index.fuzzySearch("Shawshank Redmption", 10)));
+        assertEquals(2999, index.fuzzySearch("Gren Mile", 5).total());
+    }
+
+    private static TextIndex index(String... titles) {
+        TextIndex index = new TextIndex();
+        for (int i = 0; i < titles.length; i++) {
+            index.put(i + 1, titles[i]);
+        }
+        return index;
+    }
+
+    private static List<Long> ids(TextIndex.Result result) {
+        return result.hits().stream().map(TextIndex.Hit::id).toList();
+    }
+
+    private static String randomWord(Random random) {
+        char[] word = new char[random.nextInt(9)];
+        for (int i = 0; i < word.length; i++) {
+            word[i] = (char) ('a' + random.nextInt(3)); //Few letters, so the words are often close
+        }
+        return new String(word);
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[][] table = new int[a.length() + 1][b.length() + 1];
+        for (int i = 0; i <= a.length(); i++) {
+            for (int j = 0; j <= b.length(); j++) {
+                if (i == 0 || j == 0) {
+                    table[i][j] = i + j;
+                } else {
+                    table[i][j] = Math.min(table[i - 1][j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1),
+                            Math.min(table[i - 1][j], table[i][j - 1]) + 1);
+                }
+            }
+        }
+        return table[a.length()][b.length()];
+    }
+}